@@ -1,11 +1,13 @@
 package com.emmett.customermanagement;
 
+import com.emmett.customermanagement.config.ApplicationProperties;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.core.env.Environment;
@@ -18,6 +20,7 @@ import java.util.Map;
 import java.util.Optional;
 
 @SpringBootApplication
+@EnableConfigurationProperties({ApplicationProperties.class})
 public class CustomermanagementApplication {
 
     private static final Logger log = LoggerFactory.getLogger(CustomermanagementApplication.class);
@@ -0,0 +1,695 @@
+package com.emmett.customermanagement.config;
+
+import com.emmett.customermanagement.domain.enumeration.ReportType;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Properties specific to the Customer API.
+ *
+ * <p>
+ * Properties are configured in the {@code application.properties} file under the {@code application.} prefix.
+ * Every property has a sensible default so that nothing needs to be set to run the app.
+ */
+@ConfigurationProperties(prefix = "application", ignoreUnknownFields = false)
+public class ApplicationProperties {
+
+    private final Import importSettings = new Import();
+
+    private final Export export = new Export();
+
+    private final Jdbc jdbc = new Jdbc();
+
+    private final Count count = new Count();
+
+    private final Filter filter = new Filter();
+
+    private final Search search = new Search();
+
+    private final Lookup lookup = new Lookup();
+
+    private final Batch batch = new Batch();
+
+    private final Cache cache = new Cache();
+
+    private final EntityCache entityCache = new EntityCache();
+
+    private final Reports reports = new Reports();
+
+    public Import getImport() {
+        return importSettings;
+    }
+
+    public Export getExport() {
+        return export;
+    }
+
+    public Jdbc getJdbc() {
+        return jdbc;
+    }
+
+    public Count getCount() {
+        return count;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    public Search getSearch() {
+        return search;
+    }
+
+    public Lookup getLookup() {
+        return lookup;
+    }
+
+    public Batch getBatch() {
+        return batch;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public EntityCache getEntityCache() {
+        return entityCache;
+    }
+
+    public Reports getReports() {
+        return reports;
+    }
+
+    /**
+     * Settings for the csv import facility
+     */
+    public static class Import {
+
+        /**
+         * number of rows handed to the database at a time, a CHUNKED import commits each chunk.
+         * Memory used by an import is bounded by this rather than by the size of the uploaded file
+         */
+        private int chunkSize = 1000;
+
+        /**
+         * threads binding and validating csv rows in parallel, 0 for one per available processor
+         */
+        private int parserThreads = 0;
+
+        /**
+         * rows handed from the csv reader to a parser thread at a time, for files read through opencsv
+         */
+        private int blockSize = 500;
+
+        /**
+         * bytes handed from the csv reader to a parser thread at a time, for files in the import format
+         */
+        private int blockBytes = 256 * 1024;
+
+        /**
+         * blocks queued between the stages of the import pipeline, what stops a fast reader
+         * from running ahead of slow parsers or a slow db
+         */
+        private int blockQueueCapacity = 16;
+
+        /**
+         * threads running background imports. Each running import holds one db connection, so keep this
+         * well below the connection pool size to leave room for interactive traffic
+         */
+        private int maxConcurrentJobs = 2;
+
+        /**
+         * background imports waiting for a free thread, further uploads are refused
+         */
+        private int queueCapacity = 10;
+
+        /**
+         * how long a finished background import stays visible to clients
+         */
+        private Duration jobRetention = Duration.ofHours(1);
+
+        /**
+         * rejected rows of an UPSERT import listed in its result, the rest are only counted
+         */
+        private int maxReportedRejections = 1000;
+
+        /**
+         * whether ATOMIC and CHUNKED imports of a file look for duplicate externalCustomerIds, in the file
+         * and against the db, before writing anything
+         */
+        private boolean duplicateCheck = true;
+
+        /**
+         * externalCustomerIds the in-memory filter of existing ids is sized for. It is sized for at least
+         * twice the ids in the db when it is built, and rebuilt bigger once it holds more than that
+         */
+        private long duplicateFilterExpectedIds = 1_000_000;
+
+        /**
+         * share of new externalCustomerIds the filter wrongly reports as existing, each of those costs a db lookup
+         */
+        private double duplicateFilterFalsePositiveRate = 0.01;
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        public int getParserThreads() {
+            return parserThreads;
+        }
+
+        public void setParserThreads(int parserThreads) {
+            this.parserThreads = parserThreads;
+        }
+
+        /**
+         * @return the parser threads of an import, with 0 resolved to the available processors
+         */
+        public int parserThreads() {
+            return parserThreads > 0 ? parserThreads : Runtime.getRuntime().availableProcessors();
+        }
+
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+        public void setBlockSize(int blockSize) {
+            this.blockSize = blockSize;
+        }
+
+        public int getBlockBytes() {
+            return blockBytes;
+        }
+
+        public void setBlockBytes(int blockBytes) {
+            this.blockBytes = blockBytes;
+        }
+
+        public int getBlockQueueCapacity() {
+            return blockQueueCapacity;
+        }
+
+        public void setBlockQueueCapacity(int blockQueueCapacity) {
+            this.blockQueueCapacity = blockQueueCapacity;
+        }
+
+        public int getMaxConcurrentJobs() {
+            return maxConcurrentJobs;
+        }
+
+        public void setMaxConcurrentJobs(int maxConcurrentJobs) {
+            this.maxConcurrentJobs = maxConcurrentJobs;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public Duration getJobRetention() {
+            return jobRetention;
+        }
+
+        public void setJobRetention(Duration jobRetention) {
+            this.jobRetention = jobRetention;
+        }
+
+        public int getMaxReportedRejections() {
+            return maxReportedRejections;
+        }
+
+        public void setMaxReportedRejections(int maxReportedRejections) {
+            this.maxReportedRejections = maxReportedRejections;
+        }
+
+        public boolean isDuplicateCheck() {
+            return duplicateCheck;
+        }
+
+        public void setDuplicateCheck(boolean duplicateCheck) {
+            this.duplicateCheck = duplicateCheck;
+        }
+
+        public long getDuplicateFilterExpectedIds() {
+            return duplicateFilterExpectedIds;
+        }
+
+        public void setDuplicateFilterExpectedIds(long duplicateFilterExpectedIds) {
+            this.duplicateFilterExpectedIds = duplicateFilterExpectedIds;
+        }
+
+        public double getDuplicateFilterFalsePositiveRate() {
+            return duplicateFilterFalsePositiveRate;
+        }
+
+        public void setDuplicateFilterFalsePositiveRate(double duplicateFilterFalsePositiveRate) {
+            this.duplicateFilterFalsePositiveRate = duplicateFilterFalsePositiveRate;
+        }
+    }
+
+    /**
+     * Settings for the streaming customer export
+     */
+    public static class Export {
+
+        /**
+         * rows the db sends per round trip while the export cursor is read
+         */
+        private int fetchSize = 1000;
+
+        /**
+         * exports streamed at the same time, each holds one db connection for as long as it runs
+         */
+        private int maxConcurrentExports = 4;
+
+        /**
+         * exports waiting for a free thread, further requests are refused
+         */
+        private int queueCapacity = 20;
+
+        /**
+         * how long an export may take before the response is cut off
+         */
+        private Duration timeout = Duration.ofHours(2);
+
+        public int getFetchSize() {
+            return fetchSize;
+        }
+
+        public void setFetchSize(int fetchSize) {
+            this.fetchSize = fetchSize;
+        }
+
+        public int getMaxConcurrentExports() {
+            return maxConcurrentExports;
+        }
+
+        public void setMaxConcurrentExports(int maxConcurrentExports) {
+            this.maxConcurrentExports = maxConcurrentExports;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+    }
+
+    /**
+     * Settings for the plain JDBC bulk paths
+     */
+    public static class Jdbc {
+
+        /**
+         * statements sent to the db in one JDBC batch
+         */
+        private int batchSize = 500;
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+    }
+
+    /**
+     * Settings for the cached count of customers behind X-Total-Count and the count endpoint
+     */
+    public static class Count {
+
+        /**
+         * the count is recounted from the db when older than this, to catch writes that bypassed it
+         */
+        private Duration maxAge = Duration.ofMinutes(10);
+
+        public Duration getMaxAge() {
+            return maxAge;
+        }
+
+        public void setMaxAge(Duration maxAge) {
+            this.maxAge = maxAge;
+        }
+    }
+
+    /**
+     * Settings for filtering the customer listing
+     */
+    public static class Filter {
+
+        /**
+         * filters that no index narrows down, such as the gender alone, are refused once there are more customers than this
+         */
+        private long unindexedMaxRows = 100_000;
+
+        public long getUnindexedMaxRows() {
+            return unindexedMaxRows;
+        }
+
+        public void setUnindexedMaxRows(long unindexedMaxRows) {
+            this.unindexedMaxRows = unindexedMaxRows;
+        }
+    }
+
+    /**
+     * Settings for the fuzzy customer name search
+     */
+    public static class Search {
+
+        /**
+         * fraction of the trigrams of the query a name needs to match it, lower finds more misspellings and costs more
+         */
+        private double minMatch = 0.5;
+
+        /**
+         * most results a search returns
+         */
+        private int maxResults = 100;
+
+        /**
+         * the index is rebuilt once it holds more old versions of renamed and deleted customers than this, or than customers
+         */
+        private int maxDeletedDocuments = 100_000;
+
+        /**
+         * names a transaction may write before they are applied when it commits; past this its changes are dropped and
+         * the index is rebuilt instead, so a long import does not hold every name it wrote until then
+         */
+        private int maxPendingChanges = 5_000;
+
+        public double getMinMatch() {
+            return minMatch;
+        }
+
+        public void setMinMatch(double minMatch) {
+            this.minMatch = minMatch;
+        }
+
+        public int getMaxResults() {
+            return maxResults;
+        }
+
+        public void setMaxResults(int maxResults) {
+            this.maxResults = maxResults;
+        }
+
+        public int getMaxDeletedDocuments() {
+            return maxDeletedDocuments;
+        }
+
+        public void setMaxDeletedDocuments(int maxDeletedDocuments) {
+            this.maxDeletedDocuments = maxDeletedDocuments;
+        }
+
+        public int getMaxPendingChanges() {
+            return maxPendingChanges;
+        }
+
+        public void setMaxPendingChanges(int maxPendingChanges) {
+            this.maxPendingChanges = maxPendingChanges;
+        }
+    }
+
+    /**
+     * Settings for resolving many customers in one request
+     */
+    public static class Lookup {
+
+        /**
+         * most ids or external ids one request may ask for, larger lookups are refused
+         */
+        private int maxIds = 1000;
+
+        public int getMaxIds() {
+            return maxIds;
+        }
+
+        public void setMaxIds(int maxIds) {
+            this.maxIds = maxIds;
+        }
+    }
+
+    /**
+     * Settings for the bulk JSON create, update and delete of customers
+     */
+    public static class Batch {
+
+        /**
+         * items written to the db in one transaction, a bulk request holds no more than this many in memory
+         */
+        private int chunkSize = 500;
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    /**
+     * Settings for the in-memory cache of customers read by id or externalCustomerId
+     */
+    public static class Cache {
+
+        /**
+         * customers the cache holds at most, 0 turns it off
+         */
+        private int maximumSize = 10_000;
+
+        /**
+         * a customer is read from the db again once cached this long, in case it was written around the cache
+         */
+        private Duration timeToLive = Duration.ofMinutes(10);
+
+        public int getMaximumSize() {
+            return maximumSize;
+        }
+
+        public void setMaximumSize(int maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+
+        public Duration getTimeToLive() {
+            return timeToLive;
+        }
+
+        public void setTimeToLive(Duration timeToLive) {
+            this.timeToLive = timeToLive;
+        }
+    }
+
+    /**
+     * Settings for the regions of hibernate's second level cache
+     */
+    public static class EntityCache {
+
+        private final Region customer = new Region(10_000, Duration.ofHours(1));
+
+        /**
+         * reports are only written by their refresh, which updates the cache too
+         */
+        private final Region report = new Region(100, Duration.ZERO);
+
+        /**
+         * results of the cacheable queries. They are dropped whenever a table they read from is written
+         */
+        private final Region queries = new Region(1000, Duration.ZERO);
+
+        public Region getCustomer() {
+            return customer;
+        }
+
+        public Region getReport() {
+            return report;
+        }
+
+        public Region getQueries() {
+            return queries;
+        }
+    }
+
+    /**
+     * Size and expiry of a cache region. Once full, the heap store evicts the entries it judges least used
+     */
+    public static class Region {
+
+        /**
+         * entries the region holds at most
+         */
+        private long maxEntries;
+
+        /**
+         * entries expire this long after they were cached, 0 to keep them until they are evicted or invalidated
+         */
+        private Duration timeToLive;
+
+        public Region(long maxEntries, Duration timeToLive) {
+            this.maxEntries = maxEntries;
+            this.timeToLive = timeToLive;
+        }
+
+        public long getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(long maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public Duration getTimeToLive() {
+            return timeToLive;
+        }
+
+        public void setTimeToLive(Duration timeToLive) {
+            this.timeToLive = timeToLive;
+        }
+    }
+
+    /**
+     * Settings for the refresh of the reports
+     */
+    public static class Reports {
+
+        /**
+         * when every report is refreshed, in one go. "-" turns it off
+         */
+        private String cron = "0 0 2 * * *";
+
+        /**
+         * whether that refresh first recounts the customer aggregates from the table, in one scan
+         */
+        private boolean recount = true;
+
+        /**
+         * reports refreshed on a schedule of their own as well
+         */
+        private final Map<ReportType, Schedule> schedules = new EnumMap<>(ReportType.class);
+
+        /**
+         * a report older than this is refreshed in the background when it is read, the old one is served meanwhile.
+         * 0 turns it off
+         */
+        private Duration maxStaleness = Duration.ofHours(25);
+
+        /**
+         * threads scanning parts of the customer table at once for the distribution reports, each on a connection of
+         * its own, 0 for one per available processor. Never more than scanConnections
+         */
+        private int parallelism = 0;
+
+        /**
+         * connections of the pool the scan threads may hold at once, 0 for half of
+         * spring.datasource.hikari.maximum-pool-size. The rest is left to requests, imports and exports
+         */
+        private int scanConnections = 0;
+
+        /**
+         * customer ids per part of the scan
+         */
+        private long partitionSize = 100_000;
+
+        public String getCron() {
+            return cron;
+        }
+
+        public void setCron(String cron) {
+            this.cron = cron;
+        }
+
+        public boolean isRecount() {
+            return recount;
+        }
+
+        public void setRecount(boolean recount) {
+            this.recount = recount;
+        }
+
+        public Map<ReportType, Schedule> getSchedules() {
+            return schedules;
+        }
+
+        public Duration getMaxStaleness() {
+            return maxStaleness;
+        }
+
+        public void setMaxStaleness(Duration maxStaleness) {
+            this.maxStaleness = maxStaleness;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public int getScanConnections() {
+            return scanConnections;
+        }
+
+        public void setScanConnections(int scanConnections) {
+            this.scanConnections = scanConnections;
+        }
+
+        public long getPartitionSize() {
+            return partitionSize;
+        }
+
+        public void setPartitionSize(long partitionSize) {
+            this.partitionSize = partitionSize;
+        }
+    }
+
+    /**
+     * When a report is refreshed: on a cron, or at a fixed interval
+     */
+    public static class Schedule {
+
+        private String cron;
+
+        /**
+         * between the end of one refresh and the start of the next
+         */
+        private Duration interval;
+
+        public String getCron() {
+            return cron;
+        }
+
+        public void setCron(String cron) {
+            this.cron = cron;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+    }
+}
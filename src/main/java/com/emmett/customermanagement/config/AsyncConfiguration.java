@@ -0,0 +1,142 @@
+package com.emmett.customermanagement.config;
+
+import com.emmett.customermanagement.domain.enumeration.ReportType;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import javax.sql.DataSource;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executors for the work we take off the request threads
+ */
+@Configuration
+public class AsyncConfiguration {
+
+    private final Logger log = LoggerFactory.getLogger(AsyncConfiguration.class);
+
+    /**
+     * Runs background csv imports. Bounded in threads and queue so imports can never take over
+     * the connection pool or pile up without limit
+     */
+    @Bean
+    public ThreadPoolTaskExecutor importTaskExecutor(ApplicationProperties applicationProperties) {
+        ApplicationProperties.Import importProperties = applicationProperties.getImport();
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(importProperties.getMaxConcurrentJobs());
+        executor.setMaxPoolSize(importProperties.getMaxConcurrentJobs());
+        executor.setQueueCapacity(importProperties.getQueueCapacity());
+        executor.setThreadNamePrefix("customer-import-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        return executor;
+    }
+
+    /**
+     * Runs the reader and the parser threads of csv imports (see ImportPipeline), room for
+     * {@code application.import.max-concurrent-jobs} imports at once. An import beyond that waits for the threads
+     * it needs rather than starting with fewer
+     */
+    @Bean
+    public ThreadPoolTaskExecutor importPipelineTaskExecutor(ApplicationProperties applicationProperties) {
+        ApplicationProperties.Import importProperties = applicationProperties.getImport();
+        int threads = Math.max(1, importProperties.getMaxConcurrentJobs()) * (importProperties.parserThreads() + 1);
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        // a thread given back is briefly busy still, the next import's stages wait for it here
+        executor.setQueueCapacity(threads);
+        executor.setThreadNamePrefix("customer-import-pipeline-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        return executor;
+    }
+
+    /**
+     * Runs Spring MVC's async request processing, which is where streamed responses (the customer export)
+     * are written. Bounded for the same reason as the import executor, each export holds a db connection
+     */
+    @Bean
+    public ThreadPoolTaskExecutor mvcAsyncTaskExecutor(ApplicationProperties applicationProperties) {
+        ApplicationProperties.Export exportProperties = applicationProperties.getExport();
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(exportProperties.getMaxConcurrentExports());
+        executor.setMaxPoolSize(exportProperties.getMaxConcurrentExports());
+        executor.setQueueCapacity(exportProperties.getQueueCapacity());
+        executor.setThreadNamePrefix("mvc-async-");
+        return executor;
+    }
+
+    /**
+     * Rebuilds the customer name index. One thread, there is never more than one rebuild at a time
+     */
+    @Bean
+    public ThreadPoolTaskExecutor searchIndexTaskExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(1);
+        executor.setThreadNamePrefix("search-index-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        return executor;
+    }
+
+    /**
+     * Refreshes reports found stale when read. One thread, so that stale reads never have more than one refresh,
+     * with its connection and its scan threads (see reportForkJoinPool), going at a time, and room to queue each
+     * report type once (see ReportRefresher)
+     */
+    @Bean
+    public ThreadPoolTaskExecutor reportTaskExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(ReportType.values().length);
+        executor.setThreadNamePrefix("report-refresh-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        return executor;
+    }
+
+    /**
+     * Scans parts of the customer table at once for the distribution reports (see AgeHistograms). Every thread holds
+     * a connection while it scans, so there are no more threads than {@code application.reports.scan-connections},
+     * by default half the connection pool: a full refresh takes those and the one the reports are written on, and
+     * the rest of the pool is left to requests, imports and exports. Nor more than
+     * {@code application.reports.parallelism}
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ForkJoinPool reportForkJoinPool(ApplicationProperties applicationProperties, DataSource dataSource) {
+        ApplicationProperties.Reports reportsProperties = applicationProperties.getReports();
+        int parallelism = reportsProperties.getParallelism() > 0
+                ? reportsProperties.getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        if (dataSource instanceof HikariDataSource) {
+            int poolSize = ((HikariDataSource) dataSource).getMaximumPoolSize();
+            // one always left for the connection the reports are written on
+            int connections = Math.min(poolSize - 1,
+                    reportsProperties.getScanConnections() > 0 ? reportsProperties.getScanConnections() : poolSize / 2);
+            if (parallelism > connections) {
+                log.info("Scanning for reports on {} threads rather than {}, {} of the {} connections of the pool are theirs",
+                        connections, parallelism, connections, poolSize);
+                parallelism = connections;
+            }
+        }
+        parallelism = Math.max(1, parallelism);
+
+        ForkJoinPool.ForkJoinWorkerThreadFactory threadFactory = pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("report-scan-" + thread.getPoolIndex());
+            return thread;
+        };
+        // no spare threads beyond the parallelism, a task blocked on the db must not get another one started
+        return new ForkJoinPool(parallelism, threadFactory, null, false,
+                0, parallelism, 1, pool -> true, 60, TimeUnit.SECONDS);
+    }
+}
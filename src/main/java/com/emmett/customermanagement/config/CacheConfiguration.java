@@ -0,0 +1,62 @@
+package com.emmett.customermanagement.config;
+
+import com.emmett.customermanagement.domain.Customer;
+import com.emmett.customermanagement.domain.Report;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.jsr107.Eh107Configuration;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cache.spi.RegionFactory;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.time.Duration;
+
+/**
+ * Regions of hibernate's second level cache, kept on the heap by ehcache through JCache. Hibernate is handed the
+ * cache manager and fails to start on a region that is not made here, so every region is sized by
+ * {@code application.entity-cache}
+ */
+@Configuration
+public class CacheConfiguration {
+
+    @Bean
+    public CacheManager entityCacheManager(ApplicationProperties applicationProperties) {
+        ApplicationProperties.EntityCache entityCache = applicationProperties.getEntityCache();
+
+        CacheManager cacheManager = Caching.getCachingProvider(EhcacheCachingProvider.class.getName()).getCacheManager();
+        createCache(cacheManager, Customer.class.getName(), entityCache.getCustomer());
+        createCache(cacheManager, Report.class.getName(), entityCache.getReport());
+        createCache(cacheManager, RegionFactory.DEFAULT_QUERY_RESULTS_REGION_UNQUALIFIED_NAME, entityCache.getQueries());
+        // when each table was last written, a cached query result older than that is ignored. One entry per table,
+        // they must outlive the results
+        createCache(cacheManager, RegionFactory.DEFAULT_UPDATE_TIMESTAMPS_REGION_UNQUALIFIED_NAME,
+                new ApplicationProperties.Region(100, Duration.ZERO));
+        return cacheManager;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer hibernateCacheCustomizer(CacheManager entityCacheManager) {
+        return hibernateProperties -> hibernateProperties.put(ConfigSettings.CACHE_MANAGER, entityCacheManager);
+    }
+
+    private static void createCache(CacheManager cacheManager, String name, ApplicationProperties.Region region) {
+        javax.cache.Cache<Object, Object> cache = cacheManager.getCache(name);
+        if (cache != null) {
+            // the cache manager is shared, another application context made the region already
+            cache.clear();
+            return;
+        }
+        CacheConfigurationBuilder<Object, Object> builder = CacheConfigurationBuilder.newCacheConfigurationBuilder(
+                Object.class, Object.class, ResourcePoolsBuilder.heap(region.getMaxEntries()));
+        if (!region.getTimeToLive().isZero()) {
+            builder = builder.withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(region.getTimeToLive()));
+        }
+        cacheManager.createCache(name, Eh107Configuration.fromEhcacheCacheConfiguration(builder));
+    }
+}
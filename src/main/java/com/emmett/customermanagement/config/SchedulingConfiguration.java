@@ -0,0 +1,49 @@
+package com.emmett.customermanagement.config;
+
+import com.emmett.customermanagement.domain.enumeration.ReportType;
+import com.emmett.customermanagement.service.ReportRefresher;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.IntervalTask;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+import java.util.Map;
+
+/**
+ * Refreshes the reports on the schedules of {@code application.reports}: all of them on one cron, and any report
+ * with a schedule of its own on that as well. The scheduler has a single thread, refreshes take turns
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfiguration implements SchedulingConfigurer {
+
+    private final ApplicationProperties applicationProperties;
+
+    private final ReportRefresher reportRefresher;
+
+    public SchedulingConfiguration(ApplicationProperties applicationProperties, ReportRefresher reportRefresher) {
+        this.applicationProperties = applicationProperties;
+        this.reportRefresher = reportRefresher;
+    }
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
+        ApplicationProperties.Reports reports = applicationProperties.getReports();
+        // "-" is left out by the registrar
+        taskRegistrar.addCronTask(reportRefresher::refreshAllOnSchedule, reports.getCron());
+
+        for (Map.Entry<ReportType, ApplicationProperties.Schedule> entry : reports.getSchedules().entrySet()) {
+            ReportType reportType = entry.getKey();
+            ApplicationProperties.Schedule schedule = entry.getValue();
+            Runnable refresh = () -> reportRefresher.refreshOnSchedule(reportType);
+            if (schedule.getCron() != null) {
+                taskRegistrar.addCronTask(refresh, schedule.getCron());
+            }
+            if (schedule.getInterval() != null) {
+                long interval = schedule.getInterval().toMillis();
+                taskRegistrar.addFixedDelayTask(new IntervalTask(refresh, interval, interval));
+            }
+        }
+    }
+}
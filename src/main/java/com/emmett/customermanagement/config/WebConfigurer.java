@@ -0,0 +1,32 @@
+package com.emmett.customermanagement.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Configuration of Spring MVC
+ */
+@Configuration
+public class WebConfigurer implements WebMvcConfigurer {
+
+    private final ThreadPoolTaskExecutor mvcAsyncTaskExecutor;
+
+    private final ApplicationProperties applicationProperties;
+
+    public WebConfigurer(ThreadPoolTaskExecutor mvcAsyncTaskExecutor, ApplicationProperties applicationProperties) {
+        this.mvcAsyncTaskExecutor = mvcAsyncTaskExecutor;
+        this.applicationProperties = applicationProperties;
+    }
+
+    /**
+     * Streamed responses are written on our bounded executor rather than on a new thread per request,
+     * and may run for as long as an export takes
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(mvcAsyncTaskExecutor);
+        configurer.setDefaultTimeout(applicationProperties.getExport().getTimeout().toMillis());
+    }
+}
@@ -5,6 +5,8 @@ import com.opencsv.bean.CsvBindByName;
 import com.opencsv.bean.CsvDate;
 import io.swagger.annotations.ApiModel;
 import io.swagger.annotations.ApiModelProperty;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
@@ -14,7 +16,16 @@ import java.time.Instant;
 import java.time.LocalDate;
 
 @Entity
-@Table(name = "customer")
+@Table(name = "customer", indexes = {
+        // backs the listing, which is sorted by name with the id as tie breaker, and its keyset pagination
+        @Index(name = "idx_customer_name_id", columnList = "name, id"),
+        // filters of the listing, see CustomerSpecifications
+        @Index(name = "idx_customer_gender_birth_date", columnList = "gender, birth_date"),
+        @Index(name = "idx_customer_birth_date", columnList = "birth_date"),
+        @Index(name = "idx_customer_created_at", columnList = "created_at"),
+        @Index(name = "idx_customer_updated_at", columnList = "updated_at")
+})
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @ApiModel(description = "Represents a Customer")
 public class Customer implements Serializable {
 
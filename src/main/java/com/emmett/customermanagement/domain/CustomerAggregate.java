@@ -0,0 +1,65 @@
+package com.emmett.customermanagement.domain;
+
+import com.emmett.customermanagement.domain.enumeration.Gender;
+
+import javax.persistence.*;
+
+/**
+ * Running totals of the customers of a gender, kept up to date by every write of a customer so that the age reports
+ * don't scan the customer table. See CustomerAggregates
+ */
+@Entity
+@Table(name = "customer_aggregate")
+public class CustomerAggregate {
+
+    /**
+     * one row per gender
+     */
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(name = "gender")
+    private Gender gender;
+
+    @Column(name = "customers", nullable = false)
+    private long customers;
+
+    /**
+     * sum of the birth dates of the customers, in days since 1970-01-01
+     */
+    @Column(name = "birth_epoch_days", nullable = false)
+    private long birthEpochDays;
+
+    public CustomerAggregate() {
+
+    }
+
+    public CustomerAggregate(Gender gender, long customers, long birthEpochDays) {
+        this.gender = gender;
+        this.customers = customers;
+        this.birthEpochDays = birthEpochDays;
+    }
+
+    public Gender getGender() {
+        return gender;
+    }
+
+    public void setGender(Gender gender) {
+        this.gender = gender;
+    }
+
+    public long getCustomers() {
+        return customers;
+    }
+
+    public void setCustomers(long customers) {
+        this.customers = customers;
+    }
+
+    public long getBirthEpochDays() {
+        return birthEpochDays;
+    }
+
+    public void setBirthEpochDays(long birthEpochDays) {
+        this.birthEpochDays = birthEpochDays;
+    }
+}
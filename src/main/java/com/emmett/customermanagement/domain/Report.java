@@ -1,6 +1,10 @@
 package com.emmett.customermanagement.domain;
 
 import com.emmett.customermanagement.domain.enumeration.ReportType;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
@@ -8,6 +12,7 @@ import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "report")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Report {
 
 //    @Id
@@ -31,6 +36,14 @@ public class Report {
     @Column(name = "data", length = 256, nullable = false)
     private String data;
 
+    /**
+     * the structured data of a distribution report, as JSON. Null for the others
+     */
+    @Lob
+    @Column(name = "distribution")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String distribution;
+
     public Report(){
 
     }
@@ -64,4 +77,16 @@ public class Report {
     public void setData(String data) {
         this.data = data;
     }
+
+    /**
+     * @return the JSON, served as it is rather than as a string
+     */
+    @JsonRawValue
+    public String getDistribution() {
+        return distribution;
+    }
+
+    public void setDistribution(String distribution) {
+        this.distribution = distribution;
+    }
 }
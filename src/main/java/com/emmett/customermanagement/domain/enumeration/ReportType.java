@@ -3,5 +3,8 @@ package com.emmett.customermanagement.domain.enumeration;
 public enum ReportType {
     AVG_AGE,
     AVG_AGE_MALE,
-    AVG_AGE_FEMALE
+    AVG_AGE_FEMALE,
+    AGE_DISTRIBUTION,
+    AGE_DISTRIBUTION_MALE,
+    AGE_DISTRIBUTION_FEMALE
 }
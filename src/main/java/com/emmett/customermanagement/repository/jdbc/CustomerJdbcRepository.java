@@ -0,0 +1,321 @@
+package com.emmett.customermanagement.repository.jdbc;
+
+import com.emmett.customermanagement.config.ApplicationProperties;
+import com.emmett.customermanagement.domain.Customer;
+import com.emmett.customermanagement.domain.enumeration.Gender;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.UncategorizedSQLException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Plain JDBC access to the customer table for the bulk paths where going through the
+ * persistence context costs more than it gives.
+ *
+ * <p>
+ * Customer ids are IDENTITY columns, which stops Hibernate from batching inserts (it needs each generated id
+ * straight away), so a bulk save through JPA is one round trip per row. Here the inserts are sent in JDBC
+ * batches of {@code application.jdbc.batch-size} and the generated ids are read back per batch.
+ * Upserts keyed on the external customer id go through MERGE, also in batches.
+ */
+@Repository
+public class CustomerJdbcRepository {
+
+    private static final String INSERT_SQL = "insert into customer (name, gender, birth_date, external_customer_id, created_at, updated_at) " +
+            "values (?, ?, ?, ?, ?, ?)";
+
+    private static final String SELECT_ALL_SQL = "select id, name, gender, birth_date, external_customer_id, created_at, updated_at " +
+            "from customer order by id";
+
+    /**
+     * Inserts a customer whose external id is new (or who has none), updates the one with the same external id
+     * if anything changed and leaves it alone otherwise - 1 row affected for the first two, 0 for the last
+     */
+    private static final String MERGE_SQL = "merge into customer c " +
+            "using (select cast(? as varchar(128)) name, cast(? as varchar(255)) gender, cast(? as date) birth_date, " +
+            "cast(? as varchar(128)) external_customer_id, cast(? as timestamp) ts) s " +
+            "on c.external_customer_id = s.external_customer_id " +
+            "when matched and (c.name <> s.name or c.gender <> s.gender or c.birth_date <> s.birth_date) then " +
+            "update set name = s.name, gender = s.gender, birth_date = s.birth_date, updated_at = s.ts " +
+            "when not matched then " +
+            "insert (name, gender, birth_date, external_customer_id, created_at) " +
+            "values (s.name, s.gender, s.birth_date, s.external_customer_id, s.ts)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final ApplicationProperties applicationProperties;
+
+    public CustomerJdbcRepository(JdbcTemplate jdbcTemplate, ApplicationProperties applicationProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.applicationProperties = applicationProperties;
+    }
+
+    /**
+     * Inserts new customers in JDBC batches, setting the generated id on each of them.
+     * Joins the current transaction if there is one
+     * @param customers customers without an id
+     * @return number of rows inserted
+     */
+    public int batchInsert(List<Customer> customers) {
+        int batchSize = applicationProperties.getJdbc().getBatchSize();
+
+        Integer inserted = jdbcTemplate.execute((ConnectionCallback<Integer>) connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(INSERT_SQL, new String[]{"id"})) {
+                int count = 0;
+                for (int start = 0; start < customers.size(); start += batchSize) {
+                    List<Customer> batch = customers.subList(start, Math.min(start + batchSize, customers.size()));
+                    for (Customer customer : batch) {
+                        bindInsert(ps, customer);
+                        ps.addBatch();
+                    }
+                    count += sum(ps.executeBatch());
+                    readGeneratedIds(ps, batch);
+                }
+                return count;
+            }
+        });
+        return inserted == null ? 0 : inserted;
+    }
+
+    /**
+     * Merges customers on their externalCustomerId in JDBC batches, see {@link #MERGE_SQL}. Each batch runs under a
+     * savepoint; if the db refuses any of its rows the batch is rolled back to it and replayed one row at a time,
+     * so only the refused rows are left out. Has to run in a transaction
+     * @param customers createdAt is the time of the insert or update, ids are not read back
+     * @param failed told about each row the db refused, with its index in the list
+     * @return per customer, 1 if it was inserted or updated, 0 if it was unchanged,
+     * {@link Statement#EXECUTE_FAILED} if it was refused
+     */
+    public int[] batchMerge(List<Customer> customers, ObjIntConsumer<DataAccessException> failed) {
+        int batchSize = applicationProperties.getJdbc().getBatchSize();
+        int[] outcomes = new int[customers.size()];
+
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(MERGE_SQL)) {
+                for (int start = 0; start < customers.size(); start += batchSize) {
+                    List<Customer> batch = customers.subList(start, Math.min(start + batchSize, customers.size()));
+                    Savepoint savepoint = connection.setSavepoint();
+                    try {
+                        for (Customer customer : batch) {
+                            bindMerge(ps, customer);
+                            ps.addBatch();
+                        }
+                        int[] counts = ps.executeBatch();
+                        System.arraycopy(counts, 0, outcomes, start, counts.length);
+                        connection.releaseSavepoint(savepoint);
+                    } catch (BatchUpdateException ex) {
+                        ps.clearBatch();
+                        connection.rollback(savepoint);
+                        for (int i = 0; i < batch.size(); i++) {
+                            outcomes[start + i] = mergeOne(connection, ps, batch.get(i), start + i, failed);
+                        }
+                    }
+                }
+            }
+            return null;
+        });
+        return outcomes;
+    }
+
+    /**
+     * Reads the customers with the given external ids and locks them until the transaction ends, in id order and
+     * {@code application.jdbc.batch-size} ids per query. Joins the current transaction
+     * @return the customers found, by external id
+     */
+    public Map<String, Customer> findAllByExternalCustomerIdForUpdate(Collection<String> externalCustomerIds) {
+        int batchSize = applicationProperties.getJdbc().getBatchSize();
+        List<String> ids = new ArrayList<>(externalCustomerIds);
+        Map<String, Customer> customers = new HashMap<>();
+        for (int start = 0; start < ids.size(); start += batchSize) {
+            List<String> batch = ids.subList(start, Math.min(start + batchSize, ids.size()));
+            String sql = "select id, name, gender, birth_date, external_customer_id, created_at, updated_at " +
+                    "from customer where external_customer_id in (" +
+                    String.join(", ", Collections.nCopies(batch.size(), "?")) + ") order by id for update";
+            jdbcTemplate.query(sql, (RowCallbackHandler) rs -> {
+                Customer customer = mapRow(rs);
+                customers.put(customer.getExternalCustomerId(), customer);
+            }, batch.toArray());
+        }
+        return customers;
+    }
+
+    /**
+     * Reads every customer, in id order, through a forward-only cursor that fetches
+     * {@code application.export.fetch-size} rows at a time - only the current row is held in memory.
+     * Run it in a (read-only) transaction, some drivers only stream the rows when not in auto-commit mode
+     */
+    public void streamAll(Consumer<Customer> action) {
+        jdbcTemplate.query(connection -> {
+                    PreparedStatement ps = connection.prepareStatement(SELECT_ALL_SQL,
+                            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    ps.setFetchSize(applicationProperties.getExport().getFetchSize());
+                    return ps;
+                },
+                (RowCallbackHandler) rs -> action.accept(mapRow(rs)));
+    }
+
+    /**
+     * Streams every external customer id in the table, without holding them all in memory
+     */
+    public void forEachExternalCustomerId(Consumer<String> action) {
+        jdbcTemplate.query(connection -> {
+                    PreparedStatement ps = connection.prepareStatement(
+                            "select external_customer_id from customer where external_customer_id is not null");
+                    ps.setFetchSize(applicationProperties.getJdbc().getBatchSize());
+                    return ps;
+                },
+                (RowCallbackHandler) rs -> action.accept(rs.getString(1)));
+    }
+
+    /**
+     * Streams the id and name of every customer, without holding them all in memory
+     */
+    public void forEachName(ObjLongConsumer<String> action) {
+        jdbcTemplate.query(connection -> {
+                    PreparedStatement ps = connection.prepareStatement("select id, name from customer");
+                    ps.setFetchSize(applicationProperties.getJdbc().getBatchSize());
+                    return ps;
+                },
+                (RowCallbackHandler) rs -> action.accept(rs.getString(2), rs.getLong(1)));
+    }
+
+    /**
+     * Streams the gender and birth date of every customer, without holding them all in memory
+     */
+    public void forEachGenderAndBirthDate(BiConsumer<Gender, LocalDate> action) {
+        jdbcTemplate.query(connection -> {
+                    PreparedStatement ps = connection.prepareStatement("select gender, birth_date from customer",
+                            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    ps.setFetchSize(applicationProperties.getExport().getFetchSize());
+                    return ps;
+                },
+                (RowCallbackHandler) rs -> action.accept(Gender.valueOf(rs.getString(1)), rs.getDate(2).toLocalDate()));
+    }
+
+    /**
+     * {@link #forEachGenderAndBirthDate(BiConsumer)} of the customers with an id in the range, so that several
+     * connections can each scan a part of the table
+     * @param fromId inclusive
+     * @param toId inclusive
+     */
+    public void forEachGenderAndBirthDate(long fromId, long toId, BiConsumer<Gender, LocalDate> action) {
+        jdbcTemplate.query(connection -> {
+                    PreparedStatement ps = connection.prepareStatement(
+                            "select gender, birth_date from customer where id between ? and ?",
+                            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    ps.setLong(1, fromId);
+                    ps.setLong(2, toId);
+                    ps.setFetchSize(applicationProperties.getExport().getFetchSize());
+                    return ps;
+                },
+                (RowCallbackHandler) rs -> action.accept(Gender.valueOf(rs.getString(1)), rs.getDate(2).toLocalDate()));
+    }
+
+    /**
+     * @return the smallest and largest customer id, null if there are no customers
+     */
+    public long[] findIdRange() {
+        return jdbcTemplate.queryForObject("select min(id), max(id) from customer",
+                (rs, rowNum) -> rs.getObject(1) == null ? null : new long[]{rs.getLong(1), rs.getLong(2)});
+    }
+
+    public long countExternalCustomerIds() {
+        Long count = jdbcTemplate.queryForObject("select count(external_customer_id) from customer", Long.class);
+        return count == null ? 0 : count;
+    }
+
+    private int mergeOne(Connection connection, PreparedStatement ps, Customer customer, int index,
+                         ObjIntConsumer<DataAccessException> failed) throws SQLException {
+        Savepoint savepoint = connection.setSavepoint();
+        try {
+            bindMerge(ps, customer);
+            int count = ps.executeUpdate();
+            connection.releaseSavepoint(savepoint);
+            return count;
+        } catch (SQLException ex) {
+            connection.rollback(savepoint);
+            failed.accept(translate(ex), index);
+            return Statement.EXECUTE_FAILED;
+        }
+    }
+
+    private DataAccessException translate(SQLException ex) {
+        DataAccessException translated = jdbcTemplate.getExceptionTranslator().translate("merge customer", MERGE_SQL, ex);
+        return translated != null ? translated : new UncategorizedSQLException("merge customer", MERGE_SQL, ex);
+    }
+
+    private static Customer mapRow(ResultSet rs) throws SQLException {
+        Customer customer = new Customer();
+        customer.setId(rs.getLong("id"));
+        customer.setName(rs.getString("name"));
+        customer.setGender(Gender.valueOf(rs.getString("gender")));
+        customer.setBirthDate(rs.getDate("birth_date").toLocalDate());
+        customer.setExternalCustomerId(rs.getString("external_customer_id"));
+        customer.setCreatedAt(rs.getTimestamp("created_at").toInstant());
+        Timestamp updatedAt = rs.getTimestamp("updated_at");
+        customer.setUpdatedAt(updatedAt != null ? updatedAt.toInstant() : null);
+        return customer;
+    }
+
+    private static void bindMerge(PreparedStatement ps, Customer customer) throws SQLException {
+        ps.setString(1, customer.getName());
+        ps.setString(2, customer.getGender().name());
+        ps.setDate(3, Date.valueOf(customer.getBirthDate()));
+        ps.setString(4, customer.getExternalCustomerId());
+        ps.setTimestamp(5, Timestamp.from(customer.getCreatedAt()));
+    }
+
+    private static void bindInsert(PreparedStatement ps, Customer customer) throws SQLException {
+        ps.setString(1, customer.getName());
+        ps.setString(2, customer.getGender().name());
+        ps.setDate(3, Date.valueOf(customer.getBirthDate()));
+        ps.setString(4, customer.getExternalCustomerId());
+        ps.setTimestamp(5, Timestamp.from(customer.getCreatedAt()));
+        if (customer.getUpdatedAt() != null) {
+            ps.setTimestamp(6, Timestamp.from(customer.getUpdatedAt()));
+        } else {
+            ps.setNull(6, Types.TIMESTAMP);
+        }
+    }
+
+    private static void readGeneratedIds(PreparedStatement ps, List<Customer> batch) throws SQLException {
+        try (ResultSet keys = ps.getGeneratedKeys()) {
+            for (int i = 0; i < batch.size() && keys.next(); i++) {
+                batch.get(i).setId(keys.getLong(1));
+            }
+        }
+    }
+
+    private static int sum(int[] updateCounts) {
+        int total = 0;
+        for (int count : updateCounts) {
+            // drivers may report SUCCESS_NO_INFO (-2) for batched statements, each of ours inserts one row
+            total += count == PreparedStatement.SUCCESS_NO_INFO ? 1 : count;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,60 @@
+package com.emmett.customermanagement.repository.jpa;
+
+import com.emmett.customermanagement.domain.CustomerAggregate;
+import com.emmett.customermanagement.domain.enumeration.Gender;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * this is a Spring Data interface. An Implementation of this interface and all the
+ * typical crud methods are generated at compile time.
+ */
+@Repository
+public interface CustomerAggregateRepository extends JpaRepository<CustomerAggregate, Gender> {
+
+    /**
+     * Adds to the totals of a gender in the db, without reading them first
+     * @return rows updated, 0 if the gender has no row
+     */
+    @Modifying
+    @Query("update CustomerAggregate a set a.customers = a.customers + :customers, "
+            + "a.birthEpochDays = a.birthEpochDays + :birthEpochDays where a.gender = :gender")
+    int add(@Param("gender") Gender gender, @Param("customers") long customers, @Param("birthEpochDays") long birthEpochDays);
+
+    /**
+     * The totals as they are in the db. Scalars rather than entities, which the persistence context would hand back
+     * as they were first read, before any {@link #add} or {@link #set} since
+     * @return per gender: its name, the number of customers and the sum of their birth epoch days
+     */
+    @Query("select a.gender, a.customers, a.birthEpochDays from CustomerAggregate a")
+    List<Object[]> findAllTotals();
+
+    /**
+     * Locks the row of a gender until the transaction ends. Rows are locked one at a time so that the caller picks
+     * the order, see CustomerAggregates
+     */
+    @Query(value = "select gender from customer_aggregate where gender = :gender for update", nativeQuery = true)
+    List<String> lock(@Param("gender") String gender);
+
+    /**
+     * Sets the totals of a gender
+     */
+    @Modifying
+    @Query("update CustomerAggregate a set a.customers = :customers, a.birthEpochDays = :birthEpochDays "
+            + "where a.gender = :gender")
+    int set(@Param("gender") Gender gender, @Param("customers") long customers, @Param("birthEpochDays") long birthEpochDays);
+
+    /**
+     * The totals of every gender computed from the customer table, in one scan of the gender index
+     * @return per gender with customers: its name, the number of customers and the sum of their birth epoch days
+     */
+    @Query(value = "select gender, count(*), sum(DATEDIFF(DAY, DATE '1970-01-01', birth_date)) " +
+            "from customer group by gender",
+            nativeQuery = true)
+    List<Object[]> countByGender();
+}
@@ -1,38 +1,50 @@
 package com.emmett.customermanagement.repository.jpa;
 
 import com.emmett.customermanagement.domain.Customer;
-import com.emmett.customermanagement.domain.enumeration.Gender;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.LockModeType;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
 /**
  * this is a Spring Data interface. An Implementation of this interface and all the
  * typical crud methods are generated at compile time.
  */
 @Repository
-public interface CustomerRepository extends JpaRepository<Customer, Long>, JpaSpecificationExecutor<Customer> {
+public interface CustomerRepository extends JpaRepository<Customer, Long>, JpaSpecificationExecutor<Customer>, CustomerSliceRepository {
+
+    /**
+     * @return those of the given external customer ids that are taken
+     */
+    @Query("select c.externalCustomerId from Customer c where c.externalCustomerId in :externalCustomerIds")
+    List<String> findExistingExternalCustomerIds(@Param("externalCustomerIds") Collection<String> externalCustomerIds);
 
     /**
-     * Custom query that calculates age in years of each customer and averages
-     * @return
+     * Reads the customer for a write that needs what it was before, locking it so that no other write changes it
+     * meanwhile
      */
-    @Query(
-            value = "select avg(DATEDIFF(YEAR,   birth_date, CURRENT_DATE())) as avg_age from customer",
-            nativeQuery = true)
-    String findAvgAge();
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select c from Customer c where c.id = :id")
+    Optional<Customer> findByIdForUpdate(@Param("id") Long id);
 
     /**
-     * Custom query that calculates age in years of a customer by gender and averages
-     * @return
+     * As {@link #findByIdForUpdate}, the rows locked in the order of their ids
+     * @return the customers with the given ids
      */
-    @Query(
-            value = "select avg(DATEDIFF(YEAR, birth_date, CURRENT_DATE()" +
-                    ")) as avg_age from customer where gender = :#{#gender?.name()}",
-            nativeQuery = true)
-    String findAvgAgeByGender(@Param(value = "gender") Gender gender);
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select c from Customer c where c.id in :ids order by c.id")
+    List<Customer> findAllByIdForUpdate(@Param("ids") Collection<Long> ids);
 
+    /**
+     * @return the customers with the given external customer ids, in no particular order
+     */
+    List<Customer> findAllByExternalCustomerIdIn(Collection<String> externalCustomerIds);
 
 }
@@ -0,0 +1,39 @@
+package com.emmett.customermanagement.repository.jpa;
+
+import com.emmett.customermanagement.domain.Customer;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Specification} queries that fetch a page without counting the matches, which
+ * {@link org.springframework.data.jpa.repository.JpaSpecificationExecutor} always does
+ */
+public interface CustomerSliceRepository {
+
+    /**
+     * the customer attributes {@link #findFields} can select
+     */
+    List<String> FIELDS = Collections.unmodifiableList(Arrays.asList(
+            "id", "name", "gender", "birthDate", "externalCustomerId", "createdAt", "updatedAt"));
+
+    /**
+     * @param spec null for all customers
+     * @param pageable the page, in the pageable's sort
+     */
+    Slice<Customer> findSlice(Specification<Customer> spec, Pageable pageable);
+
+    /**
+     * Projection of the given fields only: just those columns are selected and no entities are loaded
+     * into the persistence context, which makes for cheaper reads when only a few fields are needed
+     * @param fields some of {@link #FIELDS}
+     * @return per customer, its fields by name in the order given
+     */
+    Slice<Map<String, Object>> findFields(Specification<Customer> spec, Pageable pageable, Collection<String> fields);
+}
@@ -5,8 +5,10 @@ import com.emmett.customermanagement.domain.Report;
 import com.emmett.customermanagement.domain.enumeration.ReportType;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
 import java.util.Optional;
 
 /**
@@ -16,5 +18,10 @@ import java.util.Optional;
 @Repository
 public interface ReportRepository extends JpaRepository<Report, ReportType>, JpaSpecificationExecutor<Report> {
 
+    /**
+     * Cached, with the report itself in the second level cache: until the report is refreshed, which invalidates
+     * the cached result, this does not go to the db
+     */
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHEABLE, value = "true"))
     Optional<Report> findByReportType(ReportType reportType);
 }
@@ -0,0 +1,51 @@
+package com.emmett.customermanagement.service;
+
+import java.util.SortedMap;
+
+/**
+ * The structured data of a distribution report: how many customers there are of each age, and the ages the
+ * 50th, 90th and 99th percentile of them are no older than
+ */
+public class AgeDistribution {
+
+    private final long customers;
+
+    private final int p50;
+
+    private final int p90;
+
+    private final int p99;
+
+    private final SortedMap<Integer, Long> histogram;
+
+    public AgeDistribution(AgeHistogram histogram) {
+        this.customers = histogram.getCustomers();
+        this.p50 = histogram.percentile(50);
+        this.p90 = histogram.percentile(90);
+        this.p99 = histogram.percentile(99);
+        this.histogram = histogram.getCounts();
+    }
+
+    public long getCustomers() {
+        return customers;
+    }
+
+    public int getP50() {
+        return p50;
+    }
+
+    public int getP90() {
+        return p90;
+    }
+
+    public int getP99() {
+        return p99;
+    }
+
+    /**
+     * @return customers per age in years, only the ages there are customers of
+     */
+    public SortedMap<Integer, Long> getHistogram() {
+        return histogram;
+    }
+}
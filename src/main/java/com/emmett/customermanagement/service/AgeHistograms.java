@@ -0,0 +1,115 @@
+package com.emmett.customermanagement.service;
+
+import com.emmett.customermanagement.config.ApplicationProperties;
+import com.emmett.customermanagement.domain.enumeration.Gender;
+import com.emmett.customermanagement.repository.jdbc.CustomerJdbcRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Builds the {@link AgeHistogram} of the customers of each gender in a single pass over the customer table, streamed
+ * so that only the current row is held. Ages change with every birthday, so unlike the averages they cannot be kept
+ * up to date by the writes, they are counted afresh each time.
+ *
+ * <p>
+ * The pass is either made in the current transaction, or split into ranges of {@code application.reports.partition-size}
+ * ids scanned at once on the {@code reportForkJoinPool}, each on a connection of its own, whose histograms are merged.
+ * The latter only sees committed customers.
+ */
+@Component
+public class AgeHistograms {
+
+    private final Logger log = LoggerFactory.getLogger(AgeHistograms.class);
+
+    private final CustomerJdbcRepository customerJdbcRepository;
+
+    private final ApplicationProperties applicationProperties;
+
+    private final ForkJoinPool reportForkJoinPool;
+
+    public AgeHistograms(CustomerJdbcRepository customerJdbcRepository,
+                         ApplicationProperties applicationProperties,
+                         ForkJoinPool reportForkJoinPool)
+    {
+        this.customerJdbcRepository = customerJdbcRepository;
+        this.applicationProperties = applicationProperties;
+        this.reportForkJoinPool = reportForkJoinPool;
+    }
+
+    /**
+     * Joins the current transaction if there is one
+     * @param day the ages are as of this day
+     * @return a histogram for every gender, empty for genders without customers
+     */
+    public Map<Gender, AgeHistogram> build(LocalDate day) {
+        Map<Gender, AgeHistogram> histograms = histograms();
+        customerJdbcRepository.forEachGenderAndBirthDate((gender, birthDate) -> histograms.get(gender).add(birthDate, day));
+        log.debug("Built the age histograms of {} customers", customers(histograms));
+        return histograms;
+    }
+
+    /**
+     * {@link #build} by parts of the table at once. Does not join the current transaction, so misses its writes
+     */
+    public Map<Gender, AgeHistogram> buildInParallel(LocalDate day) {
+        Map<Gender, AgeHistogram> histograms = histograms();
+        long[] idRange = customerJdbcRepository.findIdRange();
+        if (idRange == null) {
+            return histograms;
+        }
+        long partitionSize = Math.max(1, applicationProperties.getReports().getPartitionSize());
+        List<Callable<Map<Gender, AgeHistogram>>> partitions = new ArrayList<>();
+        for (long fromId = idRange[0]; fromId <= idRange[1]; fromId += partitionSize) {
+            long from = fromId;
+            long to = Math.min(idRange[1], fromId + partitionSize - 1);
+            partitions.add(() -> {
+                Map<Gender, AgeHistogram> partition = histograms();
+                customerJdbcRepository.forEachGenderAndBirthDate(from, to,
+                        (gender, birthDate) -> partition.get(gender).add(birthDate, day));
+                return partition;
+            });
+            if (to == Long.MAX_VALUE) {
+                break;
+            }
+        }
+        try {
+            for (Future<Map<Gender, AgeHistogram>> partition : reportForkJoinPool.invokeAll(partitions)) {
+                partition.get().forEach((gender, histogram) -> histograms.get(gender).merge(histogram));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted building the age histograms", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException("Could not build the age histograms", ex.getCause());
+        }
+        log.debug("Built the age histograms of {} customers in {} parts on {} threads",
+                customers(histograms), partitions.size(), reportForkJoinPool.getParallelism());
+        return histograms;
+    }
+
+    private static Map<Gender, AgeHistogram> histograms() {
+        Map<Gender, AgeHistogram> histograms = new EnumMap<>(Gender.class);
+        for (Gender gender : Gender.values()) {
+            histograms.put(gender, new AgeHistogram());
+        }
+        return histograms;
+    }
+
+    private static long customers(Map<Gender, AgeHistogram> histograms) {
+        return histograms.values().stream().mapToLong(AgeHistogram::getCustomers).sum();
+    }
+}
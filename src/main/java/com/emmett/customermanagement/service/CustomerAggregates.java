@@ -0,0 +1,236 @@
+package com.emmett.customermanagement.service;
+
+import com.emmett.customermanagement.domain.Customer;
+import com.emmett.customermanagement.domain.CustomerAggregate;
+import com.emmett.customermanagement.domain.enumeration.Gender;
+import com.emmett.customermanagement.repository.jpa.CustomerAggregateRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Count and sum of the birth dates (as epoch days) of the customers of each gender, kept in the customer_aggregate
+ * table, so that the average age reports are worked out from two rows rather than a scan of the customer table.
+ *
+ * <p>
+ * {@link CustomerService} records every customer it inserts, deletes, or whose gender or birth date it changes. The
+ * changes of a transaction are added up in memory and written to the db just before it commits, one update per
+ * gender and always in the same order, so the rows are only locked for the commit and writers never deadlock on them.
+ * A rollback throws them away with the rest of the transaction. Reads in the transaction see its own changes.
+ *
+ * <p>
+ * The totals are recounted from the customer table at startup, and when every report is refreshed. Writes that
+ * bypass {@link CustomerService} are missed until the next recount.
+ */
+@Component
+public class CustomerAggregates {
+
+    private final Logger log = LoggerFactory.getLogger(CustomerAggregates.class);
+
+    private final CustomerAggregateRepository customerAggregateRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public CustomerAggregates(CustomerAggregateRepository customerAggregateRepository,
+                              PlatformTransactionManager transactionManager)
+    {
+        this.customerAggregateRepository = customerAggregateRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Makes the row of any gender that has none, and counts the customers already in the db (the data.sql ones)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        transactionTemplate.executeWithoutResult(status -> {
+            Set<Gender> missing = EnumSet.allOf(Gender.class);
+            customerAggregateRepository.findAll().forEach(aggregate -> missing.remove(aggregate.getGender()));
+            customerAggregateRepository.saveAllAndFlush(missing.stream()
+                    .map(gender -> new CustomerAggregate(gender, 0, 0))
+                    .collect(Collectors.toList()));
+            recount();
+        });
+    }
+
+    /**
+     * Records a customer inserted
+     */
+    public void add(Customer customer) {
+        record(changes -> changes.add(customer.getGender(), customer.getBirthDate(), 1));
+    }
+
+    /**
+     * Records customers inserted
+     */
+    public void addAll(Collection<Customer> customers) {
+        record(changes -> customers.forEach(customer -> changes.add(customer.getGender(), customer.getBirthDate(), 1)));
+    }
+
+    /**
+     * Records a customer deleted, with the gender and birth date it had
+     */
+    public void remove(Gender gender, LocalDate birthDate) {
+        record(changes -> changes.add(gender, birthDate, -1));
+    }
+
+    /**
+     * Records a customer updated
+     * @param gender the gender it had
+     * @param birthDate the birth date it had
+     * @param customer as it is now
+     */
+    public void update(Gender gender, LocalDate birthDate, Customer customer) {
+        if (gender == customer.getGender() && birthDate.equals(customer.getBirthDate())) {
+            return;
+        }
+        record(changes -> {
+            changes.add(gender, birthDate, -1);
+            changes.add(customer.getGender(), customer.getBirthDate(), 1);
+        });
+    }
+
+    /**
+     * Recounts the totals from the customer table, in the current transaction, including its own writes. The rows
+     * stay locked until it ends, so that writers committing meanwhile are neither missed nor counted twice
+     */
+    public void recount() {
+        // in the order the writers update the rows, or a recount and a committing writer could each hold the row
+        // the other is waiting for
+        for (Gender gender : Gender.values()) {
+            customerAggregateRepository.lock(gender.name());
+        }
+        CustomerTotals totals = new CustomerTotals();
+        for (Object[] row : customerAggregateRepository.countByGender()) {
+            totals.add(Gender.valueOf((String) row[0]), ((Number) row[1]).longValue(), ((Number) row[2]).longValue());
+        }
+        for (Gender gender : Gender.values()) {
+            customerAggregateRepository.set(gender, totals.getCustomers(gender), totals.getBirthEpochDays(gender));
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // counted already
+            Changes changes = (Changes) TransactionSynchronizationManager.getResource(this);
+            if (changes != null) {
+                changes.clear();
+            }
+        }
+        log.debug("Recounted the customer aggregates in one scan");
+    }
+
+    /**
+     * @return the totals of every gender, read in one go, with the changes of the current transaction
+     */
+    public CustomerTotals totals() {
+        CustomerTotals totals = new CustomerTotals();
+        for (Object[] row : customerAggregateRepository.findAllTotals()) {
+            totals.add((Gender) row[0], (Long) row[1], (Long) row[2]);
+        }
+        Changes changes = TransactionSynchronizationManager.isSynchronizationActive()
+                ? (Changes) TransactionSynchronizationManager.getResource(this) : null;
+        if (changes != null) {
+            for (Gender gender : Gender.values()) {
+                totals.add(gender, changes.customers[gender.ordinal()], changes.birthEpochDays[gender.ordinal()]);
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * @return whether the current transaction recorded any customer writes, which only its own connection sees until
+     * it commits
+     */
+    public boolean isChangedInTransaction() {
+        return TransactionSynchronizationManager.isSynchronizationActive()
+                && TransactionSynchronizationManager.hasResource(this);
+    }
+
+    /**
+     * Adds to the changes of the current transaction, written when it commits. Written right away, in a
+     * transaction of their own, if there is none
+     */
+    private void record(Consumer<Changes> change) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            Changes changes = new Changes();
+            change.accept(changes);
+            transactionTemplate.executeWithoutResult(status -> changes.write());
+            return;
+        }
+        Changes changes = (Changes) TransactionSynchronizationManager.getResource(this);
+        if (changes == null) {
+            changes = new Changes();
+            TransactionSynchronizationManager.bindResource(this, changes);
+            TransactionSynchronizationManager.registerSynchronization(changes);
+        }
+        change.accept(changes);
+    }
+
+    /**
+     * The changes of one transaction, per gender. Unbound while the transaction is suspended, so that a new one
+     * started meanwhile gets its own
+     */
+    private final class Changes implements TransactionSynchronization {
+
+        private final long[] customers = new long[Gender.values().length];
+
+        private final long[] birthEpochDays = new long[Gender.values().length];
+
+        private void add(Gender gender, LocalDate birthDate, int sign) {
+            customers[gender.ordinal()] += sign;
+            birthEpochDays[gender.ordinal()] += sign * birthDate.toEpochDay();
+        }
+
+        private void clear() {
+            Arrays.fill(customers, 0);
+            Arrays.fill(birthEpochDays, 0);
+        }
+
+        /**
+         * one update per gender changed, in the order of {@link Gender#values()}, which {@link #recount()} locks
+         * them in too
+         */
+        private void write() {
+            for (Gender gender : Gender.values()) {
+                int i = gender.ordinal();
+                if (customers[i] != 0 || birthEpochDays[i] != 0) {
+                    if (customerAggregateRepository.add(gender, customers[i], birthEpochDays[i]) == 0) {
+                        log.warn("No customer aggregate row for {}, the change is lost until the next recount", gender);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResource(CustomerAggregates.this);
+        }
+
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(CustomerAggregates.this, this);
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            write();
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(CustomerAggregates.this);
+        }
+    }
+}
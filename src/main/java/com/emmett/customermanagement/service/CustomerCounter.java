@@ -0,0 +1,94 @@
+package com.emmett.customermanagement.service;
+
+import com.emmett.customermanagement.config.ApplicationProperties;
+import com.emmett.customermanagement.repository.jpa.CustomerRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory count of the customers, so the listing's X-Total-Count and the count endpoint don't scan the table
+ * on every request. The table is counted once, on first use, and {@link CustomerService} then adjusts the count
+ * as it inserts and deletes. Adjustments made in a transaction are applied when it commits.
+ *
+ * <p>
+ * The count is approximate: writes that bypass {@link CustomerService}, or race with a recount, are missed.
+ * It is recounted when it is older than the configured max age, and whenever a write (an upsert) cannot tell
+ * how many rows it inserted.
+ */
+@Component
+public class CustomerCounter {
+
+    private final Logger log = LoggerFactory.getLogger(CustomerCounter.class);
+
+    private final CustomerRepository customerRepository;
+
+    private final ApplicationProperties applicationProperties;
+
+    private final AtomicLong count = new AtomicLong();
+
+    private volatile boolean stale = true;
+
+    private volatile long countedAt;
+
+    public CustomerCounter(CustomerRepository customerRepository, ApplicationProperties applicationProperties) {
+        this.customerRepository = customerRepository;
+        this.applicationProperties = applicationProperties;
+    }
+
+    /**
+     * @return the number of customers, counted in the db only if the count is stale
+     */
+    public long get() {
+        if (stale || System.currentTimeMillis() - countedAt > applicationProperties.getCount().getMaxAge().toMillis()) {
+            recount();
+        }
+        return count.get();
+    }
+
+    private synchronized void recount() {
+        stale = false;
+        count.set(customerRepository.count());
+        countedAt = System.currentTimeMillis();
+        log.debug("Counted {} customers", count.get());
+    }
+
+    /**
+     * Records customers inserted (positive) or deleted (negative), once the current transaction commits if there is one
+     */
+    public void add(long delta) {
+        if (delta == 0) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    count.addAndGet(delta);
+                }
+            });
+        } else {
+            count.addAndGet(delta);
+        }
+    }
+
+    /**
+     * Marks the count stale, so that the next read counts the table. Again after the current transaction
+     * completes, if there is one, as a read meanwhile cannot see its writes yet
+     */
+    public void invalidate() {
+        stale = true;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    stale = true;
+                }
+            });
+        }
+    }
+}
@@ -1,39 +1,127 @@
 package com.emmett.customermanagement.service;
 
 import com.emmett.customermanagement.domain.Customer;
+import com.emmett.customermanagement.domain.enumeration.Gender;
+import com.emmett.customermanagement.repository.jdbc.CustomerJdbcRepository;
 import com.emmett.customermanagement.repository.jpa.CustomerRepository;
+import com.emmett.customermanagement.service.cache.CustomerCache;
+import com.emmett.customermanagement.service.lookup.CustomerLookupResult;
+import com.emmett.customermanagement.service.search.CustomerNameIndex;
+import com.emmett.customermanagement.service.search.NameMatch;
+import com.emmett.customermanagement.web.errors.PreconditionFailedAlertException;
+import com.emmett.customermanagement.web.util.ETagUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 
+import javax.persistence.EntityManagerFactory;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
 import java.util.stream.Collectors;
 
 @Service
 @Transactional
 public class CustomerService {
 
+    /**
+     * ids per "in" list when looking up ids or external ids
+     */
+    private static final int LOOKUP_BATCH_SIZE = 500;
+
+    private static final String ENTITY_NAME = "customer";
+
     private final Logger log = LoggerFactory.getLogger(CustomerService.class);
 
     private final CustomerRepository customerRepository;
 
-    public CustomerService(CustomerRepository customerRepository) {
+    private final CustomerJdbcRepository customerJdbcRepository;
+
+    private final ExternalCustomerIdFilter externalCustomerIdFilter;
+
+    private final CustomerCounter customerCounter;
+
+    private final CustomerNameIndex customerNameIndex;
+
+    private final CustomerCache customerCache;
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final CustomerAggregates customerAggregates;
+
+    public CustomerService(CustomerRepository customerRepository,
+                           CustomerJdbcRepository customerJdbcRepository,
+                           ExternalCustomerIdFilter externalCustomerIdFilter,
+                           CustomerCounter customerCounter,
+                           CustomerNameIndex customerNameIndex,
+                           CustomerCache customerCache,
+                           EntityManagerFactory entityManagerFactory,
+                           CustomerAggregates customerAggregates)
+    {
         this.customerRepository = customerRepository;
+        this.customerJdbcRepository = customerJdbcRepository;
+        this.externalCustomerIdFilter = externalCustomerIdFilter;
+        this.customerCounter = customerCounter;
+        this.customerNameIndex = customerNameIndex;
+        this.customerCache = customerCache;
+        this.entityManagerFactory = entityManagerFactory;
+        this.customerAggregates = customerAggregates;
     }
 
 
     public Customer save(Customer customer) {
+        return save(customer, null);
+    }
+
+    /**
+     * Saves the customer, an update only if it still has one of the ETags of the If-Match header. The ETag is
+     * compared with the customer as read for the update, locked, so a concurrent update with the same If-Match
+     * waits for this one and then fails
+     * @param ifMatch the If-Match header, null to save whatever the customer is now
+     * @throws PreconditionFailedAlertException if the customer changed since the client read it
+     */
+    public Customer save(Customer customer, String ifMatch) {
+        Optional<Customer> existing = Optional.empty();
         if (customer.getId() == null) {
-            customer.setCreatedAt(Instant.now());
+            customer.setCreatedAt(now());
+            customerCounter.add(1);
         } else {
-            customer.setUpdatedAt(Instant.now());
+            existing = customerRepository.findByIdForUpdate(customer.getId());
+            checkIfMatch(existing, ifMatch);
+            customer.setUpdatedAt(now());
+            customerCache.invalidate(customer.getId());
         }
         log.debug("Request to save Customer : {}", customer);
-        return customerRepository.save(customer);
+        externalCustomerIdFilter.add(customer.getExternalCustomerId());
+        // read before the save, which copies the changes onto the existing customer
+        Optional<Gender> gender = existing.map(Customer::getGender);
+        Optional<LocalDate> birthDate = existing.map(Customer::getBirthDate);
+        Customer saved = customerRepository.save(customer);
+        if (gender.isPresent()) {
+            customerAggregates.update(gender.get(), birthDate.get(), saved);
+        } else {
+            customerAggregates.add(saved);
+        }
+        customerNameIndex.put(saved);
+        return saved;
     }
 
     /**
@@ -42,54 +130,380 @@ public class CustomerService {
      * @return
      */
     public List<Customer> saveAll(List<Customer> customers) {
+        // the gender and birth date of those being updated, before the save copies the changes onto them
+        Map<Long, Gender> genders = new HashMap<>();
+        Map<Long, LocalDate> birthDates = new HashMap<>();
+        List<Long> ids = customers.stream().map(Customer::getId).filter(Objects::nonNull).collect(Collectors.toList());
+        for (int start = 0; start < ids.size(); start += LOOKUP_BATCH_SIZE) {
+            customerRepository.findAllByIdForUpdate(ids.subList(start, Math.min(start + LOOKUP_BATCH_SIZE, ids.size())))
+                    .forEach(c -> {
+                        genders.put(c.getId(), c.getGender());
+                        birthDates.put(c.getId(), c.getBirthDate());
+                    });
+        }
 
         customers = customers.stream().map(c -> {
             if (c.getId() == null) {
-                c.setCreatedAt(Instant.now());
+                c.setCreatedAt(now());
+                customerCounter.add(1);
             } else {
-                c.setUpdatedAt(Instant.now());
+                c.setUpdatedAt(now());
+                customerCache.invalidate(c.getId());
             }
+            externalCustomerIdFilter.add(c.getExternalCustomerId());
             return c;
         }).collect(Collectors.toList());
 
         log.debug("Request to save Customer List of size : {}", customers.size());
-        return customerRepository.saveAll(customers);
+        List<Customer> saved = customerRepository.saveAll(customers);
+        for (Customer c : saved) {
+            if (genders.containsKey(c.getId())) {
+                customerAggregates.update(genders.get(c.getId()), birthDates.get(c.getId()), c);
+            } else {
+                customerAggregates.add(c);
+            }
+        }
+        customerNameIndex.putAll(saved);
+        return saved;
     }
 
+    /**
+     * Bulk insert of new customers in JDBC batches, bypassing the persistence context. This is the path for
+     * large volumes (csv import, bulk create), the inserted customers get their generated ids but are not managed.
+     * Bean validation is not applied here, callers validate the customers first
+     * @param customers customers without an id
+     * @return number of customers inserted
+     */
+    public int insertAll(List<Customer> customers) {
+        Instant now = now();
+        customers.forEach(c -> {
+            c.setCreatedAt(now);
+            externalCustomerIdFilter.add(c.getExternalCustomerId());
+        });
+
+        log.debug("Request to insert Customer List of size : {}", customers.size());
+        int inserted = customerJdbcRepository.batchInsert(customers);
+        customerCounter.add(inserted);
+        customerAggregates.addAll(customers);
+        customerNameIndex.putAll(customers);
+        return inserted;
+    }
+
+    /**
+     * Bulk upsert keyed on the externalCustomerId, in JDBC batches: customers with a new external id (or none)
+     * are inserted, those with a known one update it if anything changed. Callers validate, as for {@link #insertAll}
+     * @param customers customers without an id
+     * @param failed told about each customer the db refused, with its index in the list. The others are still saved
+     * @return per customer, 1 if it was inserted or updated, 0 if it was unchanged, negative if it was refused
+     */
+    public int[] mergeAll(List<Customer> customers, ObjIntConsumer<DataAccessException> failed) {
+        Instant now = now();
+        customers.forEach(c -> {
+            c.setCreatedAt(now);
+            externalCustomerIdFilter.add(c.getExternalCustomerId());
+        });
+
+        log.debug("Request to merge Customer List of size : {}", customers.size());
+        // the update counts don't tell inserts from updates
+        customerCounter.invalidate();
+        customerNameIndex.invalidate();
+        customerCache.clear();
+        evictEntityCache();
+        // what the customers being updated were, locked so that it stays so until the merge commits
+        Map<String, Customer> existing = customerJdbcRepository.findAllByExternalCustomerIdForUpdate(customers.stream()
+                .map(Customer::getExternalCustomerId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet()));
+        int[] merged = customerJdbcRepository.batchMerge(customers, failed);
+        recordMerged(customers, merged, existing);
+        return merged;
+    }
 
+    /**
+     * Records what {@link #mergeAll} changed in the {@link CustomerAggregates}, in list order: a later customer with
+     * the same external id updates the one before it
+     * @param existing the customers there were before, by external id
+     */
+    private void recordMerged(List<Customer> customers, int[] merged, Map<String, Customer> existing) {
+        List<Customer> inserted = new ArrayList<>();
+        for (int i = 0; i < customers.size(); i++) {
+            Customer customer = customers.get(i);
+            if (merged[i] <= 0) {
+                // unchanged or refused
+                continue;
+            }
+            Customer before = customer.getExternalCustomerId() == null
+                    ? null : existing.put(customer.getExternalCustomerId(), customer);
+            if (before == null) {
+                inserted.add(customer);
+            } else {
+                customerAggregates.update(before.getGender(), before.getBirthDate(), customer);
+            }
+        }
+        customerAggregates.addAll(inserted);
+    }
+
+    /**
+     * Drops the customers of hibernate's second level cache, for writes that go around hibernate. Again once the
+     * transaction completes, as a read meanwhile would cache the versions it is about to replace
+     */
+    private void evictEntityCache() {
+        entityManagerFactory.getCache().evict(Customer.class);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    entityManagerFactory.getCache().evict(Customer.class);
+                }
+            });
+        }
+    }
+
+
+    /**
+     * @return those of the given external ids that belong to a customer already. The {@link ExternalCustomerIdFilter}
+     * is asked first, only the ids it might contain are looked up in the db
+     */
     @Transactional(readOnly = true)
+    public Set<String> findExistingExternalCustomerIds(Collection<String> externalCustomerIds) {
+        List<String> candidates = externalCustomerIds.stream()
+                .filter(externalCustomerIdFilter::mightContain)
+                .collect(Collectors.toList());
+        log.debug("Request to check {} external ids, {} of them might exist", externalCustomerIds.size(), candidates.size());
+
+        Set<String> existing = new HashSet<>();
+        for (int start = 0; start < candidates.size(); start += LOOKUP_BATCH_SIZE) {
+            existing.addAll(customerRepository.findExistingExternalCustomerIds(
+                    candidates.subList(start, Math.min(start + LOOKUP_BATCH_SIZE, candidates.size()))));
+        }
+        return existing;
+    }
+
+    /**
+     * @return the time to the microsecond, which is what the db keeps, so that a customer just written has the same
+     * dates, and so the same ETag, as when it is read back
+     */
+    private static Instant now() {
+        return Instant.now().truncatedTo(ChronoUnit.MICROS);
+    }
+
+    /**
+     * Served from the {@link CustomerCache} when it can be, without a transaction (and a pooled connection) unless
+     * the caller has one
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
     public Optional<Customer> findOne(Long id) {
         log.debug("Request to get Customer : {}", id);
-        return customerRepository.findById(id);
+        Optional<Customer> cached = customerCache.get(id);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        long generation = customerCache.generation();
+        Optional<Customer> customer = customerRepository.findById(id);
+        customer.ifPresent(found -> customerCache.put(found, generation));
+        return customer;
+    }
+
+    /**
+     * Resolves many customers at once: from the {@link CustomerCache}, and those it does not have a few hundred
+     * per "in" query, all in the one transaction
+     * @param ids may repeat
+     * @return the customers in the order of the ids, with the misses
+     */
+    @Transactional(readOnly = true)
+    public CustomerLookupResult<Long> findAllByIds(List<Long> ids) {
+        log.debug("Request to get {} Customers by id", ids.size());
+        return lookup(ids, customerCache::get, customerRepository::findAllById, Customer::getId);
+    }
+
+    /**
+     * As {@link #findAllByIds}, by externalCustomerId
+     */
+    @Transactional(readOnly = true)
+    public CustomerLookupResult<String> findAllByExternalCustomerIds(List<String> externalCustomerIds) {
+        log.debug("Request to get {} Customers by external id", externalCustomerIds.size());
+        return lookup(externalCustomerIds, customerCache::getByExternalCustomerId,
+                customerRepository::findAllByExternalCustomerIdIn, Customer::getExternalCustomerId);
+    }
+
+    /**
+     * @param cached the customer from the cache, null to go to the db for every key and leave the cache alone
+     */
+    private <K> CustomerLookupResult<K> lookup(List<K> keys, Function<K, Optional<Customer>> cached,
+                                               Function<List<K>, List<Customer>> find, Function<Customer, K> keyOf) {
+        List<K> distinct = new ArrayList<>(new LinkedHashSet<>(keys));
+        Map<K, Customer> found = new HashMap<>();
+        List<K> uncached = distinct;
+        long generation = customerCache.generation();
+        if (cached != null) {
+            uncached = new ArrayList<>();
+            for (K key : distinct) {
+                Optional<Customer> customer = cached.apply(key);
+                if (customer.isPresent()) {
+                    found.put(key, customer.get());
+                } else {
+                    uncached.add(key);
+                }
+            }
+        }
+        for (int start = 0; start < uncached.size(); start += LOOKUP_BATCH_SIZE) {
+            for (Customer customer : find.apply(uncached.subList(start, Math.min(start + LOOKUP_BATCH_SIZE, uncached.size())))) {
+                found.put(keyOf.apply(customer), customer);
+                if (cached != null) {
+                    customerCache.put(customer, generation);
+                }
+            }
+        }
+
+        List<Customer> customers = keys.stream().map(found::get).collect(Collectors.toList());
+        List<K> missing = distinct.stream().filter(key -> !found.containsKey(key)).collect(Collectors.toList());
+        return new CustomerLookupResult<>(customers, missing);
     }
 
     public Optional<Customer> partialUpdate(Customer customer) {
+        return partialUpdate(customer, null);
+    }
+
+    /**
+     * {@link #partialUpdate(Customer)} only if the customer still has one of the ETags of the If-Match header, as
+     * for {@link #save(Customer, String)}
+     * @param ifMatch the If-Match header, null to update whatever the customer is now
+     * @throws PreconditionFailedAlertException if the customer changed since the client read it
+     */
+    public Optional<Customer> partialUpdate(Customer customer, String ifMatch) {
         log.debug("Request to partially update Customer : {}", customer);
 
-        return customerRepository
-                .findById(customer.getId())
-                .map(existingCustomer -> {
-                    if (customer.getGender() != null) {
-                        existingCustomer.setGender(customer.getGender());
-                    }
-                    if (customer.getName() != null) {
-                        existingCustomer.setName(customer.getName());
-                    }
-                    if (customer.getBirthDate() != null) {
-                        existingCustomer.setBirthDate(customer.getBirthDate());
-                    }
-                    if (customer.getExternalCustomerId() != null) {
-                        existingCustomer.setExternalCustomerId(customer.getExternalCustomerId());
-                    }
-                    existingCustomer.setUpdatedAt(Instant.now());
-
-                    return existingCustomer;
-                })
-                .map(customerRepository::save);
+        Optional<Customer> existing = customerRepository.findByIdForUpdate(customer.getId());
+        if (existing.isPresent()) {
+            checkIfMatch(existing, ifMatch);
+        }
+        return existing
+                .map(existingCustomer -> applyPatch(existingCustomer, customer))
+                .map(customerRepository::save)
+                .map(saved -> {
+                    customerCache.invalidate(saved.getId());
+                    customerNameIndex.put(saved);
+                    return saved;
+                });
+    }
+
+    /**
+     * Partial update of many customers in one transaction: they are read with a few "in" queries, and the
+     * updates go out in JDBC batches when the transaction is flushed
+     * @param customers the changes, each with the id of the customer it applies to
+     * @return the updated customers in the same order, null for those that do not exist
+     */
+    public List<Customer> partialUpdateAll(List<Customer> customers) {
+        log.debug("Request to partially update Customer List of size : {}", customers.size());
+        CustomerLookupResult<Long> existing = lookup(customers.stream().map(Customer::getId).collect(Collectors.toList()),
+                null, customerRepository::findAllByIdForUpdate, Customer::getId);
+
+        List<Customer> updated = new ArrayList<>(customers.size());
+        for (int i = 0; i < customers.size(); i++) {
+            Customer existingCustomer = existing.getCustomers().get(i);
+            updated.add(existingCustomer == null ? null : applyPatch(existingCustomer, customers.get(i)));
+        }
+        customerCache.invalidateAll(existing.getCustomers().stream()
+                .filter(Objects::nonNull).map(Customer::getId).collect(Collectors.toList()));
+        customerNameIndex.putAll(updated.stream().filter(Objects::nonNull).collect(Collectors.toList()));
+        return updated;
+    }
+
+    /**
+     * @param existing the customer as read, locked, for the update
+     */
+    private static void checkIfMatch(Optional<Customer> existing, String ifMatch) {
+        if (ifMatch == null) {
+            return;
+        }
+        if (!existing.isPresent() || !ETagUtil.matches(ifMatch, ETagUtil.customerETag(existing.get()))) {
+            throw new PreconditionFailedAlertException("The customer was changed since it was read", ENTITY_NAME, "etagmismatch");
+        }
+    }
+
+    /**
+     * copies the fields the patch has onto the customer
+     */
+    private Customer applyPatch(Customer existingCustomer, Customer customer) {
+        Gender gender = existingCustomer.getGender();
+        LocalDate birthDate = existingCustomer.getBirthDate();
+        if (customer.getGender() != null) {
+            existingCustomer.setGender(customer.getGender());
+        }
+        if (customer.getName() != null) {
+            existingCustomer.setName(customer.getName());
+        }
+        if (customer.getBirthDate() != null) {
+            existingCustomer.setBirthDate(customer.getBirthDate());
+        }
+        if (customer.getExternalCustomerId() != null) {
+            externalCustomerIdFilter.add(customer.getExternalCustomerId());
+            existingCustomer.setExternalCustomerId(customer.getExternalCustomerId());
+        }
+        existingCustomer.setUpdatedAt(now());
+        customerAggregates.update(gender, birthDate, existingCustomer);
+
+        return existingCustomer;
     }
 
     public void delete(Long id) {
         log.debug("Request to delete Customer : {}", id);
+        customerRepository.findByIdForUpdate(id)
+                .ifPresent(existing -> customerAggregates.remove(existing.getGender(), existing.getBirthDate()));
         customerRepository.deleteById(id);
+        customerCache.invalidate(id);
+        customerCounter.add(-1);
+        customerNameIndex.remove(id);
+    }
+
+    /**
+     * Deletes many customers with one statement per few hundred ids, bypassing the persistence context
+     * @param ids may include ids of customers that do not exist
+     * @return the ids of the customers deleted
+     */
+    public Set<Long> deleteAll(Collection<Long> ids) {
+        log.debug("Request to delete {} Customers", ids.size());
+        List<Long> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        Set<Long> deleted = new HashSet<>();
+        for (int start = 0; start < distinct.size(); start += LOOKUP_BATCH_SIZE) {
+            List<Long> existing = new ArrayList<>();
+            for (Customer customer : customerRepository.findAllByIdForUpdate(
+                    distinct.subList(start, Math.min(start + LOOKUP_BATCH_SIZE, distinct.size())))) {
+                existing.add(customer.getId());
+                customerAggregates.remove(customer.getGender(), customer.getBirthDate());
+            }
+            customerRepository.deleteAllByIdInBatch(existing);
+            deleted.addAll(existing);
+        }
+        customerCache.invalidateAll(deleted);
+        customerCounter.add(-deleted.size());
+        deleted.forEach(customerNameIndex::remove);
+        return deleted;
+    }
+
+    /**
+     * Fuzzy name search, see {@link CustomerNameIndex}
+     * @return the customers whose names best match the query, best first
+     */
+    @Transactional(readOnly = true)
+    public List<Customer> search(String query, int limit) {
+        log.debug("Request to search Customers by name : {}", query);
+        List<NameMatch> matches = customerNameIndex.search(query, limit);
+        Map<Long, Customer> customers = customerRepository.findAllById(
+                matches.stream().map(NameMatch::getId).collect(Collectors.toList()))
+                .stream().collect(Collectors.toMap(Customer::getId, Function.identity()));
+        // in the order of the matches, leaving out any deleted since they were indexed
+        return matches.stream()
+                .map(match -> customers.get(match.getId()))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return the number of customers, from the {@link CustomerCounter} rather than the db
+     */
+    @Transactional(readOnly = true)
+    public long count() {
+        return customerCounter.get();
     }
 }
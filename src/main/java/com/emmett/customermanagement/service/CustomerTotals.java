@@ -0,0 +1,47 @@
+package com.emmett.customermanagement.service;
+
+import com.emmett.customermanagement.domain.enumeration.Gender;
+
+import java.util.OptionalDouble;
+import java.util.Set;
+
+/**
+ * The {@link CustomerAggregates} as read at one moment: the number of customers of each gender and the sum of their
+ * birth dates. Every report worked out from the same totals agrees with the others
+ */
+public class CustomerTotals {
+
+    private final long[] customers = new long[Gender.values().length];
+
+    private final long[] birthEpochDays = new long[Gender.values().length];
+
+    void add(Gender gender, long customers, long birthEpochDays) {
+        this.customers[gender.ordinal()] += customers;
+        this.birthEpochDays[gender.ordinal()] += birthEpochDays;
+    }
+
+    public long getCustomers(Gender gender) {
+        return customers[gender.ordinal()];
+    }
+
+    /**
+     * @return sum of the birth dates of the customers of the gender, in days since 1970-01-01
+     */
+    public long getBirthEpochDays(Gender gender) {
+        return birthEpochDays[gender.ordinal()];
+    }
+
+    /**
+     * @param genders the customers to average over
+     * @return the mean birth date of the customers, in epoch days, empty if there are none
+     */
+    public OptionalDouble averageBirthEpochDay(Set<Gender> genders) {
+        long count = 0;
+        long sum = 0;
+        for (Gender gender : genders) {
+            count += getCustomers(gender);
+            sum += getBirthEpochDays(gender);
+        }
+        return count == 0 ? OptionalDouble.empty() : OptionalDouble.of((double) sum / count);
+    }
+}
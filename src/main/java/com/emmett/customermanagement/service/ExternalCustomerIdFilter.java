@@ -0,0 +1,112 @@
+package com.emmett.customermanagement.service;
+
+import com.emmett.customermanagement.config.ApplicationProperties;
+import com.emmett.customermanagement.repository.jdbc.CustomerJdbcRepository;
+import com.emmett.customermanagement.service.util.BloomFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory {@link BloomFilter} of the external customer ids in the db, so an import can find out which of its ids
+ * might be taken without asking the db about every one of them. Only the ids the filter reports need a db lookup.
+ *
+ * <p>
+ * {@link CustomerService} adds every external id it writes, before the write, so the filter never misses an id
+ * that is in the db. Ids of deleted customers or of rolled back writes stay in, that only costs the occasional
+ * needless lookup. This is a shortcut, not a guarantee: the unique constraint on the column still has the last word.
+ */
+@Component
+public class ExternalCustomerIdFilter {
+
+    private final Logger log = LoggerFactory.getLogger(ExternalCustomerIdFilter.class);
+
+    private final CustomerJdbcRepository customerJdbcRepository;
+
+    private final ApplicationProperties applicationProperties;
+
+    private volatile BloomFilter filter;
+
+    /**
+     * the filter being built, it gets the ids written meanwhile too
+     */
+    private volatile BloomFilter building;
+
+    private volatile boolean ready;
+
+    private volatile long capacity;
+
+    private final AtomicLong added = new AtomicLong();
+
+    public ExternalCustomerIdFilter(CustomerJdbcRepository customerJdbcRepository, ApplicationProperties applicationProperties) {
+        this.customerJdbcRepository = customerJdbcRepository;
+        this.applicationProperties = applicationProperties;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        rebuild();
+    }
+
+    /**
+     * Builds the filter from the db, sized for at least twice the ids there now
+     */
+    public synchronized void rebuild() {
+        ApplicationProperties.Import importProperties = applicationProperties.getImport();
+        long ids = customerJdbcRepository.countExternalCustomerIds();
+        long size = Math.max(importProperties.getDuplicateFilterExpectedIds(), 2 * ids);
+        BloomFilter next = BloomFilter.create(size, importProperties.getDuplicateFilterFalsePositiveRate());
+
+        building = next;
+        long[] count = {0};
+        customerJdbcRepository.forEachExternalCustomerId(id -> {
+            next.put(id);
+            count[0]++;
+        });
+        filter = next;
+        building = null;
+        capacity = size;
+        added.set(count[0]);
+        ready = true;
+        log.debug("Built the external customer id filter from {} ids, sized for {}", count[0], size);
+    }
+
+    /**
+     * Records an external id that is about to be written
+     */
+    public void add(String externalCustomerId) {
+        if (externalCustomerId == null) {
+            return;
+        }
+        BloomFilter current = filter;
+        if (current != null) {
+            current.put(externalCustomerId);
+        }
+        BloomFilter next = building;
+        if (next != null) {
+            next.put(externalCustomerId);
+        }
+        added.incrementAndGet();
+    }
+
+    /**
+     * Rebuilds the filter bigger if more ids went in than it is sized for, past that point its false positive
+     * rate climbs quickly. Meant to be called before a run of lookups, such as an import
+     */
+    public void ensureCapacity() {
+        if (ready && added.get() > capacity) {
+            rebuild();
+        }
+    }
+
+    /**
+     * @return false if the id is certainly not in the db, true if it might be. Always true until the filter is built
+     */
+    public boolean mightContain(String externalCustomerId) {
+        return !ready || filter.mightContain(externalCustomerId);
+    }
+}
@@ -0,0 +1,133 @@
+package com.emmett.customermanagement.service;
+
+import com.emmett.customermanagement.config.ApplicationProperties;
+import com.emmett.customermanagement.domain.Report;
+import com.emmett.customermanagement.domain.enumeration.ReportType;
+import com.emmett.customermanagement.repository.jpa.ReportRepository;
+import com.emmett.customermanagement.service.util.SingleFlight;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Refreshes the reports, on their schedule (see SchedulingConfiguration), on request, and when one is read stale.
+ * Refreshes are single-flight: a refresh asked for while the same one is running does not run again, it waits for
+ * and returns the running one's reports. So concurrent PUTs, or a PUT landing on a scheduled run, cost one refresh
+ * and no longer race on saving the report. A refresh of every report holds the flight of each report type while it
+ * runs, so a report is only ever refreshed by one of them at a time.
+ *
+ * <p>
+ * This only holds within one instance of the app, several instances each refresh on their schedule.
+ */
+@Component
+public class ReportRefresher {
+
+    private final Logger log = LoggerFactory.getLogger(ReportRefresher.class);
+
+    /**
+     * the refreshes of all reports, keyed by whether they recount
+     */
+    private final SingleFlight<Boolean, List<Report>> allReports = new SingleFlight<>();
+
+    private final SingleFlight<ReportType, Report> reports = new SingleFlight<>();
+
+    private final ReportService reportService;
+
+    private final ReportRepository reportRepository;
+
+    private final TaskExecutor reportTaskExecutor;
+
+    private final ApplicationProperties applicationProperties;
+
+    public ReportRefresher(ReportService reportService,
+                           ReportRepository reportRepository,
+                           @Qualifier("reportTaskExecutor") TaskExecutor reportTaskExecutor,
+                           ApplicationProperties applicationProperties)
+    {
+        this.reportService = reportService;
+        this.reportRepository = reportRepository;
+        this.reportTaskExecutor = reportTaskExecutor;
+        this.applicationProperties = applicationProperties;
+    }
+
+    /**
+     * Prepares the report, or waits for the refresh of it that is running
+     * @return the report
+     */
+    public Report refresh(ReportType reportType) {
+        return reports.execute(reportType, () -> reportService.prepareReport(reportType));
+    }
+
+    /**
+     * Prepares every report in one go (see {@link ReportService#prepareAllReports}), or waits for the same refresh
+     * that is running. It waits for the refreshes of single reports that are running too, and those asked for
+     * while it runs wait for it
+     * @return the reports
+     */
+    public List<Report> refreshAll(boolean recount) {
+        return allReports.execute(recount, () -> reports.executeAll(EnumSet.allOf(ReportType.class),
+                () -> reportService.prepareAllReports(recount),
+                refreshed -> refreshed.stream().collect(Collectors.toMap(Report::getReportType, Function.identity()))));
+    }
+
+    /**
+     * The report as it was last prepared. One older than {@code application.reports.max-staleness}, or one never
+     * prepared, is refreshed in the background; the stale one is returned meanwhile
+     */
+    public Optional<Report> get(ReportType reportType) {
+        Optional<Report> report = reportRepository.findByReportType(reportType);
+        Duration maxStaleness = applicationProperties.getReports().getMaxStaleness();
+        if (!maxStaleness.isZero() && report.map(r -> age(r).compareTo(maxStaleness) > 0).orElse(true)) {
+            log.debug("Report {} is stale, refreshing it in the background", reportType);
+            reports.submit(reportType, () -> reportService.prepareReport(reportType), reportTaskExecutor)
+                    .whenComplete((refreshed, ex) -> {
+                        if (ex != null) {
+                            log.warn("Background refresh of report {} failed: {}", reportType, ex.getMessage());
+                        }
+                    });
+        }
+        return report;
+    }
+
+    /**
+     * @return how long ago the report was prepared
+     */
+    public static Duration age(Report report) {
+        Duration age = Duration.between(report.getReportDate(), LocalDateTime.now());
+        return age.isNegative() ? Duration.ZERO : age;
+    }
+
+    /**
+     * The scheduled refresh of every report
+     */
+    public void refreshAllOnSchedule() {
+        try {
+            List<Report> refreshed = refreshAll(applicationProperties.getReports().isRecount());
+            log.info("Refreshed {} reports on schedule", refreshed.size());
+        } catch (RuntimeException ex) {
+            log.warn("Scheduled refresh of the reports failed: {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * The scheduled refresh of one report
+     */
+    public void refreshOnSchedule(ReportType reportType) {
+        try {
+            refresh(reportType);
+            log.info("Refreshed report {} on schedule", reportType);
+        } catch (RuntimeException ex) {
+            log.warn("Scheduled refresh of report {} failed: {}", reportType, ex.getMessage());
+        }
+    }
+}
@@ -1,18 +1,27 @@
 package com.emmett.customermanagement.service;
 
-import com.emmett.customermanagement.domain.Customer;
 import com.emmett.customermanagement.domain.Report;
 import com.emmett.customermanagement.domain.enumeration.Gender;
 import com.emmett.customermanagement.domain.enumeration.ReportType;
-import com.emmett.customermanagement.repository.jpa.CustomerRepository;
 import com.emmett.customermanagement.repository.jpa.ReportRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.EntityManager;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.Optional;
+import java.time.Period;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 @Transactional
@@ -20,31 +29,85 @@ public class ReportService {
 
     private final Logger log = LoggerFactory.getLogger(ReportService.class);
 
-    private final CustomerRepository customerRepository;
+    private final CustomerAggregates customerAggregates;
+
+    private final AgeHistograms ageHistograms;
 
     private final ReportRepository reportRepository;
 
-    public ReportService(CustomerRepository customerRepository,
-                         ReportRepository reportRepository)
+    private final ObjectMapper objectMapper;
+
+    private final EntityManager entityManager;
+
+    public ReportService(CustomerAggregates customerAggregates,
+                         AgeHistograms ageHistograms,
+                         ReportRepository reportRepository,
+                         ObjectMapper objectMapper,
+                         EntityManager entityManager)
     {
-        this.customerRepository = customerRepository;
+        this.customerAggregates = customerAggregates;
+        this.ageHistograms = ageHistograms;
         this.reportRepository = reportRepository;
+        this.objectMapper = objectMapper;
+        this.entityManager = entityManager;
+    }
+
+
+    /**
+     * Works an average report out from the {@link CustomerAggregates}, which are kept up to date by the writes,
+     * rather than from the customer table. A distribution report takes a pass over the table, by parts at once,
+     * see {@link AgeHistograms}
+     * @return the report
+     */
+    public Report prepareReport(ReportType reportType) {
+        return reportRepository.save(report(reportType, new Inputs()));
     }
 
+    /**
+     * Prepares every report type in one transaction, from one read of the {@link CustomerAggregates} and one pass
+     * over the customer table, so the reports agree with each other and have the same date
+     * @param recount true to first recount the aggregates from the customer table, in a single scan, picking up any
+     *                writes that bypassed the service
+     * @return the reports
+     */
+    public List<Report> prepareAllReports(boolean recount) {
+        if (recount) {
+            customerAggregates.recount();
+        }
+        Inputs inputs = new Inputs();
+        List<Report> reports = Arrays.stream(ReportType.values())
+                .map(reportType -> report(reportType, inputs))
+                .collect(Collectors.toList());
+        log.debug("Prepared {} reports", reports.size());
+        return reportRepository.saveAll(reports);
+    }
 
-    public void prepareReport(ReportType reportType) {
+    private Report report(ReportType reportType, Inputs inputs) {
         String data = null;
+        AgeHistogram histogram = null;
         switch (reportType) {
             case AVG_AGE:
-                data = customerRepository.findAvgAge();
+                data = averageAge(inputs.totals(), EnumSet.allOf(Gender.class));
                 break;
 
             case AVG_AGE_MALE:
-                data = customerRepository.findAvgAgeByGender(Gender.MALE);
+                data = averageAge(inputs.totals(), EnumSet.of(Gender.MALE));
                 break;
 
             case AVG_AGE_FEMALE:
-                data = customerRepository.findAvgAgeByGender(Gender.FEMALE);
+                data = averageAge(inputs.totals(), EnumSet.of(Gender.FEMALE));
+                break;
+
+            case AGE_DISTRIBUTION:
+                histogram = histogram(inputs.histograms(), EnumSet.allOf(Gender.class));
+                break;
+
+            case AGE_DISTRIBUTION_MALE:
+                histogram = histogram(inputs.histograms(), EnumSet.of(Gender.MALE));
+                break;
+
+            case AGE_DISTRIBUTION_FEMALE:
+                histogram = histogram(inputs.histograms(), EnumSet.of(Gender.FEMALE));
                 break;
 
             default:
@@ -52,11 +115,82 @@ public class ReportService {
 
 
         }
+        if (histogram == null) {
+            return new Report(reportType, inputs.now, data);
+        }
+        // the median is the headline figure, the rest of the distribution goes alongside it
+        Report report = new Report(reportType, inputs.now, String.valueOf(histogram.percentile(50)));
+        report.setDistribution(distribution(histogram));
+        return report;
+    }
 
-        Report report = new Report(reportType, LocalDateTime.now(), data.toString());
-        reportRepository.save(report);
+    /**
+     * @return the age in whole years, today, of a customer born on the mean birth date of the customers
+     */
+    private static String averageAge(CustomerTotals totals, Set<Gender> genders) {
+        OptionalDouble averageBirthEpochDay = totals.averageBirthEpochDay(genders);
+        if (!averageBirthEpochDay.isPresent()) {
+            throw new IllegalStateException("There are no customers to report on");
+        }
+        LocalDate averageBirthDate = LocalDate.ofEpochDay((long) Math.floor(averageBirthEpochDay.getAsDouble()));
+        return String.valueOf(Period.between(averageBirthDate, LocalDate.now()).getYears());
+    }
+
+    /**
+     * @return the ages of the customers of the genders
+     */
+    private static AgeHistogram histogram(Map<Gender, AgeHistogram> histograms, Set<Gender> genders) {
+        AgeHistogram histogram = new AgeHistogram();
+        genders.forEach(gender -> histogram.merge(histograms.get(gender)));
+        if (histogram.getCustomers() == 0) {
+            throw new IllegalStateException("There are no customers to report on");
+        }
+        return histogram;
     }
 
+    /**
+     * @return the {@link AgeDistribution} of the customers, as JSON
+     */
+    private String distribution(AgeHistogram histogram) {
+        try {
+            return objectMapper.writeValueAsString(new AgeDistribution(histogram));
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException("Could not write the age distribution", ex);
+        }
+    }
+
+    /**
+     * What the reports are worked out from, each read at most once and only if a report needs it
+     */
+    private final class Inputs {
+
+        private final LocalDateTime now = LocalDateTime.now();
+
+        private CustomerTotals totals;
+
+        private Map<Gender, AgeHistogram> histograms;
+
+        private CustomerTotals totals() {
+            if (totals == null) {
+                totals = customerAggregates.totals();
+            }
+            return totals;
+        }
+
+        private Map<Gender, AgeHistogram> histograms() {
+            if (histograms == null) {
+                if (customerAggregates.isChangedInTransaction()) {
+                    // the pass reads the table with JDBC, which only sees the changes of this transaction once
+                    // flushed, and only on the connection of this transaction
+                    entityManager.flush();
+                    histograms = ageHistograms.build(now.toLocalDate());
+                } else {
+                    histograms = ageHistograms.buildInParallel(now.toLocalDate());
+                }
+            }
+            return histograms;
+        }
+    }
 
 
 }
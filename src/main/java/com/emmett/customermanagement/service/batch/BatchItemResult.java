@@ -0,0 +1,47 @@
+package com.emmett.customermanagement.service.batch;
+
+/**
+ * Outcome of one item of a batch
+ */
+public class BatchItemResult {
+
+    private final int index;
+
+    private final Long id;
+
+    private final BatchItemStatus status;
+
+    private final String reason;
+
+    public BatchItemResult(int index, Long id, BatchItemStatus status, String reason) {
+        this.index = index;
+        this.id = id;
+        this.status = status;
+        this.reason = reason;
+    }
+
+    /**
+     * position of the item in the request, counted from 0
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * id of the customer, if the item has one or was created
+     */
+    public Long getId() {
+        return id;
+    }
+
+    public BatchItemStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * why the item was INVALID or FAILED
+     */
+    public String getReason() {
+        return reason;
+    }
+}
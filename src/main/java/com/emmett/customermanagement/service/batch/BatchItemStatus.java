@@ -0,0 +1,22 @@
+package com.emmett.customermanagement.service.batch;
+
+/**
+ * What became of one item of a batch
+ */
+public enum BatchItemStatus {
+    CREATED,
+    UPDATED,
+    DELETED,
+    /**
+     * there is no customer with the id of the item
+     */
+    NOT_FOUND,
+    /**
+     * the item could not be read or failed validation, it was not sent to the db
+     */
+    INVALID,
+    /**
+     * the db refused the item, e.g. for an externalCustomerId that is taken
+     */
+    FAILED
+}
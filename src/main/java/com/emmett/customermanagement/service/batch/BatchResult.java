@@ -0,0 +1,57 @@
+package com.emmett.customermanagement.service.batch;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of a bulk create, update or delete: the result of every item, and how many ended up in each status
+ */
+public class BatchResult {
+
+    private final Map<BatchItemStatus, Integer> counts = new EnumMap<>(BatchItemStatus.class);
+
+    private final List<BatchItemResult> items = new ArrayList<>();
+
+    private int chunks;
+
+    /**
+     * @return items per status, statuses no item has are left out
+     */
+    public Map<BatchItemStatus, Integer> getCounts() {
+        return counts;
+    }
+
+    /**
+     * transactions the items were written in, each one committed on its own
+     */
+    public int getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return the result of each item, in the order of the request
+     */
+    public List<BatchItemResult> getItems() {
+        items.sort(Comparator.comparingInt(BatchItemResult::getIndex));
+        return items;
+    }
+
+    /**
+     * @return the items dealt with so far
+     */
+    public int size() {
+        return items.size();
+    }
+
+    void add(BatchItemResult item) {
+        items.add(item);
+        counts.merge(item.getStatus(), 1, Integer::sum);
+    }
+
+    void chunkWritten() {
+        chunks++;
+    }
+}
@@ -0,0 +1,301 @@
+package com.emmett.customermanagement.service.batch;
+
+import com.emmett.customermanagement.config.ApplicationProperties;
+import com.emmett.customermanagement.domain.Customer;
+import com.emmett.customermanagement.service.CustomerService;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk create, update and delete of customers sent as a JSON array. The array is read an element at a time with
+ * Jackson's streaming parser, so a request of any length only ever holds one chunk of {@code application.batch.chunk-size}
+ * items. Each element is bound and validated on its own, the valid ones are written a chunk at a time, each chunk in
+ * its own transaction. When the db refuses a chunk its items are written one by one, so that only the items at
+ * fault fail.
+ *
+ * <p>
+ * Every item gets a {@link BatchItemResult}. An element that is not a customer (or an id, for deletes) is INVALID,
+ * the request carries on with the next one; only JSON that cannot be parsed at all stops it.
+ */
+@Service
+public class CustomerBatchService {
+
+    private final Logger log = LoggerFactory.getLogger(CustomerBatchService.class);
+
+    private final CustomerService customerService;
+
+    private final Validator validator;
+
+    private final ObjectMapper objectMapper;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ApplicationProperties applicationProperties;
+
+    private final EntityManager entityManager;
+
+    public CustomerBatchService(CustomerService customerService,
+                                Validator validator,
+                                ObjectMapper objectMapper,
+                                PlatformTransactionManager transactionManager,
+                                ApplicationProperties applicationProperties,
+                                EntityManager entityManager)
+    {
+        this.customerService = customerService;
+        this.validator = validator;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.applicationProperties = applicationProperties;
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * Creates the customers, with JDBC batch inserts (see {@link CustomerService#insertAll})
+     * @param in JSON array of customers without an id
+     * @return CREATED with the new id, INVALID or FAILED per customer
+     * @throws InvalidBatchException if the body is not a JSON array
+     */
+    public BatchResult createAll(InputStream in) {
+        return process(in, Customer.class, customer -> null, customer -> {
+            if (customer.getId() != null) {
+                return "A new customer cannot already have an ID";
+            }
+            return violations(validator.validate(customer), false);
+        }, this::createChunk);
+    }
+
+    /**
+     * Partially updates the customers as PATCH /api/customers/{id} does, a chunk read with a few "in" queries and
+     * updated with JDBC batches (see {@link CustomerService#partialUpdateAll})
+     * @param in JSON array of customers with their id and the fields to change
+     * @return UPDATED, NOT_FOUND, INVALID or FAILED per customer
+     * @throws InvalidBatchException if the body is not a JSON array
+     */
+    public BatchResult updateAll(InputStream in) {
+        return process(in, Customer.class, Customer::getId, customer -> {
+            if (customer.getId() == null) {
+                return "Invalid id";
+            }
+            // the fields left out are not changed, only the ones given have to be valid
+            return violations(validator.validate(customer), true);
+        }, this::updateChunk);
+    }
+
+    /**
+     * Deletes the customers (see {@link CustomerService#deleteAll})
+     * @param in JSON array of ids
+     * @return DELETED, NOT_FOUND or INVALID per id
+     * @throws InvalidBatchException if the body is not a JSON array
+     */
+    public BatchResult deleteAll(InputStream in) {
+        return process(in, Long.class, Function.identity(), id -> null, this::deleteChunk);
+    }
+
+    private List<BatchItemResult> createChunk(List<Item<Customer>> chunk) {
+        // an external id taken by a customer, or by an earlier item of the chunk, would fail the whole chunk
+        Set<String> taken = customerService.findExistingExternalCustomerIds(chunk.stream()
+                .map(item -> item.value.getExternalCustomerId())
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+        Set<String> seen = new HashSet<>();
+        List<BatchItemResult> results = new ArrayList<>();
+        List<Item<Customer>> valid = new ArrayList<>(chunk.size());
+        for (Item<Customer> item : chunk) {
+            String externalCustomerId = item.value.getExternalCustomerId();
+            if (externalCustomerId != null && (taken.contains(externalCustomerId) || !seen.add(externalCustomerId))) {
+                results.add(new BatchItemResult(item.index, null, BatchItemStatus.FAILED,
+                        "externalCustomerId " + externalCustomerId + " is taken"));
+            } else {
+                valid.add(item);
+            }
+        }
+
+        results.addAll(write(valid, items -> {
+            List<Customer> customers = items.stream().map(item -> item.value).collect(Collectors.toList());
+            // they got ids if an earlier attempt was rolled back
+            customers.forEach(customer -> customer.setId(null));
+            customerService.insertAll(customers);
+            return items.stream()
+                    .map(item -> new BatchItemResult(item.index, item.value.getId(), BatchItemStatus.CREATED, null))
+                    .collect(Collectors.toList());
+        }));
+        return results;
+    }
+
+    private List<BatchItemResult> updateChunk(List<Item<Customer>> chunk) {
+        return write(chunk, items -> {
+            List<Customer> updated = customerService.partialUpdateAll(
+                    items.stream().map(item -> item.value).collect(Collectors.toList()));
+            List<BatchItemResult> results = new ArrayList<>(items.size());
+            for (int i = 0; i < items.size(); i++) {
+                Item<Customer> item = items.get(i);
+                results.add(new BatchItemResult(item.index, item.id,
+                        updated.get(i) == null ? BatchItemStatus.NOT_FOUND : BatchItemStatus.UPDATED, null));
+            }
+            return results;
+        });
+    }
+
+    private List<BatchItemResult> deleteChunk(List<Item<Long>> chunk) {
+        return write(chunk, items -> {
+            Set<Long> deleted = customerService.deleteAll(items.stream().map(item -> item.value).collect(Collectors.toList()));
+            return items.stream()
+                    .map(item -> new BatchItemResult(item.index, item.id,
+                            deleted.contains(item.value) ? BatchItemStatus.DELETED : BatchItemStatus.NOT_FOUND, null))
+                    .collect(Collectors.toList());
+        });
+    }
+
+    /**
+     * Writes the items in one transaction. If the db refuses them they are written one at a time, each in its own
+     * transaction, and those it still refuses are FAILED
+     */
+    private <T> List<BatchItemResult> write(List<Item<T>> items, Function<List<Item<T>>, List<BatchItemResult>> writer) {
+        if (items.isEmpty()) {
+            return Collections.emptyList();
+        }
+        try {
+            return transactionTemplate.execute(status -> flushed(writer.apply(items)));
+        } catch (DataAccessException | TransactionException | PersistenceException ex) {
+            log.debug("Chunk of {} items refused, writing them one by one: {}", items.size(), ex.getMessage());
+        }
+
+        List<BatchItemResult> results = new ArrayList<>(items.size());
+        for (Item<T> item : items) {
+            try {
+                results.addAll(transactionTemplate.execute(status -> flushed(writer.apply(Collections.singletonList(item)))));
+            } catch (DataAccessException | TransactionException | PersistenceException ex) {
+                Throwable cause = NestedExceptionUtils.getMostSpecificCause(ex);
+                results.add(new BatchItemResult(item.index, item.id, BatchItemStatus.FAILED, cause.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Flushes the chunk, so that the db refuses it here rather than on commit, and clears the persistence context,
+     * which the request keeps open from one chunk to the next and would otherwise end up holding every customer updated
+     */
+    private List<BatchItemResult> flushed(List<BatchItemResult> results) {
+        entityManager.flush();
+        entityManager.clear();
+        return results;
+    }
+
+    /**
+     * Reads the array, binding and checking each element, and hands the valid ones to the writer a chunk at a time
+     * @param idOf id of the customer the element is about, if it has one
+     * @param check the reason the element is invalid, or null
+     */
+    private <T> BatchResult process(InputStream in, Class<T> type, Function<T, Long> idOf, Function<T, String> check,
+                                    Function<List<Item<T>>, List<BatchItemResult>> writer) {
+        int chunkSize = applicationProperties.getBatch().getChunkSize();
+        BatchResult result = new BatchResult();
+        List<Item<T>> chunk = new ArrayList<>(chunkSize);
+        int index = 0;
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new InvalidBatchException("A batch is a JSON array", result, null);
+            }
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.currentToken() == null) {
+                    throw new InvalidBatchException("The JSON array is not closed", result, null);
+                }
+                // a syntax error is thrown from here, a value of the wrong type only makes the item invalid
+                JsonNode element = parser.readValueAsTree();
+                T value;
+                try {
+                    value = objectMapper.treeToValue(element, type);
+                } catch (JsonProcessingException ex) {
+                    result.add(new BatchItemResult(index++, null, BatchItemStatus.INVALID, ex.getOriginalMessage()));
+                    continue;
+                }
+                String invalid = value == null ? "Empty item" : check.apply(value);
+                if (invalid != null) {
+                    result.add(new BatchItemResult(index++, value == null ? null : idOf.apply(value), BatchItemStatus.INVALID, invalid));
+                    continue;
+                }
+
+                chunk.add(new Item<>(index++, idOf.apply(value), value));
+                if (chunk.size() >= chunkSize) {
+                    writeChunk(chunk, writer, result);
+                }
+            }
+        } catch (JsonProcessingException ex) {
+            int unwritten = chunk.isEmpty() ? index : chunk.get(0).index;
+            throw new InvalidBatchException("Invalid JSON at item " + index + ", nothing from item " + unwritten
+                    + " on was written: " + ex.getOriginalMessage(), result, ex);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        if (!chunk.isEmpty()) {
+            writeChunk(chunk, writer, result);
+        }
+        log.debug("Batch of {} items written in {} chunks: {}", index, result.getChunks(), result.getCounts());
+        return result;
+    }
+
+    private static <T> void writeChunk(List<Item<T>> chunk, Function<List<Item<T>>, List<BatchItemResult>> writer,
+                                       BatchResult result) {
+        writer.apply(chunk).forEach(result::add);
+        result.chunkWritten();
+        chunk.clear();
+    }
+
+    /**
+     * @param partial true to ignore the violations of fields the item does not have
+     * @return the violations listed property by property, or null if there are none
+     */
+    private static String violations(Set<ConstraintViolation<Customer>> violations, boolean partial) {
+        String reason = violations.stream()
+                .filter(violation -> !partial || violation.getInvalidValue() != null)
+                .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                .sorted()
+                .collect(Collectors.joining(", "));
+        return reason.isEmpty() ? null : reason;
+    }
+
+    private static final class Item<T> {
+
+        private final int index;
+
+        private final Long id;
+
+        private final T value;
+
+        private Item(int index, Long id, T value) {
+            this.index = index;
+            this.id = id;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.emmett.customermanagement.service.batch;
+
+/**
+ * Thrown when the body of a batch is not a JSON array, or stops being valid JSON part way through. The chunks
+ * written before that stay committed, the result tells which items they held
+ */
+public class InvalidBatchException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient BatchResult result;
+
+    public InvalidBatchException(String message, BatchResult result, Throwable cause) {
+        super(message, cause);
+        this.result = result;
+    }
+
+    public BatchResult getResult() {
+        return result;
+    }
+}
@@ -0,0 +1,89 @@
+package com.emmett.customermanagement.service.cache;
+
+/**
+ * Effectiveness of the {@link CustomerCache}, as reported by GET /api/customers/cache/stats. Counted since startup
+ */
+public class CacheStats {
+
+    private final int size;
+
+    private final int maximumSize;
+
+    private final long hits;
+
+    private final long misses;
+
+    private final long evictions;
+
+    private final long expirations;
+
+    private final long rejections;
+
+    private final long invalidations;
+
+    CacheStats(int size, int maximumSize, long hits, long misses, long evictions, long expirations,
+               long rejections, long invalidations) {
+        this.size = size;
+        this.maximumSize = maximumSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.expirations = expirations;
+        this.rejections = rejections;
+        this.invalidations = invalidations;
+    }
+
+    /**
+     * @return customers in the cache
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return share of the reads served from the cache
+     */
+    public double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * @return customers dropped to make room for more frequently read ones
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return customers dropped because they were cached longer than the time to live
+     */
+    public long getExpirations() {
+        return expirations;
+    }
+
+    /**
+     * @return customers not cached because they were read less often than the one they would have evicted
+     */
+    public long getRejections() {
+        return rejections;
+    }
+
+    /**
+     * @return customers dropped because they were written
+     */
+    public long getInvalidations() {
+        return invalidations;
+    }
+}
@@ -0,0 +1,280 @@
+package com.emmett.customermanagement.service.cache;
+
+import com.emmett.customermanagement.config.ApplicationProperties;
+import com.emmett.customermanagement.domain.Customer;
+import com.emmett.customermanagement.service.CustomerService;
+import com.emmett.customermanagement.service.util.FrequencySketch;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Bounded in-memory cache of customers, by id and by externalCustomerId, in front of the point reads of
+ * {@link CustomerService}. Reads far outnumber writes and a small set of customers gets most of them.
+ *
+ * <p>
+ * Entries expire {@code application.cache.time-to-live} after they were cached. Once the cache holds
+ * {@code application.cache.maximum-size} customers, the least recently read one is evicted to make room for
+ * another only if a {@link FrequencySketch} of the recent reads says the newcomer is read more often (TinyLFU
+ * admission), so a scan of customers read once does not flush out the popular ones.
+ *
+ * <p>
+ * {@link CustomerService} invalidates customers as it writes them, and again when the transaction completes. A
+ * customer read from the db is only cached if nothing was invalidated since the read started, as it may be older than
+ * a write that committed meanwhile. Customers are copied in and out, the cached ones are never handed out.
+ */
+@Component
+public class CustomerCache {
+
+    private final int maximumSize;
+
+    private final long timeToLiveNanos;
+
+    /**
+     * in access order, the eldest is the least recently read. Guards everything else
+     */
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Map<String, Long> idsByExternalCustomerId = new HashMap<>();
+
+    private final FrequencySketch sketch;
+
+    /**
+     * bumped by every invalidation
+     */
+    private long generation;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private long expirations;
+
+    private long rejections;
+
+    private long invalidations;
+
+    public CustomerCache(ApplicationProperties applicationProperties) {
+        this.maximumSize = applicationProperties.getCache().getMaximumSize();
+        this.timeToLiveNanos = applicationProperties.getCache().getTimeToLive().toNanos();
+        this.sketch = new FrequencySketch(Math.max(1, maximumSize));
+    }
+
+    /**
+     * @return a copy of the cached customer, if there is one
+     */
+    public Optional<Customer> get(long id) {
+        Customer customer;
+        synchronized (entries) {
+            customer = read(id);
+        }
+        return Optional.ofNullable(customer).map(CustomerCache::copy);
+    }
+
+    /**
+     * @return a copy of the cached customer with the external id, if there is one
+     */
+    public Optional<Customer> getByExternalCustomerId(String externalCustomerId) {
+        Customer customer = null;
+        synchronized (entries) {
+            Long id = idsByExternalCustomerId.get(externalCustomerId);
+            if (id == null) {
+                misses++;
+            } else {
+                customer = read(id);
+            }
+        }
+        return Optional.ofNullable(customer).map(CustomerCache::copy);
+    }
+
+    /**
+     * @return the generation to pass to {@link #put}, taken before reading the customer from the db
+     */
+    public long generation() {
+        synchronized (entries) {
+            return generation;
+        }
+    }
+
+    /**
+     * Caches (a copy of) a customer just read from the db, unless a customer was invalidated since the read started
+     * or the read was made in a transaction that writes, whose changes may yet be rolled back
+     * @param generation from {@link #generation()} before the read
+     */
+    public void put(Customer customer, long generation) {
+        if (maximumSize <= 0 || customer.getId() == null
+                || (TransactionSynchronizationManager.isActualTransactionActive()
+                    && !TransactionSynchronizationManager.isCurrentTransactionReadOnly())) {
+            return;
+        }
+        long id = customer.getId();
+        Entry entry = new Entry(copy(customer), System.nanoTime() + timeToLiveNanos);
+        synchronized (entries) {
+            if (generation != this.generation) {
+                return;
+            }
+            // a read that was a miss
+            sketch.increment(id);
+            Entry existing = entries.get(id);
+            if (existing != null) {
+                unmapExternalCustomerId(id, existing);
+            } else if (entries.size() >= maximumSize && !evictFor(id)) {
+                rejections++;
+                return;
+            }
+            entries.put(id, entry);
+            if (customer.getExternalCustomerId() != null) {
+                idsByExternalCustomerId.put(customer.getExternalCustomerId(), id);
+            }
+        }
+    }
+
+    /**
+     * Drops the customer now, and again once the current transaction completes, if there is one: until then a read
+     * still sees the old version
+     */
+    public void invalidate(long id) {
+        synchronized (entries) {
+            remove(id);
+        }
+        afterCompletion(() -> remove(id));
+    }
+
+    /**
+     * {@link #invalidate} of many customers
+     */
+    public void invalidateAll(Collection<Long> ids) {
+        synchronized (entries) {
+            ids.forEach(this::remove);
+        }
+        afterCompletion(() -> ids.forEach(this::remove));
+    }
+
+    /**
+     * Drops every customer, as {@link #invalidate} does, for writes that cannot tell which customers they changed
+     */
+    public void clear() {
+        synchronized (entries) {
+            clearEntries();
+        }
+        afterCompletion(this::clearEntries);
+    }
+
+    public CacheStats stats() {
+        synchronized (entries) {
+            return new CacheStats(entries.size(), maximumSize, hits, misses, evictions, expirations, rejections, invalidations);
+        }
+    }
+
+    /**
+     * @return the cached customer, null on a miss
+     */
+    private Customer read(long id) {
+        Entry entry = entries.get(id);
+        if (entry != null && entry.expiresAt - System.nanoTime() < 0) {
+            entries.remove(id);
+            unmapExternalCustomerId(id, entry);
+            expirations++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        sketch.increment(id);
+        hits++;
+        return entry.customer;
+    }
+
+    /**
+     * makes room by evicting the least recently read customer, unless the candidate is read less often than it
+     * @return whether there is room now
+     */
+    private boolean evictFor(long candidate) {
+        Iterator<Map.Entry<Long, Entry>> eldest = entries.entrySet().iterator();
+        Map.Entry<Long, Entry> victim = eldest.next();
+        boolean expired = victim.getValue().expiresAt - System.nanoTime() < 0;
+        if (!expired && sketch.frequency(candidate) <= sketch.frequency(victim.getKey())) {
+            return false;
+        }
+        eldest.remove();
+        unmapExternalCustomerId(victim.getKey(), victim.getValue());
+        if (expired) {
+            expirations++;
+        } else {
+            evictions++;
+        }
+        return true;
+    }
+
+    /**
+     * guarded by entries
+     */
+    private void remove(long id) {
+        generation++;
+        Entry entry = entries.remove(id);
+        if (entry != null) {
+            unmapExternalCustomerId(id, entry);
+            invalidations++;
+        }
+    }
+
+    /**
+     * guarded by entries
+     */
+    private void clearEntries() {
+        generation++;
+        invalidations += entries.size();
+        entries.clear();
+        idsByExternalCustomerId.clear();
+    }
+
+    private void unmapExternalCustomerId(long id, Entry entry) {
+        String externalCustomerId = entry.customer.getExternalCustomerId();
+        if (externalCustomerId != null && Long.valueOf(id).equals(idsByExternalCustomerId.get(externalCustomerId))) {
+            idsByExternalCustomerId.remove(externalCustomerId);
+        }
+    }
+
+    private void afterCompletion(Runnable change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    synchronized (entries) {
+                        change.run();
+                    }
+                }
+            });
+        }
+    }
+
+    private static Customer copy(Customer customer) {
+        Customer copy = new Customer(customer.getName(), customer.getGender(), customer.getExternalCustomerId(),
+                customer.getBirthDate(), customer.getCreatedAt());
+        copy.setId(customer.getId());
+        copy.setUpdatedAt(customer.getUpdatedAt());
+        return copy;
+    }
+
+    private static final class Entry {
+
+        private final Customer customer;
+
+        private final long expiresAt;
+
+        private Entry(Customer customer, long expiresAt) {
+            this.customer = customer;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.emmett.customermanagement.service.cache;
+
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Effectiveness of hibernate's second level and query cache, as reported by GET /api/cache/stats. Counted since startup
+ */
+public class EntityCacheStats {
+
+    private final long hits;
+
+    private final long misses;
+
+    private final long puts;
+
+    private final long queryHits;
+
+    private final long queryMisses;
+
+    private final long queryPuts;
+
+    private final List<Region> regions;
+
+    private EntityCacheStats(Statistics statistics) {
+        this.hits = statistics.getSecondLevelCacheHitCount();
+        this.misses = statistics.getSecondLevelCacheMissCount();
+        this.puts = statistics.getSecondLevelCachePutCount();
+        this.queryHits = statistics.getQueryCacheHitCount();
+        this.queryMisses = statistics.getQueryCacheMissCount();
+        this.queryPuts = statistics.getQueryCachePutCount();
+        this.regions = Arrays.stream(statistics.getSecondLevelCacheRegionNames())
+                .sorted()
+                .map(name -> new Region(name, statistics.getCacheRegionStatistics(name)))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param statistics hibernate's, which are only counted with {@code hibernate.generate_statistics}
+     */
+    public static EntityCacheStats of(Statistics statistics) {
+        return new EntityCacheStats(statistics);
+    }
+
+    /**
+     * @return entities read from the cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return entities looked for in the cache and read from the db
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getPuts() {
+        return puts;
+    }
+
+    /**
+     * @return query results read from the cache
+     */
+    public long getQueryHits() {
+        return queryHits;
+    }
+
+    public long getQueryMisses() {
+        return queryMisses;
+    }
+
+    public long getQueryPuts() {
+        return queryPuts;
+    }
+
+    public List<Region> getRegions() {
+        return regions;
+    }
+
+    /**
+     * Counts of one region: an entity, or the query results
+     */
+    public static class Region {
+
+        private final String name;
+
+        private final long hits;
+
+        private final long misses;
+
+        private final long puts;
+
+        private Region(String name, CacheRegionStatistics statistics) {
+            this.name = name;
+            this.hits = statistics == null ? 0 : statistics.getHitCount();
+            this.misses = statistics == null ? 0 : statistics.getMissCount();
+            this.puts = statistics == null ? 0 : statistics.getPutCount();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getPuts() {
+            return puts;
+        }
+    }
+}
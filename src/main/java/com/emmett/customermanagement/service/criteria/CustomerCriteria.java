@@ -0,0 +1,146 @@
+package com.emmett.customermanagement.service.criteria;
+
+import com.emmett.customermanagement.domain.enumeration.Gender;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Criteria for filtering the customers, bound from the request parameters of the listing. Every criterion is
+ * optional and they are and-ed together. Ranges are "from" inclusive and "to" exclusive.
+ * See {@link CustomerSpecifications} for how they translate to queries.
+ */
+public class CustomerCriteria {
+
+    private Gender gender;
+
+    private String namePrefix;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate birthDateFrom;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate birthDateTo;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private Instant createdAtFrom;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private Instant createdAtTo;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private Instant updatedAtFrom;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private Instant updatedAtTo;
+
+    private List<String> externalCustomerId;
+
+    /**
+     * @return true if any criterion is set
+     */
+    public boolean isSpecified() {
+        return gender != null || isIndexed();
+    }
+
+    /**
+     * @return true if a criterion is set that an index narrows down: the name prefix, an external id or a bound of
+     * one of the date ranges. The gender on its own is not, each gender takes in a large share of the table
+     */
+    public boolean isIndexed() {
+        return (namePrefix != null && !namePrefix.isEmpty())
+                || (externalCustomerId != null && !externalCustomerId.isEmpty())
+                || birthDateFrom != null || birthDateTo != null
+                || createdAtFrom != null || createdAtTo != null
+                || updatedAtFrom != null || updatedAtTo != null;
+    }
+
+    public Gender getGender() {
+        return gender;
+    }
+
+    public void setGender(Gender gender) {
+        this.gender = gender;
+    }
+
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    public void setNamePrefix(String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    public LocalDate getBirthDateFrom() {
+        return birthDateFrom;
+    }
+
+    public void setBirthDateFrom(LocalDate birthDateFrom) {
+        this.birthDateFrom = birthDateFrom;
+    }
+
+    public LocalDate getBirthDateTo() {
+        return birthDateTo;
+    }
+
+    public void setBirthDateTo(LocalDate birthDateTo) {
+        this.birthDateTo = birthDateTo;
+    }
+
+    public Instant getCreatedAtFrom() {
+        return createdAtFrom;
+    }
+
+    public void setCreatedAtFrom(Instant createdAtFrom) {
+        this.createdAtFrom = createdAtFrom;
+    }
+
+    public Instant getCreatedAtTo() {
+        return createdAtTo;
+    }
+
+    public void setCreatedAtTo(Instant createdAtTo) {
+        this.createdAtTo = createdAtTo;
+    }
+
+    public Instant getUpdatedAtFrom() {
+        return updatedAtFrom;
+    }
+
+    public void setUpdatedAtFrom(Instant updatedAtFrom) {
+        this.updatedAtFrom = updatedAtFrom;
+    }
+
+    public Instant getUpdatedAtTo() {
+        return updatedAtTo;
+    }
+
+    public void setUpdatedAtTo(Instant updatedAtTo) {
+        this.updatedAtTo = updatedAtTo;
+    }
+
+    public List<String> getExternalCustomerId() {
+        return externalCustomerId;
+    }
+
+    public void setExternalCustomerId(List<String> externalCustomerId) {
+        this.externalCustomerId = externalCustomerId;
+    }
+
+    @Override
+    public String toString() {
+        return "CustomerCriteria{" +
+                "gender=" + gender +
+                ", namePrefix='" + namePrefix + "'" +
+                ", birthDateFrom=" + birthDateFrom +
+                ", birthDateTo=" + birthDateTo +
+                ", createdAtFrom=" + createdAtFrom +
+                ", createdAtTo=" + createdAtTo +
+                ", updatedAtFrom=" + updatedAtFrom +
+                ", updatedAtTo=" + updatedAtTo +
+                ", externalCustomerId=" + externalCustomerId +
+                "}";
+    }
+}
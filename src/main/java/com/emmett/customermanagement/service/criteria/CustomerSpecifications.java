@@ -0,0 +1,76 @@
+package com.emmett.customermanagement.service.criteria;
+
+import com.emmett.customermanagement.domain.Customer;
+import org.springframework.data.jpa.domain.Specification;
+
+import javax.persistence.criteria.Predicate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link Specification}s for the customer queries. Each criterion maps onto an index of the customer table:
+ * the name prefix onto (name, id), gender and birth date onto (gender, birth_date) or (birth_date), the audit
+ * dates onto their own and the external ids onto the unique constraint.
+ */
+public final class CustomerSpecifications {
+
+    private CustomerSpecifications() {
+    }
+
+    /**
+     * @return the customers matching all the criteria that are set
+     */
+    public static Specification<Customer> matching(CustomerCriteria criteria) {
+        return (root, query, cb) -> {
+            List<Predicate> predicates = new ArrayList<>();
+            if (criteria.getGender() != null) {
+                predicates.add(cb.equal(root.get("gender"), criteria.getGender()));
+            }
+            if (criteria.getNamePrefix() != null && !criteria.getNamePrefix().isEmpty()) {
+                predicates.add(cb.like(root.get("name"), escapeLike(criteria.getNamePrefix()) + "%", '\\'));
+            }
+            if (criteria.getBirthDateFrom() != null) {
+                predicates.add(cb.greaterThanOrEqualTo(root.get("birthDate"), criteria.getBirthDateFrom()));
+            }
+            if (criteria.getBirthDateTo() != null) {
+                predicates.add(cb.lessThan(root.get("birthDate"), criteria.getBirthDateTo()));
+            }
+            if (criteria.getCreatedAtFrom() != null) {
+                predicates.add(cb.greaterThanOrEqualTo(root.get("createdAt"), criteria.getCreatedAtFrom()));
+            }
+            if (criteria.getCreatedAtTo() != null) {
+                predicates.add(cb.lessThan(root.get("createdAt"), criteria.getCreatedAtTo()));
+            }
+            if (criteria.getUpdatedAtFrom() != null) {
+                predicates.add(cb.greaterThanOrEqualTo(root.get("updatedAt"), criteria.getUpdatedAtFrom()));
+            }
+            if (criteria.getUpdatedAtTo() != null) {
+                predicates.add(cb.lessThan(root.get("updatedAt"), criteria.getUpdatedAtTo()));
+            }
+            if (criteria.getExternalCustomerId() != null && !criteria.getExternalCustomerId().isEmpty()) {
+                predicates.add(root.get("externalCustomerId").in(criteria.getExternalCustomerId()));
+            }
+            return cb.and(predicates.toArray(new Predicate[0]));
+        };
+    }
+
+    public static Specification<Customer> withId(long id) {
+        return (root, query, cb) -> cb.equal(root.get("id"), id);
+    }
+
+    /**
+     * Keyset pagination: the customers sorted after the given one in (name, id) order. The db seeks straight to
+     * the position in the (name, id) index instead of counting its way there through an offset, so every page
+     * costs the same however deep it is. The first condition bounds the index range, the second one drops the
+     * rows of that name up to and including the given customer
+     */
+    public static Specification<Customer> after(String name, long id) {
+        return (root, query, cb) -> cb.and(
+                cb.greaterThanOrEqualTo(root.get("name"), name),
+                cb.or(cb.greaterThan(root.get("name"), name), cb.greaterThan(root.get("id"), id)));
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
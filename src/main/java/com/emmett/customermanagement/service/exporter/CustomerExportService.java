@@ -0,0 +1,122 @@
+package com.emmett.customermanagement.service.exporter;
+
+import com.emmett.customermanagement.domain.Customer;
+import com.emmett.customermanagement.repository.jdbc.CustomerJdbcRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams every customer to an output stream, straight from a db cursor (see {@link CustomerJdbcRepository#streamAll}).
+ * Memory use does not depend on the number of customers, and there is no paging: one query, read once.
+ */
+@Service
+public class CustomerExportService {
+
+    private static final String CSV_HEADER = "name,gender,birthDate,externalCustomerId\n";
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final Logger log = LoggerFactory.getLogger(CustomerExportService.class);
+
+    private final CustomerJdbcRepository customerJdbcRepository;
+
+    private final ObjectWriter customerWriter;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public CustomerExportService(CustomerJdbcRepository customerJdbcRepository,
+                                 ObjectMapper objectMapper,
+                                 PlatformTransactionManager transactionManager)
+    {
+        this.customerJdbcRepository = customerJdbcRepository;
+        this.customerWriter = objectMapper.writerFor(Customer.class);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Writes all customers, in id order
+     * @param out not closed here
+     * @throws IOException if the client goes away, which also ends the query
+     */
+    public void export(ExportFormat format, OutputStream out) throws IOException {
+        log.debug("Request to export Customers as {}", format);
+        try {
+            if (format == ExportFormat.CSV) {
+                exportCsv(out);
+            } else {
+                exportNdjson(out);
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private void exportCsv(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_BYTES);
+        writer.write(CSV_HEADER);
+        transactionTemplate.executeWithoutResult(status -> customerJdbcRepository.streamAll(customer -> {
+            try {
+                writeCsvField(writer, customer.getName());
+                writer.write(',');
+                writer.write(customer.getGender().name());
+                writer.write(',');
+                writer.write(customer.getBirthDate().toString());
+                writer.write(',');
+                writeCsvField(writer, customer.getExternalCustomerId());
+                writer.write('\n');
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }));
+        writer.flush();
+    }
+
+    private void exportNdjson(OutputStream out) throws IOException {
+        OutputStream buffered = new BufferedOutputStream(out, BUFFER_BYTES);
+        transactionTemplate.executeWithoutResult(status -> customerJdbcRepository.streamAll(customer -> {
+            try {
+                buffered.write(customerWriter.writeValueAsBytes(customer));
+                buffered.write('\n');
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }));
+        buffered.flush();
+    }
+
+    /**
+     * quoted only when it has to be, the way the import reads it back. Null is written as an empty field
+     */
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
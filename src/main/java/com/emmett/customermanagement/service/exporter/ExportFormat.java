@@ -0,0 +1,34 @@
+package com.emmett.customermanagement.service.exporter;
+
+import org.springframework.http.MediaType;
+
+/**
+ * Formats the customer export can be streamed in
+ */
+public enum ExportFormat {
+    /**
+     * the columns of the csv import, so an export can be imported again as it is
+     */
+    CSV("text/csv", "csv"),
+    /**
+     * one json customer per line
+     */
+    NDJSON("application/x-ndjson", "ndjson");
+
+    private final MediaType mediaType;
+
+    private final String extension;
+
+    ExportFormat(String mediaType, String extension) {
+        this.mediaType = MediaType.parseMediaType(mediaType);
+        this.extension = extension;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+}
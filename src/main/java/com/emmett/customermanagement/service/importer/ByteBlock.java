@@ -0,0 +1,28 @@
+package com.emmett.customermanagement.service.importer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Whole csv records, as raw UTF-8 bytes, cut from the import file by a {@link ByteBlockSource}
+ * or a {@link MappedBlockSource}
+ */
+class ByteBlock {
+
+    /**
+     * the records, from position 0 up to the limit. Either a heap buffer or a slice of a memory mapped file
+     */
+    final ByteBuffer bytes;
+
+    /**
+     * number of the first record in the block, counted from 1 after the header
+     */
+    final long firstRow;
+
+    final int rows;
+
+    ByteBlock(ByteBuffer bytes, long firstRow, int rows) {
+        this.bytes = bytes;
+        this.firstRow = firstRow;
+        this.rows = rows;
+    }
+}
@@ -0,0 +1,70 @@
+package com.emmett.customermanagement.service.importer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reader stage of the fast import path for streamed files. Cuts the stream into blocks of about {@code blockBytes}
+ * that end on a record boundary, so each block can be parsed on its own.
+ */
+class ByteBlockSource implements ImportPipeline.BlockSource<ByteBlock> {
+
+    private final InputStream in;
+
+    private final int blockBytes;
+
+    private byte[] carry = new byte[0];
+
+    private boolean eof;
+
+    private long nextRow = 1;
+
+    ByteBlockSource(InputStream in, int blockBytes) {
+        this.in = in;
+        this.blockBytes = blockBytes;
+    }
+
+    @Override
+    public ByteBlock next() throws IOException {
+        if (eof && carry.length == 0) {
+            return null;
+        }
+        byte[] buf = new byte[Math.max(blockBytes, carry.length * 2)];
+        System.arraycopy(carry, 0, buf, 0, carry.length);
+        int len = carry.length;
+
+        while (true) {
+            while (!eof && len < buf.length) {
+                int n = in.read(buf, len, buf.length - len);
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    len += n;
+                }
+            }
+
+            RecordScan scan = RecordScan.scan(ByteBuffer.wrap(buf), 0, len);
+            int boundary = scan.boundary;
+            int rows = scan.rows;
+            if (eof && boundary < len) {
+                // last record without a trailing line break
+                boundary = len;
+                rows++;
+            }
+            if (boundary > 0) {
+                carry = Arrays.copyOfRange(buf, boundary, len);
+                ByteBlock block = new ByteBlock(ByteBuffer.wrap(buf, 0, boundary).slice(), nextRow, rows);
+                nextRow += rows;
+                return block;
+            }
+            if (eof) {
+                carry = new byte[0];
+                return null;
+            }
+            // a single record longer than the buffer
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+    }
+}
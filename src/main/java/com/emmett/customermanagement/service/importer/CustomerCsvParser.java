@@ -0,0 +1,305 @@
+package com.emmett.customermanagement.service.importer;
+
+import com.emmett.customermanagement.domain.Customer;
+import com.emmett.customermanagement.domain.enumeration.Gender;
+
+import javax.validation.ValidationException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Parser for the import format only - a header made of the customer columns (name,gender,birthDate,externalCustomerId,
+ * in any order) - working straight on the UTF-8 bytes of a {@link ByteBlock}, in the heap or memory mapped. Genders and yyyy-MM-dd dates are
+ * decoded from the bytes in place, the only objects created per row are the customer, its two strings and its date.
+ * Binds exactly like the opencsv mapping on {@link Customer}: empty strings stay empty, an empty gender or date is null.
+ *
+ * <p>
+ * Files with any other header go through opencsv instead, see {@link #forHeader}.
+ */
+class CustomerCsvParser {
+
+    enum Column {
+        NAME("name"),
+        GENDER("gender"),
+        BIRTH_DATE("birthDate"),
+        EXTERNAL_CUSTOMER_ID("externalCustomerId");
+
+        private final String header;
+
+        Column(String header) {
+            this.header = header;
+        }
+    }
+
+    private static final Gender[] GENDERS = Gender.values();
+
+    private static final byte[][] GENDER_NAMES = new byte[GENDERS.length][];
+
+    static {
+        for (int i = 0; i < GENDERS.length; i++) {
+            GENDER_NAMES[i] = GENDERS[i].name().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final Column[] columns;
+
+    private CustomerCsvParser(Column[] columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * @param header column names from the header row
+     * @return a parser for files with this header, or null if the header has anything but customer columns
+     */
+    static CustomerCsvParser forHeader(String[] header) {
+        Column[] columns = new Column[header.length];
+        Set<Column> seen = EnumSet.noneOf(Column.class);
+        for (int i = 0; i < header.length; i++) {
+            Column column = column(header[i].trim());
+            if (column == null || !seen.add(column)) {
+                return null;
+            }
+            columns[i] = column;
+        }
+        return columns.length > 0 ? new CustomerCsvParser(columns) : null;
+    }
+
+    private static Column column(String header) {
+        for (Column column : Column.values()) {
+            if (column.header.equalsIgnoreCase(header)) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param check called with each customer and its row number as soon as the row is bound
+     * @param rejector null to fail on the first row that cannot be parsed or fails the check, otherwise
+     *                 told about each such row, which is then skipped
+     */
+    ParsedRows parse(ByteBlock block, ObjLongConsumer<Customer> check, RowRejector rejector) {
+        ByteBuffer buf = block.bytes;
+        int end = buf.limit();
+        ParsedRows parsed = new ParsedRows(block.rows);
+
+        int pos = 0;
+        long row = block.firstRow;
+        while (pos < end) {
+            if (isLineEnd(buf, pos, end)) {
+                pos = skipLineEnd(buf, pos, end);
+                row++;
+                continue;
+            }
+
+            int recordStart = pos;
+            Customer customer = new Customer();
+            try {
+                pos = parseRecord(buf, pos, end, customer, row);
+                check.accept(customer, row);
+                parsed.add(customer, row);
+            } catch (InvalidCsvRowException | ValidationException ex) {
+                if (rejector == null) {
+                    throw ex;
+                }
+                rejector.reject(row, customer.getExternalCustomerId(), ex);
+                pos = nextRecord(buf, recordStart, end);
+            }
+            row++;
+        }
+        return parsed;
+    }
+
+    /**
+     * binds the fields of the record starting at pos to the customer
+     * @return where the next record starts
+     */
+    private int parseRecord(ByteBuffer buf, int pos, int end, Customer customer, long row) {
+        int column = 0;
+        while (true) {
+            if (column == columns.length) {
+                throw new InvalidCsvRowException(row, "more fields than header columns", null);
+            }
+            int start;
+            int stop;
+            String unescaped = null;
+            if (buf.get(pos) == '"') {
+                start = pos + 1;
+                boolean escapes = false;
+                int i = start;
+                while (true) {
+                    if (i >= end) {
+                        throw new InvalidCsvRowException(row, "unterminated quoted field", null);
+                    }
+                    if (buf.get(i) == '"') {
+                        if (i + 1 < end && buf.get(i + 1) == '"') {
+                            escapes = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                stop = i;
+                pos = i + 1;
+                if (escapes) {
+                    unescaped = string(buf, start, stop).replace("\"\"", "\"");
+                }
+                if (pos < end && buf.get(pos) != ',' && !isLineEnd(buf, pos, end)) {
+                    throw new InvalidCsvRowException(row, "unexpected character after quoted field", null);
+                }
+            } else {
+                start = pos;
+                while (pos < end && buf.get(pos) != ',' && !isLineEnd(buf, pos, end)) {
+                    pos++;
+                }
+                stop = pos;
+            }
+
+            bind(customer, columns[column++], buf, start, stop, unescaped, row);
+
+            if (pos < end && buf.get(pos) == ',') {
+                pos++;
+                if (pos == end || isLineEnd(buf, pos, end)) {
+                    // trailing empty field
+                    if (column == columns.length) {
+                        throw new InvalidCsvRowException(row, "more fields than header columns", null);
+                    }
+                    bind(customer, columns[column++], buf, pos, pos, null, row);
+                    pos = skipLineEnd(buf, pos, end);
+                    break;
+                }
+                continue;
+            }
+            pos = skipLineEnd(buf, pos, end);
+            break;
+        }
+        if (column != columns.length) {
+            throw new InvalidCsvRowException(row, "expected " + columns.length + " fields but found " + column, null);
+        }
+        return pos;
+    }
+
+    /**
+     * @return where the record after the one starting at pos starts, the same way {@link RecordScan} finds record ends
+     */
+    private static int nextRecord(ByteBuffer buf, int pos, int end) {
+        boolean quoted = false;
+        for (int i = pos; i < end; i++) {
+            byte b = buf.get(i);
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (b == '\n' && !quoted) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    private static boolean isLineEnd(ByteBuffer buf, int pos, int end) {
+        return buf.get(pos) == '\n' || (buf.get(pos) == '\r' && (pos + 1 == end || buf.get(pos + 1) == '\n'));
+    }
+
+    private static int skipLineEnd(ByteBuffer buf, int pos, int end) {
+        if (pos < end && buf.get(pos) == '\r') {
+            pos++;
+        }
+        if (pos < end && buf.get(pos) == '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static void bind(Customer customer, Column column, ByteBuffer buf, int start, int stop, String unescaped, long row) {
+        switch (column) {
+            case NAME:
+                customer.setName(unescaped != null ? unescaped : string(buf, start, stop));
+                break;
+            case EXTERNAL_CUSTOMER_ID:
+                customer.setExternalCustomerId(unescaped != null ? unescaped : string(buf, start, stop));
+                break;
+            case GENDER:
+                customer.setGender(stop == start ? null : gender(buf, start, stop, row));
+                break;
+            case BIRTH_DATE:
+                customer.setBirthDate(stop == start ? null : date(buf, start, stop, row));
+                break;
+            default:
+                throw new IllegalStateException("Unknown column " + column);
+        }
+    }
+
+    private static String string(ByteBuffer buf, int start, int stop) {
+        if (buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + start, stop - start, StandardCharsets.UTF_8);
+        }
+        // memory mapped, the bytes have to be copied out to decode them
+        byte[] bytes = new byte[stop - start];
+        buf.duplicate().position(start).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Gender gender(ByteBuffer buf, int start, int stop, long row) {
+        for (int g = 0; g < GENDERS.length; g++) {
+            byte[] name = GENDER_NAMES[g];
+            if (name.length == stop - start && equalsIgnoreAsciiCase(name, buf, start)) {
+                return GENDERS[g];
+            }
+        }
+        throw new InvalidCsvRowException(row, "unknown gender " + string(buf, start, stop), null);
+    }
+
+    private static boolean equalsIgnoreAsciiCase(byte[] upper, ByteBuffer buf, int start) {
+        for (int i = 0; i < upper.length; i++) {
+            int b = buf.get(start + i);
+            if (b >= 'a' && b <= 'z') {
+                b -= 'a' - 'A';
+            }
+            if (b != upper[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * yyyy-MM-dd
+     */
+    private static LocalDate date(ByteBuffer buf, int start, int stop, long row) {
+        if (stop - start == 10 && buf.get(start + 4) == '-' && buf.get(start + 7) == '-') {
+            int year = digits(buf, start, 4);
+            int month = digits(buf, start + 5, 2);
+            int day = digits(buf, start + 8, 2);
+            if (year >= 0 && month >= 0 && day >= 0) {
+                try {
+                    return LocalDate.of(year, month, day);
+                } catch (DateTimeException ex) {
+                    throw new InvalidCsvRowException(row, ex.getMessage(), ex);
+                }
+            }
+        }
+        throw new InvalidCsvRowException(row, "birthDate is not in the form yyyy-MM-dd: "
+                + string(buf, start, stop), null);
+    }
+
+    /**
+     * @return the value of the digits, -1 if any of them is not a digit
+     */
+    private static int digits(ByteBuffer buf, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = buf.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,28 @@
+package com.emmett.customermanagement.service.importer;
+
+/**
+ * Thrown when an import fails part way through. Carries the progress made before the failure so the caller
+ * can tell the client how many rows were committed (always none for an {@link ImportMode#ATOMIC} import)
+ */
+public class CustomerImportException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient ImportResult result;
+
+    public CustomerImportException(ImportResult result, Throwable cause) {
+        super("Customer import failed after " + result.getParsed() + " parsed rows", cause);
+        this.result = result;
+    }
+
+    public ImportResult getResult() {
+        return result;
+    }
+
+    /**
+     * rows that are committed and stay committed despite the failure
+     */
+    public long getCommitted() {
+        return result.getMode() == ImportMode.ATOMIC ? 0 : result.getSaved();
+    }
+}
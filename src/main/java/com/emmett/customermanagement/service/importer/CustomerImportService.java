@@ -0,0 +1,654 @@
+package com.emmett.customermanagement.service.importer;
+
+import com.emmett.customermanagement.config.ApplicationProperties;
+import com.emmett.customermanagement.domain.Customer;
+import com.emmett.customermanagement.service.CustomerService;
+import com.emmett.customermanagement.service.ExternalCustomerIdFilter;
+import com.emmett.customermanagement.service.util.BloomFilter;
+import com.opencsv.CSVParser;
+import com.opencsv.CSVReader;
+import com.opencsv.bean.HeaderColumnNameMappingStrategy;
+import com.opencsv.exceptions.CsvException;
+import com.opencsv.exceptions.CsvValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.web.servlet.MultipartProperties;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validator;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Semaphore;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams a csv file into the customer table through an {@link ImportPipeline}: one thread reads the csv, a pool
+ * of {@code application.import.parser-threads} binds and validates its rows, and the calling thread hands them to
+ * the database in chunks of {@code application.import.chunk-size}, each chunk written with JDBC batch inserts
+ * (see {@link CustomerService#insertAll}). Heap usage depends on the chunk and block sizes, not on the size of the file.
+ *
+ * <p>
+ * Files in the import format are read in byte blocks and parsed by {@link CustomerCsvParser} - straight from a
+ * memory mapping when the file is on disk; files with any other columns fall back to opencsv's tokenizer and
+ * annotation driven binding.
+ *
+ * <p>
+ * Files on disk and uploads held in memory can be read more than once, which is what the duplicate check ahead of
+ * an import relies on.
+ * Gzip compressed files, recognised by their magic bytes, are inflated on the fly as they are streamed.
+ */
+@Service
+public class CustomerImportService {
+
+    /**
+     * to size the duplicate check's filter from the size of the file, an overestimate of the rows only costs memory
+     */
+    private static final int ESTIMATED_ROW_BYTES = 32;
+
+    /**
+     * a gzip compressed file is read as that many times its size when sizing the duplicate check's filter
+     */
+    private static final int ESTIMATED_GZIP_RATIO = 10;
+
+    private static final int GZIP_MAGIC_1 = 0x1f;
+
+    private static final int GZIP_MAGIC_2 = 0x8b;
+
+    private static final int GZIP_BUFFER_BYTES = 64 * 1024;
+
+    private final Logger log = LoggerFactory.getLogger(CustomerImportService.class);
+
+    private final CustomerService customerService;
+
+    private final Validator validator;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ApplicationProperties applicationProperties;
+
+    private final MultipartProperties multipartProperties;
+
+    private final ExternalCustomerIdFilter externalCustomerIdFilter;
+
+    private final ThreadPoolTaskExecutor importPipelineTaskExecutor;
+
+    /**
+     * one permit per thread of the importPipelineTaskExecutor
+     */
+    private final Semaphore importPipelineThreads;
+
+    public CustomerImportService(CustomerService customerService,
+                                 Validator validator,
+                                 PlatformTransactionManager transactionManager,
+                                 ApplicationProperties applicationProperties,
+                                 MultipartProperties multipartProperties,
+                                 ExternalCustomerIdFilter externalCustomerIdFilter,
+                                 ThreadPoolTaskExecutor importPipelineTaskExecutor)
+    {
+        this.customerService = customerService;
+        this.validator = validator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.applicationProperties = applicationProperties;
+        this.multipartProperties = multipartProperties;
+        this.externalCustomerIdFilter = externalCustomerIdFilter;
+        this.importPipelineTaskExecutor = importPipelineTaskExecutor;
+        this.importPipelineThreads = new Semaphore(importPipelineTaskExecutor.getMaxPoolSize(), true);
+    }
+
+    /**
+     * Imports every row of the csv
+     * @param in UTF-8 csv, possibly gzip compressed, with a header row naming the {@link Customer} columns
+     * @param mode whether the file is committed as a whole or chunk by chunk
+     * @return counts of the rows parsed and saved
+     * @throws CustomerImportException if a row cannot be parsed, is invalid or cannot be saved
+     */
+    public ImportResult importCsv(InputStream in, ImportMode mode) {
+        return importCsv(in, new ImportResult(mode), () -> false);
+    }
+
+    /**
+     * Imports every row of the csv, reporting progress as it goes. A stream can only be read once, so it is not
+     * checked for duplicate externalCustomerIds ahead of the import: a duplicate fails the import when its row is
+     * written, after the chunks before it for a CHUNKED import
+     * @param in UTF-8 csv, possibly gzip compressed, with a header row naming the {@link Customer} columns
+     * @param result counters updated while the import runs, its mode decides how rows are committed
+     * @param cancelled checked between blocks of rows, the import stops with a {@link CancellationException}
+     *                  once it returns true. For a CHUNKED import the chunks committed so far are kept
+     * @return the result passed in
+     * @throws CustomerImportException if a row cannot be parsed or saved, or the import was cancelled
+     */
+    public ImportResult importCsv(InputStream in, ImportResult result, BooleanSupplier cancelled) {
+        return importRows(result, writer -> readStream(in, writer, this::validate, rejector(result), cancelled));
+    }
+
+    /**
+     * Imports an upload. One that is on disk already is moved (not copied) to a file of our own and
+     * memory mapped, see {@link #importCsv(Path, ImportResult, BooleanSupplier, LongConsumer)}. Either way an ATOMIC
+     * or CHUNKED import is checked for duplicate externalCustomerIds first
+     * @param file UTF-8 csv, possibly gzip compressed, with a header row naming the {@link Customer} columns
+     * @param mode whether the file is committed as a whole or chunk by chunk
+     * @return counts of the rows parsed and saved
+     * @throws CustomerImportException if a row cannot be parsed, is invalid or cannot be saved
+     */
+    public ImportResult importCsv(MultipartFile file, ImportMode mode) throws IOException {
+        ImportResult result = new ImportResult(mode);
+        if (file.getSize() <= multipartProperties.getFileSizeThreshold().toBytes()) {
+            // held in memory by the container, which hands out a new stream over it each time
+            if (isDuplicateChecked(result)) {
+                try {
+                    checkDuplicates(writer -> readUpload(file, writer), expectedRows(file.getSize(), isGzip(file)));
+                } catch (RuntimeException ex) {
+                    throw new CustomerImportException(result, ex);
+                }
+            }
+            try (InputStream in = file.getInputStream()) {
+                return importCsv(in, result, () -> false);
+            }
+        }
+        Path spoolFile = Files.createTempFile("customer-import-", ".csv");
+        try {
+            file.transferTo(spoolFile.toFile());
+            return importCsv(spoolFile, result, () -> false, bytes -> { });
+        } finally {
+            Files.deleteIfExists(spoolFile);
+        }
+    }
+
+    /**
+     * Imports a csv file on disk. A file in the import format is memory mapped and its blocks are parsed straight
+     * from the mapping, other files (gzip compressed ones, files over 2GB) are streamed. An ATOMIC or CHUNKED import is checked for
+     * duplicate externalCustomerIds first and fails with a {@link DuplicateExternalIdException} without writing
+     * anything if there are any
+     * @param file UTF-8 csv, possibly gzip compressed, with a header row naming the {@link Customer} columns
+     * @param result counters updated while the import runs, its mode decides how rows are committed
+     * @param cancelled see {@link #importCsv(InputStream, ImportResult, BooleanSupplier)}
+     * @param progress told how many bytes of the file have been read
+     * @return the result passed in
+     * @throws CustomerImportException if a row cannot be parsed or saved, or the import was cancelled
+     */
+    public ImportResult importCsv(Path file, ImportResult result, BooleanSupplier cancelled, LongConsumer progress) {
+        if (isDuplicateChecked(result)) {
+            try {
+                checkDuplicates(writer -> readFile(file, writer, (customer, row) -> { }, (row, externalCustomerId, cause) -> { },
+                        cancelled, bytes -> { }), expectedRows(Files.size(file), isGzip(file)));
+            } catch (IOException ex) {
+                throw new CustomerImportException(result, new UncheckedIOException(ex));
+            } catch (RuntimeException ex) {
+                throw new CustomerImportException(result, ex);
+            }
+        }
+        return importRows(result, writer -> readFile(file, writer, this::validate, rejector(result), cancelled, progress));
+    }
+
+    private ImportResult importRows(ImportResult result, Consumer<Consumer<ParsedRows>> reader) {
+        try {
+            if (result.getMode() == ImportMode.ATOMIC) {
+                transactionTemplate.executeWithoutResult(status -> importChunks(reader, result, false));
+            } else {
+                importChunks(reader, result, true);
+            }
+        } catch (RuntimeException ex) {
+            throw new CustomerImportException(result, ex);
+        }
+        log.debug("Imported {} customers in {} chunks", result.getSaved(), result.getChunks());
+        return result;
+    }
+
+    /**
+     * @param reader runs the pipeline, handing the parsed customers to the writer it is given
+     */
+    private void importChunks(Consumer<Consumer<ParsedRows>> reader, ImportResult result, boolean commitEachChunk) {
+        int chunkSize = applicationProperties.getImport().getChunkSize();
+        ParsedRows chunk = new ParsedRows(chunkSize);
+
+        reader.accept(parsed -> {
+            result.rowsParsed(parsed.size());
+            chunk.addAll(parsed);
+            if (chunk.size() >= chunkSize) {
+                saveChunk(chunk, result, commitEachChunk);
+                chunk.clear();
+            }
+        });
+
+        if (!chunk.isEmpty()) {
+            saveChunk(chunk, result, commitEachChunk);
+        }
+    }
+
+    private void readStream(InputStream in, Consumer<ParsedRows> writer, ObjLongConsumer<Customer> check,
+                            RowRejector rejector, BooleanSupplier cancelled) {
+        ApplicationProperties.Import importProperties = applicationProperties.getImport();
+        InputStream buffered = new BufferedInputStream(in);
+        if (isGzip(buffered)) {
+            // inflated as the pipeline reads it, the inflated file is never held anywhere
+            log.debug("Importing a gzip compressed file");
+            try {
+                buffered = new BufferedInputStream(new GZIPInputStream(buffered, GZIP_BUFFER_BYTES));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        byte[] header = readHeader(buffered);
+        CustomerCsvParser fastParser = CustomerCsvParser.forHeader(parseHeader(header));
+
+        if (fastParser != null) {
+            log.debug("Importing with the customer csv parser");
+            this.<ByteBlock>pipeline().run(
+                    new ByteBlockSource(buffered, importProperties.getBlockBytes()),
+                    block -> fastParser.parse(block, check, rejector),
+                    writer,
+                    cancelled);
+        } else {
+            // unknown columns, let opencsv deal with them (it reads the header again itself)
+            log.debug("Importing with opencsv");
+            CSVReader csvReader = new CSVReader(new InputStreamReader(
+                    new SequenceInputStream(new ByteArrayInputStream(header), buffered), StandardCharsets.UTF_8));
+            HeaderColumnNameMappingStrategy<Customer> mappingStrategy = mappingStrategy(csvReader);
+            this.<RowBlock>pipeline().run(
+                    rowBlocks(csvReader, importProperties.getBlockSize()),
+                    block -> bind(block, mappingStrategy, check, rejector),
+                    writer,
+                    cancelled);
+        }
+    }
+
+    private void readFile(Path file, Consumer<ParsedRows> writer, ObjLongConsumer<Customer> check,
+                          RowRejector rejector, BooleanSupplier cancelled, LongConsumer progress) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            CustomerCsvParser fastParser = null;
+            MappedByteBuffer mapped = null;
+            int headerEnd = 0;
+            if (size <= Integer.MAX_VALUE && !isGzip(file)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                headerEnd = headerEnd(mapped);
+                byte[] header = new byte[headerEnd];
+                mapped.duplicate().get(header);
+                fastParser = CustomerCsvParser.forHeader(parseHeader(stripByteOrderMark(header)));
+            }
+
+            if (fastParser != null) {
+                log.debug("Importing memory mapped {} with the customer csv parser", file);
+                CustomerCsvParser parser = fastParser;
+                this.<ByteBlock>pipeline().run(
+                        new MappedBlockSource(mapped, headerEnd, applicationProperties.getImport().getBlockBytes(), progress),
+                        block -> parser.parse(block, check, rejector),
+                        writer,
+                        cancelled);
+            } else {
+                try (InputStream in = new ProgressInputStream(Files.newInputStream(file), progress)) {
+                    readStream(in, writer, check, rejector, cancelled);
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void saveChunk(ParsedRows chunk, ImportResult result, boolean commit) {
+        if (commit) {
+            transactionTemplate.executeWithoutResult(status -> writeChunk(chunk, result));
+        } else {
+            writeChunk(chunk, result);
+        }
+    }
+
+    private void writeChunk(ParsedRows chunk, ImportResult result) {
+        if (result.getMode() != ImportMode.UPSERT) {
+            customerService.insertAll(chunk.customers);
+            result.chunkSaved(chunk.size());
+            return;
+        }
+
+        int maxReported = applicationProperties.getImport().getMaxReportedRejections();
+        int[] outcomes = customerService.mergeAll(chunk.customers, (ex, i) -> result.reject(
+                ImportRejection.of(chunk.row(i), chunk.customers.get(i).getExternalCustomerId(), ex.getMostSpecificCause()),
+                maxReported));
+        int saved = 0;
+        int unchanged = 0;
+        for (int outcome : outcomes) {
+            if (outcome > 0) {
+                saved++;
+            } else if (outcome == 0) {
+                unchanged++;
+            }
+        }
+        result.rowsUnchanged(unchanged);
+        result.chunkSaved(saved);
+    }
+
+    private boolean isDuplicateChecked(ImportResult result) {
+        return result.getMode() != ImportMode.UPSERT && applicationProperties.getImport().isDuplicateCheck();
+    }
+
+    private static long expectedRows(long bytes, boolean gzip) {
+        return bytes / ESTIMATED_ROW_BYTES * (gzip ? ESTIMATED_GZIP_RATIO : 1);
+    }
+
+    /**
+     * one pass of the duplicate check over an upload held in memory
+     */
+    private void readUpload(MultipartFile file, Consumer<ParsedRows> writer) {
+        try (InputStream in = file.getInputStream()) {
+            readStream(in, writer, (customer, row) -> { }, (row, externalCustomerId, cause) -> { }, () -> false);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Reads the file ahead of the import to find the rows whose externalCustomerId is taken, by an earlier row of
+     * the file or by a customer in the db, so a file that would fail on them fails before any row is written.
+     *
+     * <p>
+     * Two passes over the file, whatever is in it. The first puts the ids into a {@link BloomFilter} and keeps those
+     * it reports as probably seen before. Ids the {@link ExternalCustomerIdFilter} of the db reports as probably taken
+     * are looked up in the db a chunk at a time as the pass goes, and the rows of those that are taken are reported
+     * straight away, so only the repeats within the file stay in memory - a small share of its ids, even for a file
+     * of ids the db has already. If there are any, the second pass finds the first row of each and reports the
+     * rows after it. Rows that cannot be parsed are left for the import itself to report.
+     *
+     * @param pass reads the file from the start, handing its rows to the writer it is given, in file order
+     * @param expectedRows sizes the filter, an overestimate only costs memory
+     * @throws DuplicateExternalIdException listing the first {@code application.import.max-reported-rejections} rows
+     * that clash
+     */
+    private void checkDuplicates(Consumer<Consumer<ParsedRows>> pass, long expectedRows) {
+        ApplicationProperties.Import importProperties = applicationProperties.getImport();
+        externalCustomerIdFilter.ensureCapacity();
+        int lookupSize = importProperties.getChunkSize();
+        int maxReported = importProperties.getMaxReportedRejections();
+
+        // each pass reports in file order, so the first of each are the first of the file
+        List<ImportRejection> taken = new ArrayList<>();
+        List<ImportRejection> repeats = new ArrayList<>();
+        long[] found = {0};
+
+        BloomFilter seen = BloomFilter.create(expectedRows, importProperties.getDuplicateFilterFalsePositiveRate());
+        Set<String> repeated = new HashSet<>();
+        List<String> dbSuspects = new ArrayList<>(lookupSize);
+        List<Long> dbSuspectRows = new ArrayList<>(lookupSize);
+        Runnable lookUpDbSuspects = () -> {
+            Set<String> existing = customerService.findExistingExternalCustomerIds(dbSuspects);
+            for (int i = 0; i < dbSuspects.size(); i++) {
+                if (existing.contains(dbSuspects.get(i))) {
+                    found[0]++;
+                    if (taken.size() < maxReported) {
+                        taken.add(new ImportRejection(dbSuspectRows.get(i), dbSuspects.get(i), "exists already"));
+                    }
+                }
+            }
+            dbSuspects.clear();
+            dbSuspectRows.clear();
+        };
+        pass.accept(parsed -> {
+            for (int i = 0; i < parsed.size(); i++) {
+                String externalCustomerId = parsed.customers.get(i).getExternalCustomerId();
+                if (externalCustomerId == null) {
+                    continue;
+                }
+                if (!seen.put(externalCustomerId)) {
+                    repeated.add(externalCustomerId);
+                }
+                if (externalCustomerIdFilter.mightContain(externalCustomerId)) {
+                    dbSuspects.add(externalCustomerId);
+                    dbSuspectRows.add(parsed.row(i));
+                    if (dbSuspects.size() >= lookupSize) {
+                        lookUpDbSuspects.run();
+                    }
+                }
+            }
+        });
+        if (!dbSuspects.isEmpty()) {
+            lookUpDbSuspects.run();
+        }
+
+        // every row of a taken id is reported already
+        repeated.removeAll(customerService.findExistingExternalCustomerIds(repeated));
+        log.debug("Duplicate check: {} rows are taken in the db, {} ids to recount", found[0], repeated.size());
+        if (!repeated.isEmpty()) {
+            Map<String, Long> firstRows = new HashMap<>();
+            pass.accept(parsed -> {
+                for (int i = 0; i < parsed.size(); i++) {
+                    String externalCustomerId = parsed.customers.get(i).getExternalCustomerId();
+                    if (externalCustomerId == null || !repeated.contains(externalCustomerId)) {
+                        continue;
+                    }
+                    Long firstRow = firstRows.putIfAbsent(externalCustomerId, parsed.row(i));
+                    if (firstRow != null) {
+                        found[0]++;
+                        if (repeats.size() < maxReported) {
+                            repeats.add(new ImportRejection(parsed.row(i), externalCustomerId, "duplicates row " + firstRow));
+                        }
+                    }
+                }
+            });
+        }
+
+        if (found[0] > 0) {
+            List<ImportRejection> duplicates = new ArrayList<>(taken);
+            duplicates.addAll(repeats);
+            duplicates.sort(Comparator.comparingLong(ImportRejection::getRow));
+            throw new DuplicateExternalIdException(
+                    new ArrayList<>(duplicates.subList(0, Math.min(maxReported, duplicates.size()))), found[0]);
+        }
+    }
+
+    /**
+     * @return null unless the import is an {@link ImportMode#UPSERT}, which rejects bad rows rather than fail on them
+     */
+    private RowRejector rejector(ImportResult result) {
+        if (result.getMode() != ImportMode.UPSERT) {
+            return null;
+        }
+        int maxReported = applicationProperties.getImport().getMaxReportedRejections();
+        return (row, externalCustomerId, cause) -> {
+            log.debug("Rejected row {}: {}", row, cause.getMessage());
+            result.reject(ImportRejection.of(row, externalCustomerId, cause), maxReported);
+        };
+    }
+
+    private <B> ImportPipeline<B> pipeline() {
+        ApplicationProperties.Import importProperties = applicationProperties.getImport();
+        return new ImportPipeline<>(importProperties.parserThreads(), importProperties.getBlockQueueCapacity(),
+                importPipelineTaskExecutor, importPipelineThreads);
+    }
+
+    /**
+     * reader stage - tokenizes the csv and cuts it into blocks of rows. Binding is left to the parser stage
+     */
+    private static ImportPipeline.BlockSource<RowBlock> rowBlocks(CSVReader csvReader, int blockSize) {
+        long[] rowsRead = {0};
+        return () -> {
+            List<String[]> rows = new ArrayList<>(blockSize);
+            long firstRow = rowsRead[0] + 1;
+            String[] row;
+            try {
+                while (rows.size() < blockSize && (row = csvReader.readNext()) != null) {
+                    rows.add(row);
+                    rowsRead[0]++;
+                }
+            } catch (CsvValidationException ex) {
+                throw new InvalidCsvRowException(rowsRead[0] + 1, ex.getMessage(), ex);
+            }
+            return rows.isEmpty() ? null : new RowBlock(firstRow, rows);
+        };
+    }
+
+    /**
+     * parser stage of the opencsv path - binds each row to a customer and validates it
+     * @param rejector see {@link CustomerCsvParser#parse}
+     */
+    private ParsedRows bind(RowBlock block, HeaderColumnNameMappingStrategy<Customer> mappingStrategy,
+                            ObjLongConsumer<Customer> check, RowRejector rejector) {
+        ParsedRows parsed = new ParsedRows(block.rows.size());
+        long row = block.firstRow;
+        for (String[] line : block.rows) {
+            Customer customer = null;
+            try {
+                customer = populate(mappingStrategy, line, row);
+                check.accept(customer, row);
+                parsed.add(customer, row);
+            } catch (InvalidCsvRowException | ConstraintViolationException ex) {
+                if (rejector == null) {
+                    throw ex;
+                }
+                rejector.reject(row, customer != null ? customer.getExternalCustomerId() : null, ex);
+            }
+            row++;
+        }
+        return parsed;
+    }
+
+    private static Customer populate(HeaderColumnNameMappingStrategy<Customer> mappingStrategy, String[] line, long row) {
+        try {
+            return mappingStrategy.populateNewBean(line);
+        } catch (CsvException ex) {
+            throw new InvalidCsvRowException(row, ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * The bulk insert bypasses JPA, and with it the bean validation JPA would have done on persist
+     */
+    private void validate(Customer customer, long row) {
+        Set<ConstraintViolation<Customer>> violations = validator.validate(customer);
+        if (!violations.isEmpty()) {
+            throw new ConstraintViolationException("Invalid customer in row " + row, violations);
+        }
+    }
+
+    /**
+     * @return the bytes of the header row including its line break, without any UTF-8 byte order mark
+     */
+    private static byte[] readHeader(InputStream in) {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(128);
+        try {
+            int b;
+            while ((b = in.read()) != -1) {
+                header.write(b);
+                if (b == '\n') {
+                    break;
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return stripByteOrderMark(header.toByteArray());
+    }
+
+    /**
+     * Looks for the gzip magic bytes, which no csv starts with, without consuming them
+     */
+    private static boolean isGzip(InputStream in) {
+        try {
+            in.mark(2);
+            boolean gzip = in.read() == GZIP_MAGIC_1 && in.read() == GZIP_MAGIC_2;
+            in.reset();
+            return gzip;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static boolean isGzip(MultipartFile file) throws IOException {
+        try (InputStream in = new BufferedInputStream(file.getInputStream(), 2)) {
+            return isGzip(in);
+        }
+    }
+
+    private static boolean isGzip(Path file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 2)) {
+            return isGzip(in);
+        }
+    }
+
+    /**
+     * @return index just after the line break of the header row
+     */
+    private static int headerEnd(ByteBuffer mapped) {
+        for (int i = 0; i < mapped.limit(); i++) {
+            if (mapped.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return mapped.limit();
+    }
+
+    private static byte[] stripByteOrderMark(byte[] bytes) {
+        if (bytes.length >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB && bytes[2] == (byte) 0xBF) {
+            return Arrays.copyOfRange(bytes, 3, bytes.length);
+        }
+        return bytes;
+    }
+
+    private static String[] parseHeader(byte[] header) {
+        try {
+            return new CSVParser().parseLine(new String(header, StandardCharsets.UTF_8).trim());
+        } catch (IOException ex) {
+            throw new InvalidCsvRowException(0, ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * The mapping strategy reads the header here. After that it is safe for concurrent use, opencsv's own
+     * CsvToBean shares one between its binding threads the same way
+     */
+    private static HeaderColumnNameMappingStrategy<Customer> mappingStrategy(CSVReader csvReader) {
+        HeaderColumnNameMappingStrategy<Customer> hcnms = new HeaderColumnNameMappingStrategy<>();
+        hcnms.setType(Customer.class);
+        try {
+            hcnms.captureHeader(csvReader);
+        } catch (IOException | CsvException ex) {
+            throw new InvalidCsvRowException(0, ex.getMessage(), ex);
+        }
+        return hcnms;
+    }
+
+    /**
+     * consecutive rows of the csv, numbered from 1 after the header
+     */
+    private static class RowBlock {
+
+        private final long firstRow;
+
+        private final List<String[]> rows;
+
+        RowBlock(long firstRow, List<String[]> rows) {
+            this.firstRow = firstRow;
+            this.rows = rows;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.emmett.customermanagement.service.importer;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * An import file whose externalCustomerIds clash with each other or with customers in the db,
+ * found before anything was written
+ */
+public class DuplicateExternalIdException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * duplicates named in the message
+     */
+    private static final int LISTED = 5;
+
+    private final transient List<ImportRejection> duplicates;
+
+    private final long found;
+
+    /**
+     * @param duplicates the offending rows
+     */
+    public DuplicateExternalIdException(List<ImportRejection> duplicates) {
+        this(duplicates, duplicates.size());
+    }
+
+    /**
+     * @param duplicates the first of the offending rows
+     * @param found the offending rows found, more than those listed if the list was capped
+     */
+    public DuplicateExternalIdException(List<ImportRejection> duplicates, long found) {
+        super(found + " rows have an externalCustomerId that is taken: " + duplicates.stream()
+                .limit(LISTED)
+                .map(d -> "row " + d.getRow() + " (" + d.getExternalCustomerId() + ") " + d.getReason())
+                .collect(Collectors.joining(", "))
+                + (found > LISTED ? ", ..." : ""));
+        this.duplicates = duplicates;
+        this.found = found;
+    }
+
+    public List<ImportRejection> getDuplicates() {
+        return duplicates;
+    }
+
+    public long getFound() {
+        return found;
+    }
+}
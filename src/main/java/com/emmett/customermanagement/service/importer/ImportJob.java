@@ -0,0 +1,230 @@
+package com.emmett.customermanagement.service.importer;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Future;
+
+/**
+ * A csv import running in the background. Created when the upload is accepted, then updated by the
+ * import thread while clients poll it through {@code GET /api/import-jobs/{id}}
+ */
+public class ImportJob {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED,
+        CANCELLED
+    }
+
+    private final String id;
+
+    private final String fileName;
+
+    private final long totalBytes;
+
+    private final ImportResult result;
+
+    private final Instant submittedAt = Instant.now();
+
+    private final Path spoolFile;
+
+    private volatile Status status = Status.QUEUED;
+
+    private volatile Instant startedAt;
+
+    private volatile Instant finishedAt;
+
+    private volatile long bytesRead;
+
+    private volatile boolean cancelRequested;
+
+    private volatile String error;
+
+    private volatile Future<?> future;
+
+    public ImportJob(String id, String fileName, long totalBytes, ImportMode mode, Path spoolFile) {
+        this.id = id;
+        this.fileName = fileName;
+        this.totalBytes = totalBytes;
+        this.result = new ImportResult(mode);
+        this.spoolFile = spoolFile;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public ImportMode getMode() {
+        return result.getMode();
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Instant getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getParsed() {
+        return result.getParsed();
+    }
+
+    public long getSaved() {
+        return status == Status.COMPLETED || getMode() != ImportMode.ATOMIC ? result.getSaved() : 0;
+    }
+
+    public long getUnchanged() {
+        return result.getUnchanged();
+    }
+
+    /**
+     * rows left out of an UPSERT import, see /api/import-jobs/{id}/rejections for which and why
+     */
+    public long getRejected() {
+        return result.getRejected();
+    }
+
+    /**
+     * rows that were parsed but are not in the db because the import failed or was cancelled
+     */
+    public long getFailed() {
+        return status == Status.FAILED || status == Status.CANCELLED ? result.getParsed() - getSaved() - getUnchanged() : 0;
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public double getRowsPerSecond() {
+        double seconds = elapsed().toMillis() / 1000d;
+        return seconds > 0 ? result.getParsed() / seconds : 0;
+    }
+
+    /**
+     * estimated from the share of the file read so far, null until there is something to estimate from
+     */
+    public Long getEtaSeconds() {
+        if (status != Status.RUNNING || bytesRead == 0) {
+            return null;
+        }
+        long elapsedMillis = elapsed().toMillis();
+        return (long) (elapsedMillis * ((double) (totalBytes - bytesRead) / bytesRead)) / 1000;
+    }
+
+    @JsonIgnore
+    public ImportResult getResult() {
+        return result;
+    }
+
+    @JsonIgnore
+    Path getSpoolFile() {
+        return spoolFile;
+    }
+
+    @JsonIgnore
+    Future<?> getFuture() {
+        return future;
+    }
+
+    @JsonIgnore
+    public boolean isFinished() {
+        return finishedAt != null;
+    }
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    void setBytesRead(long bytesRead) {
+        this.bytesRead = bytesRead;
+    }
+
+    void requestCancel() {
+        this.cancelRequested = true;
+    }
+
+    /**
+     * @return false if the job was cancelled before it got to run
+     */
+    synchronized boolean started() {
+        if (status != Status.QUEUED) {
+            return false;
+        }
+        this.startedAt = Instant.now();
+        this.status = Status.RUNNING;
+        return true;
+    }
+
+    /**
+     * Cancels the job unless it started running, a running job is finished by the thread running it
+     * @return true if it was cancelled
+     */
+    synchronized boolean cancelIfQueued() {
+        if (status != Status.QUEUED) {
+            return false;
+        }
+        cancelled();
+        return true;
+    }
+
+    void completed() {
+        finish(Status.COMPLETED, null);
+    }
+
+    void failed(String error) {
+        finish(Status.FAILED, error);
+    }
+
+    void cancelled() {
+        finish(Status.CANCELLED, null);
+    }
+
+    /**
+     * only the first finish counts
+     */
+    private synchronized void finish(Status status, String error) {
+        if (finishedAt != null) {
+            return;
+        }
+        this.error = error;
+        this.finishedAt = Instant.now();
+        this.status = status;
+    }
+
+    private Duration elapsed() {
+        if (startedAt == null) {
+            return Duration.ZERO;
+        }
+        return Duration.between(startedAt, finishedAt != null ? finishedAt : Instant.now());
+    }
+}
@@ -0,0 +1,143 @@
+package com.emmett.customermanagement.service.importer;
+
+import com.emmett.customermanagement.config.ApplicationProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs csv imports in the background on the bounded {@code importTaskExecutor} and keeps track of them
+ * so clients can poll their progress or cancel them
+ */
+@Service
+public class ImportJobService {
+
+    private final Logger log = LoggerFactory.getLogger(ImportJobService.class);
+
+    private final CustomerImportService customerImportService;
+
+    private final ThreadPoolTaskExecutor importTaskExecutor;
+
+    private final ApplicationProperties applicationProperties;
+
+    private final Map<String, ImportJob> jobs = new ConcurrentHashMap<>();
+
+    public ImportJobService(CustomerImportService customerImportService,
+                            @Qualifier("importTaskExecutor") ThreadPoolTaskExecutor importTaskExecutor,
+                            ApplicationProperties applicationProperties)
+    {
+        this.customerImportService = customerImportService;
+        this.importTaskExecutor = importTaskExecutor;
+        this.applicationProperties = applicationProperties;
+    }
+
+    /**
+     * Spools the upload to a file of our own (the multipart temp file is gone once the request completes)
+     * and queues the import. An upload the container has on disk already is moved rather than copied
+     * @throws TaskRejectedException if too many imports are queued already
+     */
+    public ImportJob submit(MultipartFile file, ImportMode mode) throws IOException {
+        purgeExpiredJobs();
+
+        Path spoolFile = Files.createTempFile("customer-import-", ".csv");
+        file.transferTo(spoolFile.toFile());
+
+        ImportJob job = new ImportJob(UUID.randomUUID().toString(), file.getOriginalFilename(), Files.size(spoolFile), mode, spoolFile);
+        jobs.put(job.getId(), job);
+        try {
+            job.setFuture(importTaskExecutor.submit(() -> run(job)));
+        } catch (TaskRejectedException ex) {
+            jobs.remove(job.getId());
+            deleteSpoolFile(job);
+            throw ex;
+        }
+        log.debug("Queued import job {} for {}", job.getId(), job.getFileName());
+        return job;
+    }
+
+    public Optional<ImportJob> findOne(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    public Collection<ImportJob> findAll() {
+        purgeExpiredJobs();
+        return jobs.values();
+    }
+
+    /**
+     * A queued job is cancelled straight away. A running one stops at the next block of rows and is finished,
+     * and its spool file deleted, by the thread running it; for a CHUNKED import the chunks committed before
+     * that stay in the db
+     */
+    public Optional<ImportJob> cancel(String id) {
+        return findOne(id).map(job -> {
+            if (!job.isFinished()) {
+                log.debug("Cancelling import job {}", id);
+                job.requestCancel();
+                if (job.cancelIfQueued()) {
+                    // a future cancels even a running task, only a queued one is ours to clean up after
+                    if (job.getFuture() != null) {
+                        job.getFuture().cancel(false);
+                    }
+                    deleteSpoolFile(job);
+                }
+            }
+            return job;
+        });
+    }
+
+    private void run(ImportJob job) {
+        if (!job.started()) {
+            // cancelled while it was queued, the spool file is gone already
+            return;
+        }
+        try {
+            customerImportService.importCsv(job.getSpoolFile(), job.getResult(), job::isCancelRequested, job::setBytesRead);
+            job.completed();
+        } catch (Exception ex) {
+            if (job.isCancelRequested()) {
+                job.cancelled();
+            } else {
+                log.warn("Import job {} failed", job.getId(), ex);
+                job.failed(rootCauseMessage(ex));
+            }
+        } finally {
+            deleteSpoolFile(job);
+        }
+    }
+
+    private void purgeExpiredJobs() {
+        Instant expiry = Instant.now().minus(applicationProperties.getImport().getJobRetention());
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt().isBefore(expiry));
+    }
+
+    private void deleteSpoolFile(ImportJob job) {
+        try {
+            Files.deleteIfExists(job.getSpoolFile());
+        } catch (IOException e) {
+            log.warn("Could not delete import spool file {}", job.getSpoolFile());
+        }
+    }
+
+    private static String rootCauseMessage(Throwable ex) {
+        Throwable root = ex;
+        while (root.getCause() != null) {
+            root = root.getCause();
+        }
+        return root.getMessage();
+    }
+}
@@ -0,0 +1,22 @@
+package com.emmett.customermanagement.service.importer;
+
+/**
+ * How the rows of a csv import are committed
+ */
+public enum ImportMode {
+    /**
+     * the whole file is committed in one transaction - a single bad row rolls back everything
+     */
+    ATOMIC,
+    /**
+     * every chunk of rows is committed in its own transaction - a bad row only rolls back its chunk,
+     * the chunks before it stay committed
+     */
+    CHUNKED,
+    /**
+     * committed chunk by chunk like CHUNKED, but rows are merged on their externalCustomerId - new customers are
+     * inserted, changed ones updated and unchanged ones left alone - so a file can be sent again safely.
+     * A bad row does not fail the import, it is rejected and reported in the {@link ImportResult}
+     */
+    UPSERT
+}
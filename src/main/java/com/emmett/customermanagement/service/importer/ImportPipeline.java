@@ -0,0 +1,259 @@
+package com.emmett.customermanagement.service.importer;
+
+import org.springframework.core.task.AsyncTaskExecutor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Three stage import pipeline:
+ * <ol>
+ *     <li>one reader thread cutting the file into blocks of rows</li>
+ *     <li>a pool of parser threads binding and validating the rows of a block</li>
+ *     <li>the calling thread, writing the parsed customers - it owns the transaction so it has to be the caller</li>
+ * </ol>
+ * Stages hand blocks over through bounded queues, so a slow db holds the parsers back and slow parsers hold the
+ * reader back; at most a few queue lengths of blocks are in memory whatever the size of the file.
+ * Blocks reach the writer in file order: those parsed ahead of an earlier block wait for it, and the reader holds
+ * back once that many blocks are in the pipeline.
+ *
+ * <p>
+ * The reader and parsers run on the {@code importPipelineTaskExecutor}. A run takes its threads from the shared
+ * permits before it starts any, and waits until there are enough, so that runs never hold part of the threads each
+ * and wait on each other for the rest.
+ *
+ * @param <B> the block handed from reader to parsers
+ */
+class ImportPipeline<B> {
+
+    /**
+     * produces the next block of the file, null once the file is exhausted
+     */
+    interface BlockSource<B> {
+        B next() throws Exception;
+    }
+
+    /**
+     * turns a block into validated customers, called concurrently from the parser threads
+     */
+    interface BlockParser<B> {
+        ParsedRows parse(B block) throws Exception;
+    }
+
+    private static final Object END = new Object();
+
+    private static final long POLL_MILLIS = 100;
+
+    private final int parserThreads;
+
+    private final int queueCapacity;
+
+    private final AsyncTaskExecutor executor;
+
+    private final Semaphore threads;
+
+    /**
+     * @param executor runs the reader and the parsers
+     * @param threads one permit per thread of the executor, shared by every run
+     */
+    ImportPipeline(int parserThreads, int queueCapacity, AsyncTaskExecutor executor, Semaphore threads) {
+        this.parserThreads = parserThreads;
+        this.queueCapacity = queueCapacity;
+        this.executor = executor;
+        this.threads = threads;
+    }
+
+    /**
+     * Runs the import to the end of the file
+     * @param writer receives the customers of each parsed block on the calling thread, in file order
+     * @param cancelled checked between blocks, the pipeline stops with a {@link CancellationException} once it returns true
+     */
+    void run(BlockSource<B> source, BlockParser<B> parser, Consumer<ParsedRows> writer, BooleanSupplier cancelled) {
+        BlockingQueue<Object> blocks = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Object> parsed = new ArrayBlockingQueue<>(queueCapacity);
+        // blocks read but not written yet: in either queue, being parsed or waiting for an earlier block
+        Semaphore inFlight = new Semaphore(2 * queueCapacity + parserThreads);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        List<Task> tasks = new ArrayList<>();
+        try {
+            threads.acquire(parserThreads + 1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Import interrupted");
+        }
+        try {
+            tasks.add(start(() -> read(source, blocks, inFlight, failure)));
+            for (int i = 0; i < parserThreads; i++) {
+                tasks.add(start(() -> parse(parser, blocks, parsed, failure)));
+            }
+
+            Map<Long, ParsedRows> ahead = new HashMap<>();
+            long next = 0;
+            int parsersFinished = 0;
+            while (parsersFinished < parserThreads) {
+                rethrow(failure.get());
+                if (cancelled.getAsBoolean()) {
+                    throw new CancellationException("Import cancelled");
+                }
+                Object polled = parsed.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (polled == END) {
+                    parsersFinished++;
+                } else if (polled != null) {
+                    Sequenced<ParsedRows> rows = uncheckedCast(polled);
+                    ahead.put(rows.index, rows.value);
+                    ParsedRows inOrder;
+                    while ((inOrder = ahead.remove(next)) != null) {
+                        writer.accept(inOrder);
+                        next++;
+                        inFlight.release();
+                    }
+                }
+            }
+            rethrow(failure.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Import interrupted");
+        } finally {
+            // unblocks any stage still waiting on a queue after a failure or cancel
+            tasks.forEach(Task::stop);
+            // and the permits of those that never made it to the executor
+            threads.release(parserThreads + 1 - tasks.size());
+        }
+    }
+
+    private Task start(Runnable stage) {
+        Task task = new Task(stage);
+        task.future = executor.submit(task);
+        return task;
+    }
+
+    private void read(BlockSource<B> source, BlockingQueue<Object> blocks, Semaphore inFlight,
+                      AtomicReference<Throwable> failure) {
+        try {
+            B block;
+            long index = 0;
+            while (failure.get() == null && (block = source.next()) != null) {
+                inFlight.acquire();
+                blocks.put(new Sequenced<>(index++, block));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        } finally {
+            try {
+                for (int i = 0; i < parserThreads; i++) {
+                    blocks.put(END);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void parse(BlockParser<B> parser, BlockingQueue<Object> blocks, BlockingQueue<Object> parsed, AtomicReference<Throwable> failure) {
+        try {
+            Object block;
+            while ((block = blocks.take()) != END) {
+                if (failure.get() == null) {
+                    Sequenced<B> sequenced = uncheckedCast(block);
+                    parsed.put(new Sequenced<>(sequenced.index, parser.parse(sequenced.value)));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        } finally {
+            try {
+                parsed.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void rethrow(Throwable failure) {
+        if (failure == null) {
+            return;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw new IllegalStateException(failure.getMessage(), failure);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T uncheckedCast(Object o) {
+        return (T) o;
+    }
+
+    /**
+     * a block and its place in the file
+     */
+    private static final class Sequenced<T> {
+
+        private final long index;
+
+        private final T value;
+
+        private Sequenced(long index, T value) {
+            this.index = index;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A stage on a thread of the executor, which gives its thread permit back when it ends, or when it is stopped
+     * before it started
+     */
+    private final class Task implements Runnable {
+
+        private final Runnable stage;
+
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private Future<?> future;
+
+        private Task(Runnable stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                stage.run();
+            } finally {
+                threads.release();
+            }
+        }
+
+        private void stop() {
+            if (claimed.compareAndSet(false, true)) {
+                threads.release();
+            }
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+}
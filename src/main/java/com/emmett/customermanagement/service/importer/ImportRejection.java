@@ -0,0 +1,51 @@
+package com.emmett.customermanagement.service.importer;
+
+import javax.validation.ConstraintViolationException;
+import java.util.stream.Collectors;
+
+/**
+ * A row left out of an {@link ImportMode#UPSERT} import, and why
+ */
+public class ImportRejection {
+
+    private final long row;
+
+    private final String externalCustomerId;
+
+    private final String reason;
+
+    public ImportRejection(long row, String externalCustomerId, String reason) {
+        this.row = row;
+        this.externalCustomerId = externalCustomerId;
+        this.reason = reason;
+    }
+
+    /**
+     * @param cause what went wrong with the row, bean validation failures are listed property by property
+     */
+    static ImportRejection of(long row, String externalCustomerId, Throwable cause) {
+        String reason = cause.getMessage();
+        if (cause instanceof ConstraintViolationException) {
+            reason = ((ConstraintViolationException) cause).getConstraintViolations().stream()
+                    .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                    .sorted()
+                    .collect(Collectors.joining(", "));
+        }
+        return new ImportRejection(row, externalCustomerId, reason);
+    }
+
+    /**
+     * number of the row in the file, counted from 1 after the header
+     */
+    public long getRow() {
+        return row;
+    }
+
+    public String getExternalCustomerId() {
+        return externalCustomerId;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+}
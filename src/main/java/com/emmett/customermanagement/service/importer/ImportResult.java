@@ -0,0 +1,88 @@
+package com.emmett.customermanagement.service.importer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a csv import. Counters are written by the importing thread only and may be read
+ * by others while the import is still running; rejections also come from the parser threads
+ */
+public class ImportResult {
+
+    private final ImportMode mode;
+
+    private volatile long parsed;
+
+    private volatile long saved;
+
+    private volatile int chunks;
+
+    private volatile long unchanged;
+
+    private volatile long rejected;
+
+    private final List<ImportRejection> rejections = new ArrayList<>();
+
+    public ImportResult(ImportMode mode) {
+        this.mode = mode;
+    }
+
+    public ImportMode getMode() {
+        return mode;
+    }
+
+    public long getParsed() {
+        return parsed;
+    }
+
+    public long getSaved() {
+        return saved;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    /**
+     * rows of an {@link ImportMode#UPSERT} that matched a customer with the same data, so were not written
+     */
+    public long getUnchanged() {
+        return unchanged;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * the rejected rows, up to {@code application.import.max-reported-rejections} of them
+     */
+    public List<ImportRejection> getRejections() {
+        synchronized (rejections) {
+            return Collections.unmodifiableList(new ArrayList<>(rejections));
+        }
+    }
+
+    void rowsParsed(int rows) {
+        parsed += rows;
+    }
+
+    void chunkSaved(int rows) {
+        saved += rows;
+        chunks++;
+    }
+
+    void rowsUnchanged(int rows) {
+        unchanged += rows;
+    }
+
+    void reject(ImportRejection rejection, int maxReported) {
+        synchronized (rejections) {
+            rejected++;
+            if (rejections.size() < maxReported) {
+                rejections.add(rejection);
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.emmett.customermanagement.service.importer;
+
+/**
+ * A row of an imported csv that cannot be read or bound to a customer
+ */
+public class InvalidCsvRowException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long row;
+
+    public InvalidCsvRowException(long row, String message, Throwable cause) {
+        super("Invalid csv row " + row + ": " + message, cause);
+        this.row = row;
+    }
+
+    public long getRow() {
+        return row;
+    }
+}
@@ -0,0 +1,65 @@
+package com.emmett.customermanagement.service.importer;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.function.LongConsumer;
+
+/**
+ * Reader stage of the fast import path for files on disk. The file is memory mapped and the blocks are slices of
+ * the mapping, cut at record boundaries - nothing is copied, the parser threads read straight from the page cache.
+ */
+class MappedBlockSource implements ImportPipeline.BlockSource<ByteBlock> {
+
+    private final MappedByteBuffer mapped;
+
+    private final int blockBytes;
+
+    private final LongConsumer progress;
+
+    private int position;
+
+    private long nextRow = 1;
+
+    /**
+     * @param position where the first record starts, i.e. just after the header
+     * @param progress told how far into the file the blocks handed out so far reach
+     */
+    MappedBlockSource(MappedByteBuffer mapped, int position, int blockBytes, LongConsumer progress) {
+        this.mapped = mapped;
+        this.position = position;
+        this.blockBytes = blockBytes;
+        this.progress = progress;
+    }
+
+    @Override
+    public ByteBlock next() {
+        int size = mapped.limit();
+        if (position >= size) {
+            return null;
+        }
+
+        int end = (int) Math.min((long) position + blockBytes, size);
+        RecordScan scan = RecordScan.scan(mapped, position, end);
+        while (scan.boundary == position && end < size) {
+            // a single record longer than a block
+            end = (int) Math.min((long) end + blockBytes, size);
+            scan = RecordScan.scan(mapped, position, end);
+        }
+        int boundary = scan.boundary;
+        int rows = scan.rows;
+        if (end == size && boundary < size) {
+            // last record without a trailing line break
+            boundary = size;
+            rows++;
+        }
+
+        ByteBuffer slice = mapped.duplicate();
+        slice.position(position).limit(boundary);
+        ByteBlock block = new ByteBlock(slice.slice(), nextRow, rows);
+
+        position = boundary;
+        nextRow += rows;
+        progress.accept(position);
+        return block;
+    }
+}
@@ -0,0 +1,56 @@
+package com.emmett.customermanagement.service.importer;
+
+import com.emmett.customermanagement.domain.Customer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Customers bound from the csv, along with the row each of them came from so the writer can still
+ * tell which row a db error belongs to
+ */
+class ParsedRows {
+
+    final List<Customer> customers;
+
+    private long[] rows;
+
+    ParsedRows(int capacity) {
+        this.customers = new ArrayList<>(capacity);
+        this.rows = new long[Math.max(capacity, 1)];
+    }
+
+    void add(Customer customer, long row) {
+        if (customers.size() == rows.length) {
+            rows = Arrays.copyOf(rows, rows.length * 2);
+        }
+        rows[customers.size()] = row;
+        customers.add(customer);
+    }
+
+    void addAll(ParsedRows other) {
+        for (int i = 0; i < other.size(); i++) {
+            add(other.customers.get(i), other.row(i));
+        }
+    }
+
+    /**
+     * @return the row number of the i-th customer
+     */
+    long row(int i) {
+        return rows[i];
+    }
+
+    int size() {
+        return customers.size();
+    }
+
+    boolean isEmpty() {
+        return customers.isEmpty();
+    }
+
+    void clear() {
+        customers.clear();
+    }
+}
@@ -0,0 +1,41 @@
+package com.emmett.customermanagement.service.importer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the last complete csv record in a range of bytes. A line break inside a quoted field does not end
+ * a record, so quotes are tracked on the way; the range has to start at the beginning of a record.
+ */
+class RecordScan {
+
+    /**
+     * index just after the line break of the last complete record, the start of the range if there is none
+     */
+    final int boundary;
+
+    /**
+     * complete records in the range
+     */
+    final int rows;
+
+    private RecordScan(int boundary, int rows) {
+        this.boundary = boundary;
+        this.rows = rows;
+    }
+
+    static RecordScan scan(ByteBuffer buf, int from, int to) {
+        int boundary = from;
+        int rows = 0;
+        boolean quoted = false;
+        for (int i = from; i < to; i++) {
+            byte b = buf.get(i);
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (b == '\n' && !quoted) {
+                boundary = i + 1;
+                rows++;
+            }
+        }
+        return new RecordScan(boundary, rows);
+    }
+}
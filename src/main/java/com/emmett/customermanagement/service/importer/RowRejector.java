@@ -0,0 +1,12 @@
+package com.emmett.customermanagement.service.importer;
+
+/**
+ * Takes the rows an import leaves out instead of failing on them, called concurrently from the parser threads
+ */
+interface RowRejector {
+
+    /**
+     * @param externalCustomerId of the row, if it got that far
+     */
+    void reject(long row, String externalCustomerId, Exception cause);
+}
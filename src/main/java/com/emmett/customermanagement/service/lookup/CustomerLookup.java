@@ -0,0 +1,37 @@
+package com.emmett.customermanagement.service.lookup;
+
+import java.util.List;
+
+/**
+ * Body of POST /api/customers/lookup: the customers to resolve, either by id or by externalCustomerId
+ */
+public class CustomerLookup {
+
+    private List<Long> ids;
+
+    private List<String> externalCustomerIds;
+
+    public List<Long> getIds() {
+        return ids;
+    }
+
+    public void setIds(List<Long> ids) {
+        this.ids = ids;
+    }
+
+    public List<String> getExternalCustomerIds() {
+        return externalCustomerIds;
+    }
+
+    public void setExternalCustomerIds(List<String> externalCustomerIds) {
+        this.externalCustomerIds = externalCustomerIds;
+    }
+
+    @Override
+    public String toString() {
+        return "CustomerLookup{" +
+                "ids=" + (ids == null ? null : ids.size()) +
+                ", externalCustomerIds=" + (externalCustomerIds == null ? null : externalCustomerIds.size()) +
+                "}";
+    }
+}
@@ -0,0 +1,36 @@
+package com.emmett.customermanagement.service.lookup;
+
+import com.emmett.customermanagement.domain.Customer;
+
+import java.util.List;
+
+/**
+ * Customers resolved by a batch lookup
+ *
+ * @param <K> the key they were looked up by, the id or the externalCustomerId
+ */
+public class CustomerLookupResult<K> {
+
+    private final List<Customer> customers;
+
+    private final List<K> missing;
+
+    public CustomerLookupResult(List<Customer> customers, List<K> missing) {
+        this.customers = customers;
+        this.missing = missing;
+    }
+
+    /**
+     * @return one entry per key asked for, in the same order, null where there is no such customer
+     */
+    public List<Customer> getCustomers() {
+        return customers;
+    }
+
+    /**
+     * @return the keys no customer was found for, once each
+     */
+    public List<K> getMissing() {
+        return missing;
+    }
+}
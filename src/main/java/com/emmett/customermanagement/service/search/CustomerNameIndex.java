@@ -0,0 +1,280 @@
+package com.emmett.customermanagement.service.search;
+
+import com.emmett.customermanagement.config.ApplicationProperties;
+import com.emmett.customermanagement.domain.Customer;
+import com.emmett.customermanagement.repository.jdbc.CustomerJdbcRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * In-memory {@link TrigramIndex} of the customer names, for fuzzy name search without LIKE '%..%' table scans.
+ *
+ * <p>
+ * Built from the db once the app is ready. {@link com.emmett.customermanagement.service.CustomerService} then tells it about every name it writes or
+ * customer it deletes, applied when the transaction commits. Writes that cannot say which customers they touched
+ * (upserts) mark it stale instead, as do a build up of deleted documents and a transaction writing more than
+ * {@code application.search.max-pending-changes} names, and the next search starts a rebuild.
+ *
+ * <p>
+ * A rebuild reads the table into a new index while searches carry on against the current one, the changes made
+ * meanwhile are replayed on the new index before it takes over. Searches and changes only ever wait for each other,
+ * both are short.
+ */
+@Component
+public class CustomerNameIndex {
+
+    private final Logger log = LoggerFactory.getLogger(CustomerNameIndex.class);
+
+    private final CustomerJdbcRepository customerJdbcRepository;
+
+    private final ApplicationProperties applicationProperties;
+
+    private final ThreadPoolTaskExecutor searchIndexTaskExecutor;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    private final Object rebuildLock = new Object();
+
+    private TrigramIndex index = new TrigramIndex();
+
+    /**
+     * changes made while a rebuild reads the table, null when there is no rebuild
+     */
+    private List<Consumer<TrigramIndex>> pending;
+
+    private volatile boolean stale;
+
+    private volatile Instant builtAt;
+
+    public CustomerNameIndex(CustomerJdbcRepository customerJdbcRepository, ApplicationProperties applicationProperties,
+                             ThreadPoolTaskExecutor searchIndexTaskExecutor) {
+        this.customerJdbcRepository = customerJdbcRepository;
+        this.applicationProperties = applicationProperties;
+        this.searchIndexTaskExecutor = searchIndexTaskExecutor;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        rebuildAsync();
+    }
+
+    /**
+     * Starts a rebuild in the background, unless one is running already
+     */
+    public void rebuildAsync() {
+        if (rebuilding.compareAndSet(false, true)) {
+            try {
+                searchIndexTaskExecutor.execute(() -> {
+                    try {
+                        rebuild();
+                    } catch (RuntimeException ex) {
+                        log.error("Failed to build the customer name index", ex);
+                    } finally {
+                        rebuilding.set(false);
+                    }
+                });
+            } catch (TaskRejectedException ex) {
+                rebuilding.set(false);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Builds a new index from the db and swaps it in
+     */
+    public void rebuild() {
+        synchronized (rebuildLock) {
+            lock.writeLock().lock();
+            try {
+                pending = new ArrayList<>();
+                stale = false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            TrigramIndex next = new TrigramIndex();
+            customerJdbcRepository.forEachName((name, id) -> next.put(id, name));
+
+            lock.writeLock().lock();
+            try {
+                pending.forEach(change -> change.accept(next));
+                pending = null;
+                index = next;
+                builtAt = Instant.now();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.debug("Built the customer name index of {} customers", next.size());
+        }
+    }
+
+    /**
+     * Records the names of customers written, once the current transaction commits if there is one
+     */
+    public void putAll(Collection<Customer> customers) {
+        long[] ids = new long[customers.size()];
+        String[] names = new String[customers.size()];
+        int i = 0;
+        for (Customer customer : customers) {
+            ids[i] = customer.getId();
+            names[i++] = customer.getName();
+        }
+        afterCommit(index -> {
+            for (int c = 0; c < ids.length; c++) {
+                index.put(ids[c], names[c]);
+            }
+        }, ids.length);
+    }
+
+    public void put(Customer customer) {
+        long id = customer.getId();
+        String name = customer.getName();
+        afterCommit(index -> index.put(id, name), 1);
+    }
+
+    public void remove(long id) {
+        afterCommit(index -> index.remove(id), 1);
+    }
+
+    /**
+     * Marks the index stale, the next search starts a rebuild. Again after the current transaction completes, if
+     * there is one, as a rebuild that reads the table meanwhile cannot see its writes yet
+     */
+    public void invalidate() {
+        stale = true;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    stale = true;
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the customers whose names best match the query, best first, and how well they match
+     */
+    public List<NameMatch> search(String query, int limit) {
+        List<NameMatch> matches;
+        lock.readLock().lock();
+        try {
+            matches = index.search(query, limit, applicationProperties.getSearch().getMinMatch());
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (stale) {
+            rebuildAsync();
+        }
+        return matches;
+    }
+
+    public NameIndexStats stats() {
+        lock.readLock().lock();
+        try {
+            return new NameIndexStats(index.size(), index.documents(), index.trigrams(), index.postings(),
+                    index.estimatedBytes(), builtAt, rebuilding.get());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param size how many customers the change is about
+     */
+    private void afterCommit(Consumer<TrigramIndex> change, int size) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            apply(change);
+            return;
+        }
+        Changes changes = (Changes) TransactionSynchronizationManager.getResource(this);
+        if (changes == null) {
+            changes = new Changes();
+            TransactionSynchronizationManager.bindResource(this, changes);
+            TransactionSynchronizationManager.registerSynchronization(changes);
+        }
+        changes.add(change, size);
+    }
+
+    private void apply(Consumer<TrigramIndex> change) {
+        lock.writeLock().lock();
+        try {
+            change.accept(index);
+            if (pending != null) {
+                pending.add(change);
+            }
+            // the space of deleted and renamed customers is reclaimed by a rebuild
+            if (index.documents() - index.size() > Math.max(applicationProperties.getSearch().getMaxDeletedDocuments(), index.size())) {
+                stale = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The changes of one transaction, applied when it commits, or dropped for a rebuild once there are too many
+     */
+    private final class Changes implements TransactionSynchronization {
+
+        private List<Consumer<TrigramIndex>> changes = new ArrayList<>();
+
+        private int size;
+
+        private void add(Consumer<TrigramIndex> change, int size) {
+            if (changes == null) {
+                return;
+            }
+            this.size += size;
+            int maxPendingChanges = applicationProperties.getSearch().getMaxPendingChanges();
+            if (this.size > maxPendingChanges) {
+                log.debug("Over {} names written in one transaction, the name index is rebuilt after it", maxPendingChanges);
+                changes = null;
+                invalidate();
+            } else {
+                changes.add(change);
+            }
+        }
+
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResource(CustomerNameIndex.this);
+        }
+
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(CustomerNameIndex.this, this);
+        }
+
+        @Override
+        public void afterCommit() {
+            if (changes != null) {
+                changes.forEach(CustomerNameIndex.this::apply);
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(CustomerNameIndex.this);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.emmett.customermanagement.service.search;
+
+import java.time.Instant;
+
+/**
+ * Size of the {@link CustomerNameIndex}, as reported by GET /api/customers/search/stats
+ */
+public class NameIndexStats {
+
+    private final int customers;
+
+    private final int documents;
+
+    private final int trigrams;
+
+    private final long postings;
+
+    private final long estimatedBytes;
+
+    private final Instant builtAt;
+
+    private final boolean rebuilding;
+
+    NameIndexStats(int customers, int documents, int trigrams, long postings, long estimatedBytes,
+                   Instant builtAt, boolean rebuilding) {
+        this.customers = customers;
+        this.documents = documents;
+        this.trigrams = trigrams;
+        this.postings = postings;
+        this.estimatedBytes = estimatedBytes;
+        this.builtAt = builtAt;
+        this.rebuilding = rebuilding;
+    }
+
+    /**
+     * @return customers in the index
+     */
+    public int getCustomers() {
+        return customers;
+    }
+
+    /**
+     * @return documents in the index, the customers plus the old versions of renamed or deleted ones
+     */
+    public int getDocuments() {
+        return documents;
+    }
+
+    /**
+     * @return distinct trigrams
+     */
+    public int getTrigrams() {
+        return trigrams;
+    }
+
+    public long getPostings() {
+        return postings;
+    }
+
+    /**
+     * @return rough heap footprint of the index in bytes
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public Instant getBuiltAt() {
+        return builtAt;
+    }
+
+    public boolean isRebuilding() {
+        return rebuilding;
+    }
+}
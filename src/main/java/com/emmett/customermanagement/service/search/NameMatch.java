@@ -0,0 +1,34 @@
+package com.emmett.customermanagement.service.search;
+
+/**
+ * A customer found by a name search and how well its name matches, see {@link TrigramIndex}
+ */
+public class NameMatch {
+
+    private final long id;
+
+    private final String name;
+
+    private final double score;
+
+    NameMatch(long id, String name, double score) {
+        this.id = id;
+        this.name = name;
+        this.score = score;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return similarity of the name to the query, from 0 to 1 for an exact match
+     */
+    public double getScore() {
+        return score;
+    }
+}
@@ -0,0 +1,281 @@
+package com.emmett.customermanagement.service.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Inverted index from the trigrams of names to the customers having them, for fuzzy name search. Names are
+ * lower cased, stripped of accents and split into words, each word padded with a space either side, so that
+ * "Joe Soap" has the trigrams " jo", "joe", "oe ", " so", "soa", "oap" and "ap ". A name matches a query if they share
+ * a large enough fraction of the query's trigrams, which lets a partial or misspelled name match too, and
+ * matches are ranked by their Dice similarity to the query.
+ *
+ * <p>
+ * Each customer is a document number, given out in increasing order, so the posting lists of document numbers
+ * stay sorted without ever sorting them. An update appends a new document and marks the old one deleted, the
+ * space of deleted documents is only reclaimed by building a new index.
+ *
+ * <p>
+ * Not thread safe, see {@link CustomerNameIndex} for that.
+ */
+class TrigramIndex {
+
+    private static final int INITIAL_POSTINGS = 4;
+
+    private final Map<Long, Postings> postings = new HashMap<>();
+
+    private final Map<Long, Integer> docsById = new HashMap<>();
+
+    private long[] ids = new long[1024];
+
+    private String[] names = new String[1024];
+
+    /**
+     * distinct trigrams per document, for the similarity
+     */
+    private short[] trigramCounts = new short[1024];
+
+    private final BitSet deleted = new BitSet();
+
+    private int docs;
+
+    private long postingCount;
+
+    /**
+     * Indexes the customer's name, in place of the name it had if it was indexed already
+     */
+    void put(long id, String name) {
+        Integer doc = docsById.get(id);
+        if (doc != null) {
+            if (names[doc].equals(name)) {
+                return;
+            }
+            deleted.set(doc);
+        }
+        if (name == null) {
+            docsById.remove(id);
+            return;
+        }
+
+        long[] grams = trigrams(name);
+        if (docs == ids.length) {
+            int capacity = docs + (docs >> 1);
+            ids = Arrays.copyOf(ids, capacity);
+            names = Arrays.copyOf(names, capacity);
+            trigramCounts = Arrays.copyOf(trigramCounts, capacity);
+        }
+        int newDoc = docs++;
+        ids[newDoc] = id;
+        names[newDoc] = name;
+        trigramCounts[newDoc] = (short) Math.min(grams.length, Short.MAX_VALUE);
+        for (long gram : grams) {
+            postings.computeIfAbsent(gram, g -> new Postings()).add(newDoc);
+        }
+        postingCount += grams.length;
+        docsById.put(id, newDoc);
+    }
+
+    void remove(long id) {
+        Integer doc = docsById.remove(id);
+        if (doc != null) {
+            deleted.set(doc);
+        }
+    }
+
+    /**
+     * @param minMatch the fraction of the query's trigrams a name must have to match
+     * @return the best matches, best first
+     */
+    List<NameMatch> search(String query, int limit, double minMatch) {
+        long[] grams = trigrams(query);
+        if (grams.length == 0 || limit <= 0) {
+            return new ArrayList<>();
+        }
+        Postings[] lists = new Postings[grams.length];
+        for (int i = 0; i < grams.length; i++) {
+            Postings list = postings.get(grams[i]);
+            lists[i] = list != null ? list : Postings.EMPTY;
+        }
+        // rarest first: a match has to be in at least one of the first (grams - required + 1) lists,
+        // which are merged to find the candidates. The larger lists are only probed for those
+        Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+        int required = Math.max(1, (int) Math.ceil(grams.length * minMatch));
+        int merged = grams.length - required + 1;
+
+        PriorityQueue<NameMatch> best = new PriorityQueue<>(limit + 1, Comparator.comparingDouble(NameMatch::getScore));
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>(merged, Comparator.comparingInt(Cursor::doc));
+        for (int i = 0; i < merged; i++) {
+            if (lists[i].size > 0) {
+                cursors.add(new Cursor(lists[i]));
+            }
+        }
+        while (!cursors.isEmpty()) {
+            int doc = cursors.peek().doc();
+            int count = 0;
+            while (!cursors.isEmpty() && cursors.peek().doc() == doc) {
+                Cursor cursor = cursors.poll();
+                count++;
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                }
+            }
+            if (deleted.get(doc)) {
+                continue;
+            }
+            for (int i = merged; i < lists.length && count + lists.length - i >= required; i++) {
+                if (lists[i].contains(doc)) {
+                    count++;
+                }
+            }
+            if (count >= required) {
+                double score = 2.0 * count / (grams.length + trigramCounts[doc]);
+                if (best.size() < limit || score > best.peek().getScore()) {
+                    best.add(new NameMatch(ids[doc], names[doc], score));
+                    if (best.size() > limit) {
+                        best.poll();
+                    }
+                }
+            }
+        }
+
+        List<NameMatch> matches = new ArrayList<>(best);
+        matches.sort(Comparator.comparingDouble((NameMatch m) -> -m.getScore()).thenComparing(NameMatch::getName));
+        return matches;
+    }
+
+    /**
+     * @return customers indexed
+     */
+    int size() {
+        return docsById.size();
+    }
+
+    /**
+     * @return documents in the index, including those of deleted or renamed customers
+     */
+    int documents() {
+        return docs;
+    }
+
+    int trigrams() {
+        return postings.size();
+    }
+
+    long postings() {
+        return postingCount;
+    }
+
+    /**
+     * @return rough size of the index in bytes, names included, from the sizes of the arrays and
+     * the usual per object overhead of a 64 bit JVM with compressed oops
+     */
+    long estimatedBytes() {
+        long bytes = 0;
+        for (Postings list : postings.values()) {
+            // map entry, boxed key, postings object and its array
+            bytes += 32 + 16 + 24 + 16 + 4L * list.docs.length;
+        }
+        // document arrays
+        bytes += (8L + 4 + 2) * ids.length;
+        for (int doc = 0; doc < docs; doc++) {
+            bytes += 40 + names[doc].length();
+        }
+        // map entry, boxed id and document number
+        bytes += (32L + 16 + 16) * docsById.size();
+        return bytes;
+    }
+
+    /**
+     * @return the distinct trigrams of the words of the text
+     */
+    static long[] trigrams(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase(Locale.ROOT);
+        long[] grams = new long[normalized.length() + 2];
+        int count = 0;
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean letter = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                count = wordTrigrams(normalized, start, i, grams, count);
+                start = -1;
+            }
+        }
+        long[] distinct = Arrays.copyOf(grams, count);
+        Arrays.sort(distinct);
+        int size = 0;
+        for (int i = 0; i < distinct.length; i++) {
+            if (i == 0 || distinct[i] != distinct[i - 1]) {
+                distinct[size++] = distinct[i];
+            }
+        }
+        return Arrays.copyOf(distinct, size);
+    }
+
+    private static int wordTrigrams(String text, int start, int end, long[] grams, int count) {
+        // padded with a space either side: a word of n characters has n trigrams
+        for (int i = start - 1; i < end - 1; i++) {
+            grams[count++] = ((long) charAt(text, i, start, end) << 32)
+                    | ((long) charAt(text, i + 1, start, end) << 16)
+                    | charAt(text, i + 2, start, end);
+        }
+        return count;
+    }
+
+    private static char charAt(String text, int i, int start, int end) {
+        return i < start || i >= end ? ' ' : text.charAt(i);
+    }
+
+    /**
+     * growable sorted list of document numbers
+     */
+    private static final class Postings {
+
+        static final Postings EMPTY = new Postings();
+
+        int[] docs = new int[INITIAL_POSTINGS];
+
+        int size;
+
+        void add(int doc) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size + (size >> 1) + 1);
+            }
+            docs[size++] = doc;
+        }
+
+        boolean contains(int doc) {
+            return Arrays.binarySearch(docs, 0, size, doc) >= 0;
+        }
+    }
+
+    private static final class Cursor {
+
+        private final Postings list;
+
+        private int position;
+
+        Cursor(Postings list) {
+            this.list = list;
+        }
+
+        int doc() {
+            return list.docs[position];
+        }
+
+        boolean advance() {
+            return ++position < list.size;
+        }
+    }
+}
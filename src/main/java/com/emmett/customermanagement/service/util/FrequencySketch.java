@@ -0,0 +1,90 @@
+package com.emmett.customermanagement.service.util;
+
+/**
+ * Count-min sketch of how often keys were seen lately, the "TinyLFU" admission filter of a cache: four 4-bit counters
+ * per key, spread over a table of longs, of which the smallest is the estimate. Once there have been ten times as many
+ * increments as the sketch was sized for, every counter is halved, so that keys popular long ago fade out.
+ * Not thread safe, callers synchronize.
+ */
+public class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+
+    private final int mask;
+
+    private final int sampleSize;
+
+    private int additions;
+
+    /**
+     * @param expectedKeys keys the sketch tells apart well, the maximum size of the cache
+     */
+    public FrequencySketch(int expectedKeys) {
+        int size = Integer.highestOneBit(Math.max(8, expectedKeys) - 1) << 1;
+        this.table = new long[size];
+        this.mask = size - 1;
+        this.sampleSize = 10 * Math.max(1, expectedKeys);
+    }
+
+    /**
+     * @return estimated number of times the key was incremented since counters were last halved, at most 15
+     */
+    public int frequency(long key) {
+        long hash = spread(key);
+        int start = (int) (hash & 3) << 2;
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < 4; i++) {
+            frequency = Math.min(frequency, (int) ((table[indexOf(hash, i)] >>> ((start + i) << 2)) & 0xf));
+        }
+        return frequency;
+    }
+
+    public void increment(long key) {
+        long hash = spread(key);
+        int start = (int) (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int offset = (start + i) << 2;
+            if (((table[index] >>> offset) & 0xf) < MAX_COUNT) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(long hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & mask;
+    }
+
+    /**
+     * the murmur3 finalizer, ids are sequential and need spreading
+     */
+    private static long spread(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
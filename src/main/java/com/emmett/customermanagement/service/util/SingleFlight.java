@@ -0,0 +1,131 @@
+package com.emmett.customermanagement.service.util;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs at most one piece of work per key at a time. A caller asking for work that is running already does not run
+ * it again, it waits for and shares the result (or failure) of the run in progress. Once a run is over the next
+ * caller starts a new one.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the work in the calling thread, or waits for the run in progress
+     * @return the result of the run
+     */
+    public V execute(K key, Supplier<V> work) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> running = flights.putIfAbsent(key, flight);
+        if (running == null) {
+            run(key, flight, work);
+            running = flight;
+        }
+        try {
+            return running.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Runs the work on the executor, unless it is running already
+     * @return the run, completed exceptionally with a {@link RejectedExecutionException} if the executor refused it
+     */
+    public CompletableFuture<V> submit(K key, Supplier<V> work, Executor executor) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> running = flights.putIfAbsent(key, flight);
+        if (running != null) {
+            return running;
+        }
+        try {
+            executor.execute(() -> run(key, flight, work));
+        } catch (RejectedExecutionException ex) {
+            flights.remove(key, flight);
+            flight.completeExceptionally(ex);
+        }
+        return flight;
+    }
+
+    /**
+     * Runs one piece of work for several keys in the calling thread, once it holds the flight of each: a run in
+     * progress for any of them is waited for first, and callers asking for any of them meanwhile wait for and share
+     * this run. Keys are taken in the order given, callers taking several must give them in the same order
+     * @param results the result of each key out of the result of the work, a key without one completes with null
+     * @return the result of the work
+     */
+    public <R> R executeAll(Collection<K> keys, Supplier<R> work, Function<R, Map<K, V>> results) {
+        Map<K, CompletableFuture<V>> taken = new LinkedHashMap<>();
+        try {
+            for (K key : keys) {
+                taken.put(key, take(key));
+            }
+        } catch (RuntimeException | Error ex) {
+            taken.forEach((key, flight) -> {
+                flights.remove(key, flight);
+                flight.completeExceptionally(ex);
+            });
+            throw ex;
+        }
+        try {
+            R result = work.get();
+            Map<K, V> byKey = results.apply(result);
+            taken.forEach((key, flight) -> {
+                flights.remove(key, flight);
+                flight.complete(byKey.get(key));
+            });
+            return result;
+        } catch (RuntimeException | Error ex) {
+            taken.forEach((key, flight) -> {
+                flights.remove(key, flight);
+                flight.completeExceptionally(ex);
+            });
+            throw ex;
+        }
+    }
+
+    /**
+     * @return a flight of our own for the key, once any run in progress is over
+     */
+    private CompletableFuture<V> take(K key) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> running;
+        while ((running = flights.putIfAbsent(key, flight)) != null) {
+            // its outcome is its callers' business
+            running.handle((result, ex) -> null).join();
+        }
+        return flight;
+    }
+
+    public boolean isRunning(K key) {
+        return flights.containsKey(key);
+    }
+
+    private void run(K key, CompletableFuture<V> flight, Supplier<V> work) {
+        try {
+            V result = work.get();
+            // out before done, so a caller coming after the result starts a run of its own
+            flights.remove(key, flight);
+            flight.complete(result);
+        } catch (RuntimeException | Error ex) {
+            flights.remove(key, flight);
+            flight.completeExceptionally(ex);
+        }
+    }
+}
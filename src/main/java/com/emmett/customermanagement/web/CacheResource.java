@@ -0,0 +1,37 @@
+package com.emmett.customermanagement.web;
+
+import com.emmett.customermanagement.service.cache.EntityCacheStats;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Statistics of hibernate's second level and query cache (see CacheConfiguration)
+ */
+@RestController
+@RequestMapping("/api")
+public class CacheResource {
+
+    private final Logger log = LoggerFactory.getLogger(CacheResource.class);
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    public CacheResource(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    /**
+     * Hits, misses and puts of the second level cache, overall and per region, and of the query cache
+     *
+     * @return
+     */
+    @GetMapping("/cache/stats")
+    public ResponseEntity<EntityCacheStats> getCacheStats() {
+        log.debug("REST request to get the second level cache stats");
+        return ResponseEntity.ok().body(EntityCacheStats.of(entityManagerFactory.unwrap(SessionFactory.class).getStatistics()));
+    }
+}
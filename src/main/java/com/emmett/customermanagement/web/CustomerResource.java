@@ -1,40 +1,79 @@
 package com.emmett.customermanagement.web;
 
+import com.emmett.customermanagement.config.ApplicationProperties;
 import com.emmett.customermanagement.domain.Customer;
 import com.emmett.customermanagement.repository.jpa.CustomerRepository;
+import com.emmett.customermanagement.repository.jpa.CustomerSliceRepository;
+import com.emmett.customermanagement.service.CustomerCounter;
 import com.emmett.customermanagement.service.CustomerService;
+import com.emmett.customermanagement.service.batch.BatchResult;
+import com.emmett.customermanagement.service.batch.CustomerBatchService;
+import com.emmett.customermanagement.service.batch.InvalidBatchException;
+import com.emmett.customermanagement.service.cache.CacheStats;
+import com.emmett.customermanagement.service.cache.CustomerCache;
+import com.emmett.customermanagement.service.criteria.CustomerCriteria;
+import com.emmett.customermanagement.service.criteria.CustomerSpecifications;
+import com.emmett.customermanagement.service.exporter.CustomerExportService;
+import com.emmett.customermanagement.service.exporter.ExportFormat;
+import com.emmett.customermanagement.service.importer.CustomerImportException;
+import com.emmett.customermanagement.service.importer.CustomerImportService;
+import com.emmett.customermanagement.service.importer.DuplicateExternalIdException;
+import com.emmett.customermanagement.service.importer.ImportJob;
+import com.emmett.customermanagement.service.importer.ImportJobService;
+import com.emmett.customermanagement.service.importer.ImportMode;
+import com.emmett.customermanagement.service.importer.ImportResult;
+import com.emmett.customermanagement.service.importer.InvalidCsvRowException;
+import com.emmett.customermanagement.service.lookup.CustomerLookup;
+import com.emmett.customermanagement.service.lookup.CustomerLookupResult;
+import com.emmett.customermanagement.service.search.CustomerNameIndex;
+import com.emmett.customermanagement.service.search.NameIndexStats;
 import com.emmett.customermanagement.web.errors.BadRequestAlertException;
+import com.emmett.customermanagement.web.util.ETagUtil;
 import com.emmett.customermanagement.web.util.HeaderUtil;
+import com.emmett.customermanagement.web.util.KeysetCursor;
 import com.emmett.customermanagement.web.util.PaginationUtil;
-import com.opencsv.CSVReader;
-import com.opencsv.bean.CsvToBean;
-import com.opencsv.bean.CsvToBeanBuilder;
-import com.opencsv.bean.HeaderColumnNameMappingStrategy;
 import org.hibernate.exception.ConstraintViolationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponentsBuilder;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.File;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.sql.SQLException;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.zip.ZipException;
 
 @RestController
 @RequestMapping("/api")
@@ -47,15 +86,45 @@ public class CustomerResource {
 
     private static final String ENTITY_NAME = "customer";
 
+    /**
+     * sort of the listing, the (name, id) index delivers the rows in this order
+     */
+    private static final Sort LISTING_SORT = Sort.by("name").ascending().and(Sort.by("id").ascending());
+
     private final CustomerService customerService;
 
     private final CustomerRepository customerRepository;
 
+    private final CustomerImportService customerImportService;
+
+    private final ImportJobService importJobService;
+
+    private final CustomerExportService customerExportService;
+
+    private final ApplicationProperties applicationProperties;
+
+    private final CustomerNameIndex customerNameIndex;
+
+    private final CustomerBatchService customerBatchService;
+
+    private final CustomerCache customerCache;
+
     public CustomerResource(
-            CustomerService customerService, CustomerRepository customerRepository
+            CustomerService customerService, CustomerRepository customerRepository,
+            CustomerImportService customerImportService, ImportJobService importJobService,
+            CustomerExportService customerExportService, ApplicationProperties applicationProperties,
+            CustomerNameIndex customerNameIndex, CustomerBatchService customerBatchService,
+            CustomerCache customerCache
     ) {
         this.customerService = customerService;
         this.customerRepository = customerRepository;
+        this.customerImportService = customerImportService;
+        this.importJobService = importJobService;
+        this.customerExportService = customerExportService;
+        this.applicationProperties = applicationProperties;
+        this.customerNameIndex = customerNameIndex;
+        this.customerBatchService = customerBatchService;
+        this.customerCache = customerCache;
     }
 
     @PostMapping("/customers")
@@ -83,54 +152,213 @@ public class CustomerResource {
         }
     }
 
+    /**
+     * Imports customers from a csv file whose header names the customer columns
+     * (name,gender,birthDate,externalCustomerId). The file is streamed, or memory mapped when the upload
+     * is on disk, and saved in chunks. It may be gzip compressed, it is then inflated on the fly
+     *
+     * @param file the csv
+     * @param mode ATOMIC (default) commits the whole file or nothing, CHUNKED commits chunk by chunk,
+     *             UPSERT merges the rows on their externalCustomerId chunk by chunk and reports bad rows
+     *             instead of failing on them
+     * @param async when true the import runs in the background: 202 is returned straight away with the
+     *              import job, which can be polled or cancelled at /api/import-jobs/{id}
+     * @return counts of the rows saved (and for UPSERT the unchanged and rejected ones), or the queued import job when async
+     * @throws Exception
+     */
     @PostMapping("/customers/import-csv")
-    public ResponseEntity<Map> importCsv(@RequestPart(value = "file", required = true) MultipartFile file) throws Exception {
-
-        HeaderColumnNameMappingStrategy hcnms = new HeaderColumnNameMappingStrategy();
-        hcnms.setType(Customer.class);
-
-        try (CSVReader reader = new CSVReader(new InputStreamReader(file.getInputStream()))) {
-            CsvToBean cb = new CsvToBeanBuilder(reader)
-                    .withType(Customer.class)
-                    .withMappingStrategy(hcnms)
+    public ResponseEntity<Object> importCsv(
+            @RequestPart(value = "file", required = true) MultipartFile file,
+            @RequestParam(required = false, defaultValue = "ATOMIC") ImportMode mode,
+            @RequestParam(required = false, defaultValue = "false") boolean async
+    ) throws Exception {
+        log.debug("REST request to import Customers, mode {}, async {}", mode, async);
+
+        if (async) {
+            try {
+                ImportJob job = importJobService.submit(file, mode);
+                return ResponseEntity
+                    .accepted()
+                    .location(new URI("/api/import-jobs/" + job.getId()))
+                    .headers(HeaderUtil.createEntityCreationAlert(applicationName, false, "importJob", job.getId()))
+                    .body(job);
+            } catch (TaskRejectedException ex) {
+                return ResponseEntity
+                    .status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .headers(HeaderUtil.createFailureAlert(applicationName, false, ENTITY_NAME, "importqueuefull", "Too many imports are queued, try again later"))
                     .build();
+            }
+        }
 
-            List<Customer> parsedCustomers = cb.parse();
-
-            List<Customer> saved = customerService.saveAll(parsedCustomers);
+        try {
+            ImportResult result = customerImportService.importCsv(file, mode);
 
-            Map m = new HashMap();
+            Map<String, Object> m = new HashMap<>();
             m.put("success", true);
-            m.put("saved", saved.size());
+            m.put("saved", result.getSaved());
+            m.put("chunks", result.getChunks());
+            if (mode == ImportMode.UPSERT) {
+                m.put("unchanged", result.getUnchanged());
+                m.put("rejected", result.getRejected());
+                m.put("rejections", result.getRejections());
+            }
 
             return ResponseEntity
                 .created(new URI("/api/customers/*"))
                 .headers(HeaderUtil.createEntityCreationAlert(applicationName, false, ENTITY_NAME, "*"))
                 .body(m);
-        } catch (Exception ex) {
-            if (ex.getCause() instanceof ConstraintViolationException) {
-                if (((ConstraintViolationException) (ex.getCause())).getSQLState().equals("23505")) {
-                    throw new BadRequestAlertException("A customer with this externalCustomerId exists already", ENTITY_NAME, "externalIdexists");
-                }
+        } catch (CustomerImportException ex) {
+            if (ex.getCause() instanceof javax.validation.ConstraintViolationException) {
+                // reported like any other bean validation failure
+                throw (javax.validation.ConstraintViolationException) ex.getCause();
+            }
+            if (ex.getCause() instanceof InvalidCsvRowException) {
+                throw new BadRequestAlertException(ex.getCause().getMessage(), ENTITY_NAME, "invalidcsv");
+            }
+            if (ex.getCause() instanceof DuplicateExternalIdException) {
+                // found by the duplicate check before anything was written
+                throw new BadRequestAlertException(ex.getCause().getMessage(), ENTITY_NAME, "externalIdexists");
+            }
+            if (isCorruptGzip(ex)) {
+                throw new BadRequestAlertException("The upload is not a valid gzip file", ENTITY_NAME, "invalidgzip");
+            }
+            if (isDuplicateKey(ex)) {
+                throw new BadRequestAlertException("A customer with this externalCustomerId exists already ("
+                        + ex.getCommitted() + " rows committed before the failure)", ENTITY_NAME, "externalIdexists");
             }
             throw ex;
-
         }
+    }
 
+    /**
+     * Bulk create from a JSON array of customers, of any length: it is parsed as it is read and written in JDBC
+     * batches, committing every {@code application.batch.chunk-size} customers. Invalid customers are reported and
+     * skipped rather than failing the request
+     *
+     * @param body JSON array of customers without an id
+     * @return the outcome of every customer, in the order sent, with the ids of the new ones
+     */
+    @PostMapping(value = "/customers/batch", consumes = "application/json")
+    public ResponseEntity<BatchResult> createCustomers(InputStream body) {
+        log.debug("REST request to create a batch of Customers");
+        return ResponseEntity.ok().body(batch(() -> customerBatchService.createAll(body)));
+    }
 
+    /**
+     * Bulk partial update from a JSON array of customers, each with its id and the fields to change, as for
+     * {@link #partialUpdateCustomer}. Read and committed as {@link #createCustomers} is
+     *
+     * @param body JSON array of partial customers
+     * @return the outcome of every customer, in the order sent
+     */
+    @PatchMapping(value = "/customers/batch", consumes = {"application/json", "application/merge-patch+json"})
+    public ResponseEntity<BatchResult> partialUpdateCustomers(InputStream body) {
+        log.debug("REST request to update a batch of Customers");
+        return ResponseEntity.ok().body(batch(() -> customerBatchService.updateAll(body)));
+    }
 
+    /**
+     * Bulk delete from a JSON array of ids. Read and committed as {@link #createCustomers} is
+     *
+     * @param body JSON array of ids
+     * @return the outcome of every id, in the order sent
+     */
+    @DeleteMapping(value = "/customers/batch", consumes = "application/json")
+    public ResponseEntity<BatchResult> deleteCustomers(InputStream body) {
+        log.debug("REST request to delete a batch of Customers");
+        return ResponseEntity.ok().body(batch(() -> customerBatchService.deleteAll(body)));
+    }
 
+    private BatchResult batch(Supplier<BatchResult> batch) {
+        try {
+            return batch.get();
+        } catch (InvalidBatchException ex) {
+            throw new BadRequestAlertException(ex.getMessage(), ENTITY_NAME, "invalidbatch");
+        }
     }
 
+    /**
+     * Get a customer, with a strong ETag (see {@link ETagUtil#customerETag}). Answers 304 without a body when
+     * If-None-Match has the current ETag
+     *
+     * @param id
+     * @return
+     */
     @GetMapping("/customers/{id}")
-    public ResponseEntity<Customer> getCustomer(@PathVariable Long id) {
+    public ResponseEntity<Customer> getCustomer(@PathVariable Long id, WebRequest webRequest) {
         log.debug("REST request to get Customer : {}", id);
         Optional<Customer> customer = customerService.findOne(id);
-        return customer.map(response -> ResponseEntity.ok().body(response))
+        if (customer.isPresent() && webRequest.checkNotModified(ETagUtil.customerETag(customer.get()))) {
+            return null;
+        }
+        return customer.map(response -> ResponseEntity.ok().eTag(ETagUtil.customerETag(response)).body(response))
                 .orElse(new ResponseEntity<>(HttpStatus.NOT_FOUND));
 
     }
 
+    /**
+     * Sparse fieldset of a customer: only the given fields, e.g. {@code ?fields=id,name}, are read from the db
+     *
+     * @param id
+     * @param fields some of {@link CustomerSliceRepository#FIELDS}, the id is always included
+     * @return
+     */
+    @GetMapping(value = "/customers/{id}", params = "fields")
+    public ResponseEntity<Map<String, Object>> getCustomerFields(@PathVariable Long id, @RequestParam List<String> fields) {
+        log.debug("REST request to get fields {} of Customer : {}", fields, id);
+        Slice<Map<String, Object>> slice = customerRepository.findFields(
+                CustomerSpecifications.withId(id), PageRequest.of(0, 1), fields(fields, false));
+        return slice.getContent().stream().findFirst()
+                .map(response -> ResponseEntity.ok().body(response))
+                .orElse(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
+
+    /**
+     * Multi-get: the customers with the given ids, e.g. {@code ?ids=3,1,2}, resolved with a few "in" queries rather
+     * than one request per customer. At most {@code application.lookup.max-ids} ids per request, the whole
+     * customers are returned, with or without {@code fields}
+     *
+     * @param ids
+     * @return the customers in the order of the ids, null for those that do not exist, which are listed as missing
+     */
+    @GetMapping(value = "/customers", params = "ids")
+    public ResponseEntity<CustomerLookupResult<Long>> getCustomersByIds(@RequestParam List<Long> ids) {
+        log.debug("REST request to get {} Customers by id", ids.size());
+        checkLookup(ids);
+        return ResponseEntity.ok().body(customerService.findAllByIds(ids));
+    }
+
+    /**
+     * Multi-get by POST, for lookups too long for a query string or by externalCustomerId. The body has either
+     * {@code ids} or {@code externalCustomerIds}, answered as by {@link #getCustomersByIds}
+     *
+     * @param lookup
+     * @return
+     */
+    @PostMapping("/customers/lookup")
+    public ResponseEntity<CustomerLookupResult<?>> lookupCustomers(@RequestBody CustomerLookup lookup) {
+        log.debug("REST request to look up Customers : {}", lookup);
+        if ((lookup.getIds() == null) == (lookup.getExternalCustomerIds() == null)) {
+            throw new BadRequestAlertException("Look up either ids or externalCustomerIds", ENTITY_NAME, "invalidlookup");
+        }
+        if (lookup.getIds() != null) {
+            checkLookup(lookup.getIds());
+            return ResponseEntity.ok().body(customerService.findAllByIds(lookup.getIds()));
+        }
+        checkLookup(lookup.getExternalCustomerIds());
+        return ResponseEntity.ok().body(customerService.findAllByExternalCustomerIds(lookup.getExternalCustomerIds()));
+    }
+
+    private void checkLookup(List<?> keys) {
+        int maxIds = applicationProperties.getLookup().getMaxIds();
+        if (keys.size() > maxIds) {
+            throw new BadRequestAlertException("At most " + maxIds + " customers can be looked up at once", ENTITY_NAME, "lookuptoolarge");
+        }
+        if (keys.contains(null)) {
+            throw new BadRequestAlertException("Empty id in lookup", ENTITY_NAME, "invalidlookup");
+        }
+    }
+
     /**
      * Full update of a customer
      *
@@ -142,7 +370,8 @@ public class CustomerResource {
     @PutMapping("/customers/{id}")
     public ResponseEntity<Customer> updateCustomer(
             @PathVariable(value = "id", required = false) final Long id,
-            @Valid @RequestBody Customer customer
+            @Valid @RequestBody Customer customer,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch
     ) throws URISyntaxException {
         log.debug("REST request to update Customer : {}, {}", id, customer);
         if (customer.getId() == null) {
@@ -155,12 +384,11 @@ public class CustomerResource {
         if (!customerRepository.existsById(id)) {
             throw new BadRequestAlertException("Entity not found", ENTITY_NAME, "idnotfound");
         }
-
-
-        Customer result = customerService.save(customer);
+        Customer result = customerService.save(customer, ifMatch);
         return ResponseEntity
                 .ok()
                 .headers(HeaderUtil.createEntityUpdateAlert(applicationName, false, ENTITY_NAME, customer.getId().toString()))
+                .eTag(ETagUtil.customerETag(result))
                 .body(result);
     }
 
@@ -175,7 +403,8 @@ public class CustomerResource {
     @PatchMapping(value = "/customers/{id}", consumes = {"application/json", "application/merge-patch+json"})
     public ResponseEntity<Customer> partialUpdateCustomer(
             @PathVariable(value = "id", required = false) final Long id,
-            @NotNull @RequestBody Customer customer
+            @NotNull @RequestBody Customer customer,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch
     ) throws URISyntaxException {
         log.debug("REST request to partial update Customer partially : {}, {}", id, customer);
         if (customer.getId() == null) {
@@ -188,10 +417,10 @@ public class CustomerResource {
         if (!customerRepository.existsById(id)) {
             throw new BadRequestAlertException("Entity not found", ENTITY_NAME, "idnotfound");
         }
+        Optional<Customer> result = customerService.partialUpdate(customer, ifMatch);
 
-        Optional<Customer> result = customerService.partialUpdate(customer);
-
-        return result.map(response -> ResponseEntity.ok().headers(HeaderUtil.createEntityUpdateAlert(applicationName, false, ENTITY_NAME, customer.getId().toString())).body(response))
+        return result.map(response -> ResponseEntity.ok().headers(HeaderUtil.createEntityUpdateAlert(applicationName, false, ENTITY_NAME, customer.getId().toString()))
+                        .eTag(ETagUtil.customerETag(response)).body(response))
                 .orElse(new ResponseEntity<>(HttpStatus.NOT_FOUND));
 
     }
@@ -207,31 +436,282 @@ public class CustomerResource {
     }
 
     /**
-     * Rudimentary count that does not involve any criteria
+     * Rudimentary count that does not involve any criteria. Served from the cached count, see {@link CustomerCounter}
      *
      * @return
      */
     @GetMapping("/customers/count")
     public ResponseEntity<Long> countCustomers() {
         log.debug("REST request to count Customers");
-        return ResponseEntity.ok().body(customerRepository.count());
+        return ResponseEntity.ok().body(customerService.count());
+    }
+
+    /**
+     * Fuzzy search by name, which finds partial and misspelled names too, from an in-memory trigram index
+     * rather than the db (see {@link CustomerNameIndex})
+     *
+     * @param q name, or part of it
+     * @param limit most customers to return
+     * @return the best matches, best first
+     */
+    @GetMapping("/customers/search")
+    public ResponseEntity<List<Customer>> searchCustomers(
+            @RequestParam String q, @RequestParam(required = false, defaultValue = "20") int limit
+    ) {
+        log.debug("REST request to search Customers : {}", q);
+        if (q.trim().isEmpty()) {
+            throw new BadRequestAlertException("Empty search", ENTITY_NAME, "emptysearch");
+        }
+        int maxResults = applicationProperties.getSearch().getMaxResults();
+        return ResponseEntity.ok().body(customerService.search(q, Math.max(1, Math.min(limit, maxResults))));
     }
 
     /**
-     * Rudimentary "getAll" - with no criteria for now. Just pages a result set that's currently sorted by name ascending
+     * Size and memory footprint of the name search index
+     *
+     * @return
+     */
+    @GetMapping("/customers/search/stats")
+    public ResponseEntity<NameIndexStats> getSearchIndexStats() {
+        log.debug("REST request to get the search index stats");
+        return ResponseEntity.ok().body(customerNameIndex.stats());
+    }
+
+    /**
+     * Hits, misses and evictions of the cache behind the reads of customers by id and externalCustomerId
+     *
+     * @return
+     */
+    @GetMapping("/customers/cache/stats")
+    public ResponseEntity<CacheStats> getCacheStats() {
+        log.debug("REST request to get the customer cache stats");
+        return ResponseEntity.ok().body(customerCache.stats());
+    }
+
+    /**
+     * Rebuilds the name search index from the db in the background, searches carry on meanwhile
+     *
+     * @return
+     */
+    @PostMapping("/customers/search/rebuild")
+    public ResponseEntity<Void> rebuildSearchIndex() {
+        log.debug("REST request to rebuild the search index");
+        customerNameIndex.rebuildAsync();
+        return ResponseEntity.accepted().build();
+    }
+
+    /**
+     * Rudimentary "getAll". Pages a result set sorted by name ascending (then id), optionally filtered by the
+     * {@link CustomerCriteria} given as query parameters, e.g. {@code ?gender=FEMALE&birthDateFrom=1990-01-01}.
+     * On a large table a filter has to include at least one criterion backed by an index, see {@link CustomerCriteria#isIndexed()},
+     * the gender alone would scan the table.
+     *
+     * <p>
+     * With a {@code cursor} parameter the pages are fetched by keyset pagination instead: pass an empty cursor for
+     * the first page and follow the next link, which carries the cursor of the following page. Every page then costs
+     * the same however deep it is, while page numbers make the db skip over all the rows before the page.
+     * There is no X-Total-Count in that mode.
+     *
+     * <p>
+     * Pages are fetched without a count query either way. The X-Total-Count comes from the cached count
+     * (see {@link CustomerCounter}), or from a count query when filtering, and is left out altogether, along with
+     * the last link, with {@code total=false}.
+     *
+     * <p>
+     * Every page has a weak ETag made of the versions of the customers on it and of the X-Total-Count (see
+     * {@link ETagUtil#listETag}), so it costs no query of its own; an If-None-Match with it gets a 304 without a body.
      *
      * @param page
      * @param size
+     * @param cursor opaque continuation token from a next link, empty for the first page
+     * @param total false to leave out the total count
+     * @param criteria filter, the links carry it over to the other pages
      * @return
      */
     @GetMapping("/customers")
     public ResponseEntity<List<Customer>> getAllCustomers(
-            @RequestParam(required = true, defaultValue = "0") int page, @RequestParam(required = false, defaultValue = "20") int size
+            @RequestParam(required = true, defaultValue = "0") int page, @RequestParam(required = false, defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor, @RequestParam(required = false, defaultValue = "true") boolean total,
+            CustomerCriteria criteria, HttpServletRequest request, WebRequest webRequest
+    ) {
+        log.debug("REST request to get page of Customers page {}, size {}, cursor {}, by {}", page, size, cursor, criteria);
+        return listCustomers(page, size, cursor, total, criteria, request, webRequest,
+                customerRepository::findSlice, customer -> new KeysetCursor(customer.getName(), customer.getId()),
+                ETagUtil::customerETag);
+    }
+
+    /**
+     * "getAll" with a sparse fieldset: only the given fields, e.g. {@code ?fields=id,name}, are read from the db and
+     * returned. Takes the same paging and filtering parameters as {@link #getAllCustomers}
+     *
+     * @param fields some of {@link CustomerSliceRepository#FIELDS}, the id is always included
+     * @return
+     */
+    @GetMapping(value = "/customers", params = {"fields", "!ids"})
+    public ResponseEntity<List<Map<String, Object>>> getAllCustomerFields(
+            @RequestParam(required = true, defaultValue = "0") int page, @RequestParam(required = false, defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor, @RequestParam(required = false, defaultValue = "true") boolean total,
+            CustomerCriteria criteria, @RequestParam List<String> fields, HttpServletRequest request, WebRequest webRequest
+    ) {
+        log.debug("REST request to get fields {} of page of Customers page {}, size {}, cursor {}, by {}",
+                fields, page, size, cursor, criteria);
+        // the keyset cursor is made of the name and id
+        Set<String> selected = fields(fields, cursor != null);
+        ResponseEntity<List<Map<String, Object>>> response = listCustomers(page, size, cursor, total, criteria, request, webRequest,
+                (filter, pageable) -> customerRepository.findFields(filter, pageable, selected),
+                row -> new KeysetCursor((String) row.get("name"), (Long) row.get("id")),
+                Map::toString);
+        if (response != null && cursor != null && fields.stream().noneMatch(field -> "name".equals(field.trim()))) {
+            response.getBody().forEach(row -> row.remove("name"));
+        }
+        return response;
+    }
+
+    /**
+     * @param versionOf what changes in the response when a row changes, see {@link ETagUtil#listETag}
+     */
+    private <T> ResponseEntity<List<T>> listCustomers(
+            int page, int size, String cursor, boolean total, CustomerCriteria criteria, HttpServletRequest request,
+            WebRequest webRequest, BiFunction<Specification<Customer>, Pageable, Slice<T>> find, Function<T, KeysetCursor> cursorOf,
+            Function<T, String> versionOf
+    ) {
+        Specification<Customer> filter = filter(criteria);
+        UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromPath("/api/customers");
+        request.getParameterMap().forEach((name, values) -> uriBuilder.queryParam(name, (Object[]) values));
+        if (cursor != null) {
+            return listCustomersAfter(cursor, size, filter, uriBuilder, webRequest, find, cursorOf, versionOf);
+        }
+        Pageable pageable = PageRequest.of(page, size, LISTING_SORT);
+        Slice<T> slice = find.apply(filter, pageable);
+
+        HttpHeaders headers;
+        Long count = null;
+        if (total) {
+            // the cached count can lag behind, never let it contradict the page in hand
+            long seen = pageable.getOffset() + slice.getNumberOfElements() + (slice.hasNext() ? 1 : 0);
+            count = Math.max(filter == null ? customerService.count() : customerRepository.count(filter), seen);
+            Page<T> returnedPage = new PageImpl<>(slice.getContent(), pageable, count);
+            headers = PaginationUtil.generatePaginationHttpHeaders(returnedPage, uriBuilder);
+        } else {
+            headers = PaginationUtil.generateSlicePaginationHttpHeaders(slice, uriBuilder);
+        }
+        if (webRequest.checkNotModified(ETagUtil.listETag(count, slice.hasNext(),
+                slice.getContent().stream().map(versionOf).collect(Collectors.toList())))) {
+            return null;
+        }
+        return ResponseEntity.ok().headers(headers).body(slice.getContent());
+    }
+
+    private <T> ResponseEntity<List<T>> listCustomersAfter(
+            String cursor, int size, Specification<Customer> filter, UriComponentsBuilder uriBuilder, WebRequest webRequest,
+            BiFunction<Specification<Customer>, Pageable, Slice<T>> find, Function<T, KeysetCursor> cursorOf,
+            Function<T, String> versionOf
     ) {
-        log.debug("REST request to get page of Customers page {}, size {}", page, size);
-        Pageable pageable = PageRequest.of(page, size, Sort.by("name").ascending());
-        Page<Customer> returnedPage = customerRepository.findAll(pageable);
-        HttpHeaders headers = PaginationUtil.generatePaginationHttpHeaders(returnedPage, "/api/users");
-        return ResponseEntity.ok().headers(headers).body(returnedPage.getContent());
+        Pageable pageable = PageRequest.of(0, size, LISTING_SORT);
+        if (!cursor.isEmpty()) {
+            KeysetCursor after;
+            try {
+                after = KeysetCursor.decode(cursor);
+            } catch (IllegalArgumentException ex) {
+                throw new BadRequestAlertException("Invalid cursor", ENTITY_NAME, "invalidcursor");
+            }
+            filter = CustomerSpecifications.after(after.getName(), after.getId()).and(filter);
+        }
+        Slice<T> slice = find.apply(filter, pageable);
+
+        List<T> rows = slice.getContent();
+        if (webRequest.checkNotModified(ETagUtil.listETag(null, slice.hasNext(),
+                rows.stream().map(versionOf).collect(Collectors.toList())))) {
+            return null;
+        }
+        String nextCursor = rows.isEmpty() ? null : cursorOf.apply(rows.get(rows.size() - 1)).encode();
+        HttpHeaders headers = PaginationUtil.generateKeysetPaginationHttpHeaders(slice, nextCursor, uriBuilder);
+        return ResponseEntity.ok().headers(headers).body(rows);
+    }
+
+    /**
+     * @return the fields to select: the requested ones, the id and, for keyset pagination, the name
+     * @throws BadRequestAlertException if a field is not a customer field
+     */
+    private static Set<String> fields(List<String> requested, boolean keyset) {
+        Set<String> fields = new LinkedHashSet<>();
+        fields.add("id");
+        for (String field : requested) {
+            if (!CustomerSliceRepository.FIELDS.contains(field.trim())) {
+                throw new BadRequestAlertException("Unknown field " + field, ENTITY_NAME, "invalidfields");
+            }
+            fields.add(field.trim());
+        }
+        if (keyset) {
+            fields.add("name");
+        }
+        return fields;
+    }
+
+    /**
+     * @return the specification of the criteria, null if there are none
+     * @throws BadRequestAlertException if no criterion is backed by an index and the table is too large to scan
+     */
+    private Specification<Customer> filter(CustomerCriteria criteria) {
+        if (!criteria.isSpecified()) {
+            return null;
+        }
+        if (!criteria.isIndexed() && customerService.count() > applicationProperties.getFilter().getUnindexedMaxRows()) {
+            throw new BadRequestAlertException("Filter by name prefix, birth date, created or updated date or external id as well",
+                    ENTITY_NAME, "unindexedfilter");
+        }
+        return CustomerSpecifications.matching(criteria);
+    }
+
+    /**
+     * Streams every customer in one response, read through a single db cursor rather than page by page.
+     * The response is written on the async request executor while the rows are read, so memory use stays
+     * flat however many customers there are
+     *
+     * @param format CSV (default), with the columns the csv import takes, or NDJSON
+     * @return
+     */
+    @GetMapping("/customers/export")
+    public ResponseEntity<StreamingResponseBody> exportCustomers(
+            @RequestParam(required = false, defaultValue = "CSV") ExportFormat format
+    ) {
+        log.debug("REST request to export Customers as {}", format);
+        StreamingResponseBody body = out -> customerExportService.export(format, out);
+        return ResponseEntity.ok()
+                .contentType(format.getMediaType())
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"customers." + format.getExtension() + "\"")
+                .body(body);
+    }
+
+    /**
+     * a truncated or corrupt gzip upload shows up as one of these, however deep in the import it was read
+     */
+    private static boolean isCorruptGzip(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ZipException || cause instanceof EOFException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * walks the cause chain looking for the unique constraint violation raised by the db (SQLState 23505),
+     * whether it came through hibernate or straight from JDBC
+     */
+    private static boolean isDuplicateKey(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DuplicateKeyException) {
+                return true;
+            }
+            if (cause instanceof ConstraintViolationException
+                    && "23505".equals(((ConstraintViolationException) cause).getSQLState())) {
+                return true;
+            }
+            if (cause instanceof SQLException && "23505".equals(((SQLException) cause).getSQLState())) {
+                return true;
+            }
+        }
+        return false;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,87 @@
+package com.emmett.customermanagement.web;
+
+import com.emmett.customermanagement.service.importer.ImportJob;
+import com.emmett.customermanagement.service.importer.ImportJobService;
+import com.emmett.customermanagement.service.importer.ImportRejection;
+import com.emmett.customermanagement.web.util.HeaderUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Progress and cancellation of background csv imports (see POST /api/customers/import-csv?async=true)
+ */
+@RestController
+@RequestMapping("/api")
+public class ImportJobResource {
+
+    private final Logger log = LoggerFactory.getLogger(ImportJobResource.class);
+
+    @Value("${spring.application.name}")
+    private String applicationName;
+
+    private static final String ENTITY_NAME = "importJob";
+
+    private final ImportJobService importJobService;
+
+    public ImportJobResource(ImportJobService importJobService) {
+        this.importJobService = importJobService;
+    }
+
+    @GetMapping("/import-jobs")
+    public ResponseEntity<Collection<ImportJob>> getAllImportJobs() {
+        log.debug("REST request to get all ImportJobs");
+        return ResponseEntity.ok().body(importJobService.findAll());
+    }
+
+    /**
+     * Rows parsed/saved/failed so far, throughput and an estimate of the time left
+     *
+     * @param id
+     * @return
+     */
+    @GetMapping("/import-jobs/{id}")
+    public ResponseEntity<ImportJob> getImportJob(@PathVariable String id) {
+        log.debug("REST request to get ImportJob : {}", id);
+        Optional<ImportJob> job = importJobService.findOne(id);
+        return job.map(response -> ResponseEntity.ok().body(response))
+                .orElse(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
+
+    /**
+     * Rows an UPSERT import left out and why, available while the import runs
+     *
+     * @param id
+     * @return
+     */
+    @GetMapping("/import-jobs/{id}/rejections")
+    public ResponseEntity<List<ImportRejection>> getImportJobRejections(@PathVariable String id) {
+        log.debug("REST request to get the rejections of ImportJob : {}", id);
+        Optional<ImportJob> job = importJobService.findOne(id);
+        return job.map(response -> ResponseEntity.ok().body(response.getResult().getRejections()))
+                .orElse(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
+
+    /**
+     * Cancels an import. Cancellation of a running import is asynchronous, poll the job until it is CANCELLED
+     *
+     * @param id
+     * @return
+     */
+    @DeleteMapping("/import-jobs/{id}")
+    public ResponseEntity<ImportJob> cancelImportJob(@PathVariable String id) {
+        log.debug("REST request to cancel ImportJob : {}", id);
+        Optional<ImportJob> job = importJobService.cancel(id);
+        return job.map(response -> ResponseEntity.accepted()
+                        .headers(HeaderUtil.createEntityDeletionAlert(applicationName, false, ENTITY_NAME, id))
+                        .body(response))
+                .orElse(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
+}
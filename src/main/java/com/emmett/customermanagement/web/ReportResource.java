@@ -4,9 +4,8 @@ import com.emmett.customermanagement.domain.Customer;
 import com.emmett.customermanagement.domain.Report;
 import com.emmett.customermanagement.domain.enumeration.ReportType;
 import com.emmett.customermanagement.repository.jpa.CustomerRepository;
-import com.emmett.customermanagement.repository.jpa.ReportRepository;
 import com.emmett.customermanagement.service.CustomerService;
-import com.emmett.customermanagement.service.ReportService;
+import com.emmett.customermanagement.service.ReportRefresher;
 import com.emmett.customermanagement.web.errors.BadRequestAlertException;
 import com.emmett.customermanagement.web.util.HeaderUtil;
 import org.hibernate.exception.ConstraintViolationException;
@@ -23,6 +22,7 @@ import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -37,33 +37,38 @@ public class ReportResource {
 
     private static final String ENTITY_NAME = "report";
 
-    private final ReportService reportService;
-
-    private final ReportRepository reportRepository;
+    private final ReportRefresher reportRefresher;
 
     public ReportResource(
-            ReportService reportService,
-            ReportRepository reportRepository
+            ReportRefresher reportRefresher
     ) {
-        this.reportService = reportService;
-        this.reportRepository = reportRepository;
+        this.reportRefresher = reportRefresher;
     }
 
 
+    /**
+     * The report as it was last prepared, with its age in seconds in the Age header. A report older than
+     * application.reports.max-staleness is refreshed in the background, and served as it is meanwhile
+     * @param reportType
+     * @return
+     */
     @GetMapping("/reports/{reportType}")
     public ResponseEntity<Report> getReport(@PathVariable(required = true) ReportType reportType) {
         log.debug("REST request to get Report : {}", reportType);
 
         //Optional<Report> report = reportRepository.findOne(reportType);
-        Optional<Report> report = reportRepository.findByReportType(reportType);
-        return report.map(response -> ResponseEntity.ok().body(response))
+        Optional<Report> report = reportRefresher.get(reportType);
+        return report.map(response -> ResponseEntity.ok()
+                        .header(HttpHeaders.AGE, String.valueOf(ReportRefresher.age(response).getSeconds()))
+                        .body(response))
                 .orElse(new ResponseEntity<>(HttpStatus.NOT_FOUND));
 
     }
 
     /**
-     * Prepares a report - typically this would be run once a day at night. It calculates the report
-     * and 'caches' it to the report table where it can be read quickly from our GET api
+     * Prepares a report - typically this is run once a day at night, see application.reports. It calculates the report
+     * and 'caches' it to the report table where it can be read quickly from our GET api. A PUT arriving while the
+     * same report is being prepared waits for that rather than preparing it again
      * @param reportType
      * @return
      * @throws URISyntaxException
@@ -75,7 +80,7 @@ public class ReportResource {
         log.debug("REST request to update ReportType : {}", reportType);
 
 
-        reportService.prepareReport(reportType);
+        reportRefresher.refresh(reportType);
 
         return ResponseEntity
                 .noContent()
@@ -85,5 +90,25 @@ public class ReportResource {
 
     }
 
+    /**
+     * Prepares every report at once, from one read of the aggregates the reports are worked out from
+     * @param recount true to recount those aggregates from the customer table first, in one scan. Worth doing now
+     *                and again (nightly, say) in case anything wrote to the table without going through the API
+     * @return the reports
+     */
+    @PutMapping("/reports")
+    public ResponseEntity<List<Report>> updateAllReports(
+            @RequestParam(value = "recount", defaultValue = "false") boolean recount
+    ) {
+        log.debug("REST request to update all reports, recount : {}", recount);
+
+        List<Report> reports = reportRefresher.refreshAll(recount);
+
+        return ResponseEntity
+                .ok()
+                .headers(HeaderUtil.createEntityUpdateAlert(applicationName, false, ENTITY_NAME, "all"))
+                .body(reports);
+    }
+
 
 }
@@ -0,0 +1,66 @@
+package com.emmett.customermanagement.web.util;
+
+import com.emmett.customermanagement.domain.Customer;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+/**
+ * Utility class for the ETags of customers and of pages of customers, derived from the audit dates and the rows
+ * listed rather than from the serialized response body.
+ */
+public final class ETagUtil {
+
+    private ETagUtil() {
+    }
+
+    /**
+     * Strong ETag of a customer: its id and when it was last written. Every write through the API sets updatedAt
+     */
+    public static String customerETag(Customer customer) {
+        Instant version = customer.getUpdatedAt() != null ? customer.getUpdatedAt() : customer.getCreatedAt();
+        return "\"" + customer.getId() + "-" + version(version) + "\"";
+    }
+
+    /**
+     * Weak ETag of a page of customers, from what the response is made of: the versions of the rows on the page,
+     * whether there is a next page and the total count if there is one. A write that moves rows into or out of the
+     * page, or changes one on it, changes one of those; a write elsewhere in the list only changes the ETag through
+     * the count
+     * @param count the X-Total-Count, null if the response has none
+     * @param rowVersions per row of the page, what changes when the row does
+     */
+    public static String listETag(Long count, boolean hasNext, List<String> rowVersions) {
+        StringBuilder page = new StringBuilder().append(count).append(';').append(hasNext);
+        rowVersions.forEach(version -> page.append(';').append(version));
+        return "W/\"" + DigestUtils.md5DigestAsHex(page.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    /**
+     * @param ifMatch the If-Match header, a list of ETags or *
+     * @return true if the header has the ETag, by the strong comparison If-Match calls for
+     */
+    public static boolean matches(String ifMatch, String etag) {
+        for (String candidate : ifMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || (!candidate.startsWith("W/") && candidate.equals(etag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * to the microsecond, which is what the db keeps
+     */
+    private static String version(Instant instant) {
+        if (instant == null) {
+            return "0";
+        }
+        Instant micros = instant.truncatedTo(ChronoUnit.MICROS);
+        return Long.toHexString(micros.getEpochSecond()) + "." + Integer.toHexString(micros.getNano() / 1000);
+    }
+}
@@ -0,0 +1,45 @@
+package com.emmett.customermanagement.web.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Continuation token of the keyset pagination of customers: the (name, id) of the last customer on a page.
+ * Clients get it as an opaque url-safe string in the next link and hand it back as is
+ */
+public final class KeysetCursor {
+
+    private final String name;
+
+    private final long id;
+
+    public KeysetCursor(String name, long id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String encode() {
+        byte[] bytes = (id + ":" + name).getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token is not one of ours
+     */
+    public static KeysetCursor decode(String token) {
+        String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        int separator = decoded.indexOf(':');
+        if (separator < 1) {
+            throw new IllegalArgumentException("Invalid cursor " + token);
+        }
+        return new KeysetCursor(decoded.substring(separator + 1), Long.parseLong(decoded.substring(0, separator)));
+    }
+}
@@ -1,6 +1,7 @@
 package com.emmett.customermanagement.web.util;
 
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.HttpHeaders;
 import org.springframework.web.util.UriComponentsBuilder;
 
@@ -22,30 +23,77 @@ public final class PaginationUtil {
     }
 
     public static HttpHeaders generatePaginationHttpHeaders(Page page, String baseUrl) {
+        return generatePaginationHttpHeaders(page, UriComponentsBuilder.fromUriString(baseUrl));
+    }
+
+    /**
+     * @param uriBuilder the request, its query parameters (other than the page and size) carry over to the links
+     */
+    public static HttpHeaders generatePaginationHttpHeaders(Page page, UriComponentsBuilder uriBuilder) {
 
         HttpHeaders headers = new HttpHeaders();
         headers.add("X-Total-Count", "" + Long.toString(page.getTotalElements()));
         String link = "";
         if ((page.getNumber() + 1) < page.getTotalPages()) {
-            link = "<" + generateUri(baseUrl, page.getNumber() + 1, page.getSize()) + ">; rel=\"next\",";
+            link = "<" + generateUri(uriBuilder, page.getNumber() + 1, page.getSize()) + ">; rel=\"next\",";
         }
         // prev link
         if ((page.getNumber()) > 0) {
-            link += "<" + generateUri(baseUrl, page.getNumber() - 1, page.getSize()) + ">; rel=\"prev\",";
+            link += "<" + generateUri(uriBuilder, page.getNumber() - 1, page.getSize()) + ">; rel=\"prev\",";
         }
         // last and first link
         int lastPage = 0;
         if (page.getTotalPages() > 0) {
             lastPage = page.getTotalPages() - 1;
         }
-        link += "<" + generateUri(baseUrl, lastPage, page.getSize()) + ">; rel=\"last\",";
-        link += "<" + generateUri(baseUrl, 0, page.getSize()) + ">; rel=\"first\"";
+        link += "<" + generateUri(uriBuilder, lastPage, page.getSize()) + ">; rel=\"last\",";
+        link += "<" + generateUri(uriBuilder, 0, page.getSize()) + ">; rel=\"first\"";
+        headers.add(HttpHeaders.LINK, link);
+        return headers;
+    }
+
+    /**
+     * Headers for a page that was fetched without counting the rows: next (while there is a next page), prev and
+     * first links, but no X-Total-Count nor last link
+     */
+    public static HttpHeaders generateSlicePaginationHttpHeaders(Slice<?> slice, UriComponentsBuilder uriBuilder) {
+
+        HttpHeaders headers = new HttpHeaders();
+        String link = "";
+        if (slice.hasNext()) {
+            link = "<" + generateUri(uriBuilder, slice.getNumber() + 1, slice.getSize()) + ">; rel=\"next\",";
+        }
+        if (slice.hasPrevious()) {
+            link += "<" + generateUri(uriBuilder, slice.getNumber() - 1, slice.getSize()) + ">; rel=\"prev\",";
+        }
+        link += "<" + generateUri(uriBuilder, 0, slice.getSize()) + ">; rel=\"first\"";
         headers.add(HttpHeaders.LINK, link);
         return headers;
     }
 
-    private static String generateUri(String baseUrl, int page, int size) {
-        return UriComponentsBuilder.fromUriString(baseUrl).queryParam("page", page).queryParam("size", size).toUriString();
+    /**
+     * Headers for a page of keyset pagination: a link to the next page, carrying its cursor, while there is one,
+     * and to the first. There is no total count nor a last page, working them out is the cost keyset pagination avoids
+     * @param nextCursor cursor of the page after this one
+     */
+    public static HttpHeaders generateKeysetPaginationHttpHeaders(Slice<?> slice, String nextCursor, UriComponentsBuilder uriBuilder) {
+
+        HttpHeaders headers = new HttpHeaders();
+        String link = "";
+        if (slice.hasNext()) {
+            link = "<" + generateCursorUri(uriBuilder, nextCursor, slice.getSize()) + ">; rel=\"next\",";
+        }
+        link += "<" + generateCursorUri(uriBuilder, "", slice.getSize()) + ">; rel=\"first\"";
+        headers.add(HttpHeaders.LINK, link);
+        return headers;
+    }
+
+    private static String generateCursorUri(UriComponentsBuilder uriBuilder, String cursor, int size) {
+        return uriBuilder.replaceQueryParam("cursor", cursor).replaceQueryParam("size", size).toUriString();
+    }
+
+    private static String generateUri(UriComponentsBuilder uriBuilder, int page, int size) {
+        return uriBuilder.replaceQueryParam("page", page).replaceQueryParam("size", size).toUriString();
     }
 
-}
\ No newline at end of file
+}
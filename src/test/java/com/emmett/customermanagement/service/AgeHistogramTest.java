@@ -0,0 +1,54 @@
+package com.emmett.customermanagement.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.Period;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+class AgeHistogramTest {
+
+    @Test
+    void percentilesAreTheNearestRank() {
+        AgeHistogram histogram = new AgeHistogram();
+        for (int age = 1; age <= 100; age++) {
+            histogram.add(age);
+        }
+
+        assertThat(histogram.percentile(50)).isEqualTo(50);
+        assertThat(histogram.percentile(90)).isEqualTo(90);
+        assertThat(histogram.percentile(99)).isEqualTo(99);
+        assertThat(histogram.percentile(100)).isEqualTo(100);
+        assertThat(new AgeHistogram().percentile(50)).isEqualTo(-1);
+    }
+
+    @Test
+    void mergedHistogramsAreTheHistogramOfTheWhole() {
+        AgeHistogram young = new AgeHistogram();
+        young.add(20);
+        young.add(20);
+        AgeHistogram old = new AgeHistogram();
+        old.add(80);
+        old.add(200);
+
+        AgeHistogram all = new AgeHistogram().merge(young).merge(old);
+
+        assertThat(all.getCustomers()).isEqualTo(4);
+        assertThat(all.getCounts()).containsExactly(
+                entry(20, 2L),
+                entry(80, 1L),
+                entry(AgeHistogram.MAX_AGE, 1L));
+        assertThat(all.percentile(50)).isEqualTo(20);
+    }
+
+    @Test
+    void agesAreWholeYears() {
+        LocalDate day = LocalDate.of(2022, 3, 1);
+        for (LocalDate birthDate : new LocalDate[]{
+                LocalDate.of(2000, 2, 29), LocalDate.of(2000, 3, 1), LocalDate.of(2000, 3, 2), LocalDate.of(1999, 12, 31)}) {
+            assertThat(AgeHistogram.age(birthDate, day)).isEqualTo(Period.between(birthDate, day).getYears());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.emmett.customermanagement.service;
+
+import com.emmett.customermanagement.config.ApplicationProperties;
+import com.emmett.customermanagement.repository.jpa.CustomerRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class CustomerCounterTest {
+
+    private final CustomerRepository customerRepository = mock(CustomerRepository.class);
+
+    private CustomerCounter customerCounter;
+
+    @BeforeEach
+    void init() {
+        customerCounter = new CustomerCounter(customerRepository, new ApplicationProperties());
+        when(customerRepository.count()).thenReturn(10L);
+    }
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void countsOnceThenKeepsCount() {
+        assertThat(customerCounter.get()).isEqualTo(10L);
+        customerCounter.add(2);
+        customerCounter.add(-1);
+
+        assertThat(customerCounter.get()).isEqualTo(11L);
+        verify(customerRepository, times(1)).count();
+
+        customerCounter.invalidate();
+        assertThat(customerCounter.get()).isEqualTo(10L);
+        verify(customerRepository, times(2)).count();
+    }
+
+    @Test
+    void appliesTransactionalChangesOnCommit() {
+        assertThat(customerCounter.get()).isEqualTo(10L);
+
+        TransactionSynchronizationManager.initSynchronization();
+        customerCounter.add(5);
+        assertThat(customerCounter.get()).isEqualTo(10L);
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        assertThat(customerCounter.get()).isEqualTo(15L);
+
+        // rolled back
+        TransactionSynchronizationManager.clearSynchronization();
+        TransactionSynchronizationManager.initSynchronization();
+        customerCounter.add(5);
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        assertThat(customerCounter.get()).isEqualTo(15L);
+    }
+}
@@ -3,6 +3,8 @@ package com.emmett.customermanagement.service;
 import com.emmett.customermanagement.domain.Customer;
 import com.emmett.customermanagement.domain.enumeration.Gender;
 import com.emmett.customermanagement.repository.jpa.CustomerRepository;
+import com.emmett.customermanagement.service.cache.CustomerCache;
+import com.emmett.customermanagement.service.search.CustomerNameIndex;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
@@ -13,6 +15,7 @@ import static org.mockito.Mockito.*;
 
 import java.time.Instant;
 import java.time.LocalDate;
+import java.util.Optional;
 
 public class CustomerServiceTest {
 
@@ -22,6 +25,21 @@ public class CustomerServiceTest {
     @Mock
     CustomerRepository customerRepository;
 
+    @Mock
+    ExternalCustomerIdFilter externalCustomerIdFilter;
+
+    @Mock
+    CustomerCounter customerCounter;
+
+    @Mock
+    CustomerNameIndex customerNameIndex;
+
+    @Mock
+    CustomerCache customerCache;
+
+    @Mock
+    CustomerAggregates customerAggregates;
+
     @BeforeEach
     public void init() throws Exception{
 
@@ -44,5 +62,25 @@ public class CustomerServiceTest {
         //verify expecations
         assertThat(returned).isEqualTo(customer);
 		verify(customerRepository, timeout(1)).save(customer);
+		verify(externalCustomerIdFilter).add("externalId");
+		verify(customerCounter).add(1);
+		verify(customerNameIndex).put(customer);
+    }
+
+    @Test
+    void findOneIsCached() {
+        Customer customer = new Customer("unit test", Gender.FEMALE,
+                "externalId", LocalDate.ofEpochDay(0L), Instant.now());
+        customer.setId(1L);
+        when(customerCache.get(1L)).thenReturn(Optional.empty());
+        when(customerCache.generation()).thenReturn(7L);
+        when(customerRepository.findById(1L)).thenReturn(Optional.of(customer));
+
+        assertThat(customerService.findOne(1L)).contains(customer);
+        verify(customerCache).put(customer, 7L);
+
+        when(customerCache.get(1L)).thenReturn(Optional.of(customer));
+        assertThat(customerService.findOne(1L)).contains(customer);
+        verify(customerRepository, times(1)).findById(1L);
     }
 }
@@ -0,0 +1,88 @@
+package com.emmett.customermanagement.service.cache;
+
+import com.emmett.customermanagement.config.ApplicationProperties;
+import com.emmett.customermanagement.domain.Customer;
+import com.emmett.customermanagement.domain.enumeration.Gender;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CustomerCacheTest {
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void cachesCopiesByIdAndExternalId() {
+        CustomerCache cache = cache(10);
+        Customer customer = customer(1L);
+        cache.put(customer, cache.generation());
+        customer.setName("changed by the caller");
+
+        assertThat(cache.get(1L)).hasValueSatisfying(cached -> assertThat(cached.getName()).isEqualTo("Customer 1"));
+        assertThat(cache.getByExternalCustomerId("ext1")).isPresent();
+        assertThat(cache.get(2L)).isEmpty();
+        assertThat(cache.stats().getHits()).isEqualTo(2);
+        assertThat(cache.stats().getMisses()).isEqualTo(1);
+
+        TransactionSynchronizationManager.initSynchronization();
+        cache.invalidate(1L);
+        assertThat(cache.get(1L)).isEmpty();
+        assertThat(cache.getByExternalCustomerId("ext1")).isEmpty();
+
+        // read before the write committed
+        long generation = cache.generation();
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        cache.put(customer(1L), generation);
+        assertThat(cache.get(1L)).isEmpty();
+    }
+
+    @Test
+    void admitsFrequentlyReadCustomers() {
+        CustomerCache cache = cache(2);
+        for (long id = 1; id <= 2; id++) {
+            cache.put(customer(id), cache.generation());
+            for (int i = 0; i < 5; i++) {
+                cache.get(id);
+            }
+        }
+
+        // read once, not worth evicting either of the others
+        cache.put(customer(3L), cache.generation());
+        assertThat(cache.get(3L)).isEmpty();
+        assertThat(cache.stats().getRejections()).isEqualTo(1);
+
+        // each miss is read from the db and offered to the cache, until it is read more than the eldest
+        for (int i = 0; i < 10; i++) {
+            if (!cache.get(4L).isPresent()) {
+                cache.put(customer(4L), cache.generation());
+            }
+        }
+        assertThat(cache.get(4L)).isPresent();
+        assertThat(cache.stats().getEvictions()).isEqualTo(1);
+        assertThat(cache.stats().getSize()).isEqualTo(2);
+    }
+
+    private static CustomerCache cache(int maximumSize) {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getCache().setMaximumSize(maximumSize);
+        return new CustomerCache(applicationProperties);
+    }
+
+    private static Customer customer(long id) {
+        Customer customer = new Customer("Customer " + id, Gender.MALE, "ext" + id, LocalDate.ofEpochDay(0L), Instant.now());
+        customer.setId(id);
+        return customer;
+    }
+}
@@ -0,0 +1,160 @@
+package com.emmett.customermanagement.service.importer;
+
+import com.emmett.customermanagement.domain.Customer;
+import com.emmett.customermanagement.domain.enumeration.Gender;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CustomerCsvParserTest {
+
+    private static final String[] HEADER = {"name", "gender", "birthDate", "externalCustomerId"};
+
+    @Test
+    void parsesImportFormat() {
+        List<Customer> customers = parse(HEADER, "Joe Soap,MALE,1977-08-30,js@gmail.com\r\n" +
+                "\"Soap, Josephine \"\"Jo\"\"\",female,1997-08-30,\n");
+
+        assertThat(customers).hasSize(2);
+        assertThat(customers.get(0).getName()).isEqualTo("Joe Soap");
+        assertThat(customers.get(0).getGender()).isEqualTo(Gender.MALE);
+        assertThat(customers.get(0).getBirthDate()).isEqualTo(LocalDate.of(1977, 8, 30));
+        assertThat(customers.get(0).getExternalCustomerId()).isEqualTo("js@gmail.com");
+        assertThat(customers.get(1).getName()).isEqualTo("Soap, Josephine \"Jo\"");
+        assertThat(customers.get(1).getGender()).isEqualTo(Gender.FEMALE);
+        assertThat(customers.get(1).getExternalCustomerId()).isEmpty();
+    }
+
+    @Test
+    void parsesColumnsInHeaderOrder() {
+        List<Customer> customers = parse(new String[]{"externalCustomerId", "birthDate", "name", "gender"},
+                "x1,2001-02-03,Ann Other,FEMALE");
+
+        assertThat(customers).hasSize(1);
+        assertThat(customers.get(0).getName()).isEqualTo("Ann Other");
+        assertThat(customers.get(0).getBirthDate()).isEqualTo(LocalDate.of(2001, 2, 3));
+        assertThat(customers.get(0).getExternalCustomerId()).isEqualTo("x1");
+    }
+
+    @Test
+    void emptyGenderAndDateAreNull() {
+        List<Customer> customers = parse(HEADER, "Joe Soap,,,js@gmail.com\n");
+
+        assertThat(customers.get(0).getGender()).isNull();
+        assertThat(customers.get(0).getBirthDate()).isNull();
+    }
+
+    @Test
+    void rejectsBadValues() {
+        assertThatThrownBy(() -> parse(HEADER, "Joe Soap,MALE,1977-08-30,a\nJoe Soap,MALE,30/08/1977,b\n"))
+                .isInstanceOf(InvalidCsvRowException.class)
+                .extracting("row").isEqualTo(2L);
+        assertThatThrownBy(() -> parse(HEADER, "Joe Soap,MALE,1977-02-30,a\n"))
+                .isInstanceOf(InvalidCsvRowException.class);
+        assertThatThrownBy(() -> parse(HEADER, "Joe Soap,OTHER,1977-08-30,a\n"))
+                .isInstanceOf(InvalidCsvRowException.class);
+        assertThatThrownBy(() -> parse(HEADER, "Joe Soap,MALE,1977-08-30\n"))
+                .isInstanceOf(InvalidCsvRowException.class);
+        assertThatThrownBy(() -> parse(HEADER, "Joe Soap,MALE,1977-08-30,a,b\n"))
+                .isInstanceOf(InvalidCsvRowException.class);
+    }
+
+    @Test
+    void rejectsBadRowsAndCarriesOn() {
+        byte[] bytes = ("Joe Soap,MALE,1977-08-30,a\n" +
+                "Joe Soap,OTHER,1977-08-30,b\n" +
+                "\"Joe\nSoap\"x,MALE,1977-08-30,c\n" +
+                "Joe Soap,MALE,1977-08-30\n" +
+                "Joe Soap,FEMALE,1977-08-30,e\n").getBytes(StandardCharsets.UTF_8);
+        List<Long> rejected = new ArrayList<>();
+
+        ParsedRows parsed = CustomerCsvParser.forHeader(HEADER).parse(new ByteBlock(ByteBuffer.wrap(bytes), 1, 5),
+                (customer, row) -> { }, (row, externalCustomerId, cause) -> rejected.add(row));
+
+        assertThat(rejected).containsExactly(2L, 3L, 4L);
+        assertThat(parsed.size()).isEqualTo(2);
+        assertThat(parsed.customers.get(1).getExternalCustomerId()).isEqualTo("e");
+        assertThat(parsed.row(1)).isEqualTo(5L);
+    }
+
+    @Test
+    void onlyHandlesCustomerColumns() {
+        assertThat(CustomerCsvParser.forHeader(HEADER)).isNotNull();
+        assertThat(CustomerCsvParser.forHeader(new String[]{"name", "gender", "birthDate", "phone"})).isNull();
+        assertThat(CustomerCsvParser.forHeader(new String[]{"name", "name"})).isNull();
+    }
+
+    @Test
+    void blocksEndOnRecordBoundaries() throws Exception {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            csv.append("\"Name\nline ").append(i).append("\",MALE,1977-08-30,id").append(i).append('\n');
+        }
+        ByteBlockSource source = new ByteBlockSource(new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)), 64);
+        CustomerCsvParser parser = CustomerCsvParser.forHeader(HEADER);
+
+        List<Customer> customers = new ArrayList<>();
+        List<Long> rows = new ArrayList<>();
+        ByteBlock block;
+        while ((block = source.next()) != null) {
+            customers.addAll(parser.parse(block, (customer, row) -> rows.add(row), null).customers);
+        }
+
+        assertThat(customers).hasSize(50);
+        assertThat(customers.get(49).getName()).isEqualTo("Name\nline 49");
+        assertThat(rows.get(49)).isEqualTo(50L);
+    }
+
+    @Test
+    void blocksOfMappedFile() throws Exception {
+        StringBuilder csv = new StringBuilder("name,gender,birthDate,externalCustomerId\n");
+        for (int i = 0; i < 50; i++) {
+            csv.append("\"Name\nline ").append(i).append("\",MALE,1977-08-30,id").append(i).append('\n');
+        }
+        csv.append("last,FEMALE,1980-01-01,idlast");
+        int headerEnd = csv.indexOf("\n") + 1;
+        Path file = Files.createTempFile("customer-csv-parser-test", ".csv");
+        try {
+            Files.write(file, csv.toString().getBytes(StandardCharsets.UTF_8));
+            MappedByteBuffer mapped;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            List<Long> progress = new ArrayList<>();
+            MappedBlockSource source = new MappedBlockSource(mapped, headerEnd, 64, progress::add);
+            CustomerCsvParser parser = CustomerCsvParser.forHeader(HEADER);
+
+            List<Customer> customers = new ArrayList<>();
+            ByteBlock block;
+            while ((block = source.next()) != null) {
+                customers.addAll(parser.parse(block, (customer, row) -> { }, null).customers);
+            }
+
+            assertThat(customers).hasSize(51);
+            assertThat(customers.get(49).getName()).isEqualTo("Name\nline 49");
+            assertThat(customers.get(50).getExternalCustomerId()).isEqualTo("idlast");
+            assertThat(progress.get(progress.size() - 1)).isEqualTo(Files.size(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<Customer> parse(String[] header, String csv) {
+        byte[] bytes = csv.getBytes(StandardCharsets.UTF_8);
+        return CustomerCsvParser.forHeader(header).parse(new ByteBlock(ByteBuffer.wrap(bytes), 1, 0), (customer, row) -> {
+        }, null).customers;
+    }
+}
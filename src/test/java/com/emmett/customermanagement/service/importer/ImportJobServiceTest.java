@@ -0,0 +1,102 @@
+package com.emmett.customermanagement.service.importer;
+
+import com.emmett.customermanagement.config.ApplicationProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ImportJobServiceTest {
+
+    private final CustomerImportService customerImportService = mock(CustomerImportService.class);
+
+    private final ThreadPoolTaskExecutor importTaskExecutor = executor();
+
+    private final ImportJobService importJobService = new ImportJobService(customerImportService,
+            importTaskExecutor, new ApplicationProperties());
+
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void shutdown() {
+        release.countDown();
+        importTaskExecutor.shutdown();
+    }
+
+    @Test
+    void aRunningJobIsFinishedByItsOwnThread() throws Exception {
+        when(customerImportService.importCsv(any(Path.class), any(), any(), any())).thenAnswer(invocation -> {
+            BooleanSupplier cancelled = invocation.getArgument(2);
+            started.countDown();
+            while (!cancelled.getAsBoolean()) {
+                Thread.sleep(1);
+            }
+            // still reading the file, still holding its transaction
+            release.await(5, TimeUnit.SECONDS);
+            throw new CustomerImportException(invocation.getArgument(1), new CancellationException("Import cancelled"));
+        });
+        ImportJob job = importJobService.submit(upload(), ImportMode.ATOMIC);
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        importJobService.cancel(job.getId());
+        assertThat(job.isCancelRequested()).isTrue();
+        assertThat(job.getStatus()).isEqualTo(ImportJob.Status.RUNNING);
+        assertThat(job.isFinished()).isFalse();
+        assertThat(job.getSpoolFile()).exists();
+
+        release.countDown();
+        job.getFuture().get(5, TimeUnit.SECONDS);
+        assertThat(job.getStatus()).isEqualTo(ImportJob.Status.CANCELLED);
+        assertThat(job.getSpoolFile()).doesNotExist();
+    }
+
+    @Test
+    void aQueuedJobIsCancelledStraightAway() throws Exception {
+        when(customerImportService.importCsv(any(Path.class), any(), any(), any())).thenAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return invocation.getArgument(1);
+        });
+        ImportJob running = importJobService.submit(upload(), ImportMode.ATOMIC);
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        ImportJob queued = importJobService.submit(upload(), ImportMode.ATOMIC);
+
+        importJobService.cancel(queued.getId());
+        assertThat(queued.getStatus()).isEqualTo(ImportJob.Status.CANCELLED);
+        assertThat(queued.getSpoolFile()).doesNotExist();
+
+        release.countDown();
+        running.getFuture().get(5, TimeUnit.SECONDS);
+        assertThat(running.getStatus()).isEqualTo(ImportJob.Status.COMPLETED);
+        // a second finish does not count
+        queued.completed();
+        assertThat(queued.getStatus()).isEqualTo(ImportJob.Status.CANCELLED);
+        verify(customerImportService, times(1)).importCsv(any(Path.class), any(), any(), any());
+    }
+
+    private static MockMultipartFile upload() {
+        return new MockMultipartFile("file", "customers.csv", "text/csv",
+                "name,gender,birthDate,externalCustomerId\n".getBytes());
+    }
+
+    private static ThreadPoolTaskExecutor executor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(1);
+        executor.initialize();
+        return executor;
+    }
+}
@@ -0,0 +1,75 @@
+package com.emmett.customermanagement.service.importer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ImportPipelineTest {
+
+    private final ThreadPoolTaskExecutor executor = executor(4);
+
+    private final Semaphore threads = new Semaphore(4);
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void writesBlocksInFileOrder() throws InterruptedException {
+        AtomicLong next = new AtomicLong();
+        Random random = new Random();
+        List<Long> written = new ArrayList<>();
+
+        new ImportPipeline<Long>(3, 2, executor, threads).run(
+                () -> next.get() < 100 ? next.getAndIncrement() : null,
+                block -> {
+                    // later blocks often finish first
+                    Thread.sleep(random.nextInt(3));
+                    ParsedRows rows = new ParsedRows(1);
+                    rows.add(null, block);
+                    return rows;
+                },
+                rows -> written.add(rows.row(0)),
+                () -> false);
+
+        assertThat(written).hasSize(100).isSorted();
+        // the stages give their permits back as they end
+        assertThat(threads.tryAcquire(4, 5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void givesTheThreadsBackAfterAFailure() throws InterruptedException {
+        AtomicLong next = new AtomicLong();
+
+        assertThatThrownBy(() -> new ImportPipeline<Long>(3, 2, executor, threads).run(
+                () -> next.get() < 100 ? next.getAndIncrement() : null,
+                block -> {
+                    throw new IllegalArgumentException("bad block " + block);
+                },
+                rows -> { },
+                () -> false))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThat(threads.tryAcquire(4, 5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static ThreadPoolTaskExecutor executor(int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(threads);
+        executor.initialize();
+        return executor;
+    }
+}
@@ -0,0 +1,92 @@
+package com.emmett.customermanagement.service.search;
+
+import com.emmett.customermanagement.config.ApplicationProperties;
+import com.emmett.customermanagement.domain.Customer;
+import com.emmett.customermanagement.domain.enumeration.Gender;
+import com.emmett.customermanagement.repository.jdbc.CustomerJdbcRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class CustomerNameIndexTest {
+
+    private final CustomerJdbcRepository customerJdbcRepository = mock(CustomerJdbcRepository.class);
+
+    private final ThreadPoolTaskExecutor searchIndexTaskExecutor = mock(ThreadPoolTaskExecutor.class);
+
+    private final ApplicationProperties applicationProperties = new ApplicationProperties();
+
+    private final CustomerNameIndex customerNameIndex = new CustomerNameIndex(customerJdbcRepository,
+            applicationProperties, searchIndexTaskExecutor);
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void staysStaleForAWriteThatCommitsAfterARebuildReadTheTable() {
+        TransactionSynchronizationManager.initSynchronization();
+        customerNameIndex.invalidate();
+
+        // the rebuild reads the table before the write commits
+        customerNameIndex.rebuild();
+        customerNameIndex.search("name", 10);
+        verify(searchIndexTaskExecutor, never()).execute(any());
+
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        customerNameIndex.search("name", 10);
+        verify(searchIndexTaskExecutor).execute(any());
+    }
+
+    @Test
+    void appliesTheNamesOfATransactionWhenItCommits() {
+        applicationProperties.getSearch().setMaxPendingChanges(3);
+        TransactionSynchronizationManager.initSynchronization();
+        customerNameIndex.putAll(List.of(customer(1L, "Joe Soap"), customer(2L, "Jane Soap")));
+        customerNameIndex.put(customer(3L, "Jim Soap"));
+        assertThat(customerNameIndex.search("Soap", 10)).isEmpty();
+
+        commit();
+        assertThat(customerNameIndex.search("Soap", 10)).hasSize(3);
+        verify(searchIndexTaskExecutor, never()).execute(any());
+    }
+
+    @Test
+    void dropsTheNamesOfATransactionWritingTooManyForARebuild() {
+        applicationProperties.getSearch().setMaxPendingChanges(3);
+        TransactionSynchronizationManager.initSynchronization();
+        customerNameIndex.putAll(List.of(customer(1L, "Joe Soap"), customer(2L, "Jane Soap")));
+        customerNameIndex.putAll(List.of(customer(3L, "Jim Soap"), customer(4L, "Jill Soap")));
+
+        commit();
+        assertThat(customerNameIndex.search("Soap", 10)).isEmpty();
+        verify(searchIndexTaskExecutor).execute(any());
+    }
+
+    private static void commit() {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        synchronizations.forEach(TransactionSynchronization::afterCommit);
+        synchronizations.forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+    }
+
+    private static Customer customer(long id, String name) {
+        Customer customer = new Customer(name, Gender.MALE, null, LocalDate.of(1987, 3, 1), Instant.now());
+        customer.setId(id);
+        return customer;
+    }
+}
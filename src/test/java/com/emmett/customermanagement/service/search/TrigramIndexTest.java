@@ -0,0 +1,48 @@
+package com.emmett.customermanagement.service.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TrigramIndexTest {
+
+    @Test
+    void findsPartialAndMisspelledNamesBestFirst() {
+        TrigramIndex index = new TrigramIndex();
+        index.put(1, "Joe Soap");
+        index.put(2, "Josephine Soap");
+        index.put(3, "Ann Other");
+        index.put(4, "Zoë Bloggs");
+
+        assertThat(ids(index.search("soap", 10, 0.5))).containsExactly(1L, 2L);
+        assertThat(ids(index.search("Josphine", 10, 0.5))).containsExactly(2L);
+        assertThat(ids(index.search("zoe blogs", 10, 0.5))).containsExactly(4L);
+        assertThat(ids(index.search("joe soap", 1, 0.5))).containsExactly(1L);
+        assertThat(index.search("joe soap", 10, 0.5).get(0).getScore()).isEqualTo(1.0);
+        assertThat(index.search("xyz", 10, 0.5)).isEmpty();
+        assertThat(index.search("  ", 10, 0.5)).isEmpty();
+    }
+
+    @Test
+    void renamesAndRemoves() {
+        TrigramIndex index = new TrigramIndex();
+        index.put(1, "Joe Soap");
+        index.put(2, "Ann Other");
+        index.put(1, "Joe Bloggs");
+        index.remove(2);
+
+        assertThat(index.search("soap", 10, 0.5)).isEmpty();
+        assertThat(ids(index.search("bloggs", 10, 0.5))).containsExactly(1L);
+        assertThat(index.search("other", 10, 0.5)).isEmpty();
+        assertThat(index.size()).isEqualTo(1);
+        assertThat(index.documents()).isEqualTo(3);
+        assertThat(index.estimatedBytes()).isPositive();
+    }
+
+    private static List<Long> ids(List<NameMatch> matches) {
+        return matches.stream().map(NameMatch::getId).collect(Collectors.toList());
+    }
+}
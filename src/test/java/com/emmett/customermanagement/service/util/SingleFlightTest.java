@@ -0,0 +1,124 @@
+package com.emmett.customermanagement.service.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SingleFlightTest {
+
+    @Test
+    void concurrentCallersShareOneRun() throws Exception {
+        SingleFlight<String, Integer> flights = new SingleFlight<>();
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Map<String, Integer> results = new ConcurrentHashMap<>();
+
+        Thread leader = new Thread(() -> results.put("leader", flights.execute("report", () -> {
+            started.countDown();
+            await(release);
+            return runs.incrementAndGet();
+        })));
+        leader.start();
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        List<Thread> followers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            String name = "follower" + i;
+            Thread follower = new Thread(() -> results.put(name, flights.execute("report", runs::incrementAndGet)));
+            follower.start();
+            followers.add(follower);
+        }
+        // until they all wait for the leader's run
+        for (Thread follower : followers) {
+            while (follower.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+        release.countDown();
+
+        leader.join(5000);
+        for (Thread follower : followers) {
+            follower.join(5000);
+        }
+        assertThat(results).hasSize(4).containsOnlyKeys("leader", "follower0", "follower1", "follower2");
+        assertThat(results.values()).containsOnly(1);
+
+        // the run is over, the next one runs again
+        assertThat(flights.isRunning("report")).isFalse();
+        assertThat(flights.execute("report", runs::incrementAndGet)).isEqualTo(2);
+    }
+
+    @Test
+    void failuresAreSharedAndNotKept() {
+        SingleFlight<String, Integer> flights = new SingleFlight<>();
+        assertThatThrownBy(() -> flights.execute("report", () -> {
+            throw new IllegalStateException("no customers");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(flights.execute("report", () -> 1)).isEqualTo(1);
+        assertThat(flights.submit("other", () -> 2, Runnable::run).join()).isEqualTo(2);
+    }
+
+    @Test
+    void aRunOfSeveralKeysWaitsForAndIsSharedByEachOfThem() throws Exception {
+        SingleFlight<String, Integer> flights = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        Thread single = new Thread(() -> flights.execute("b", () -> {
+            started.countDown();
+            await(release);
+            order.add("b");
+            return 1;
+        }));
+        single.start();
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        Map<String, Integer> results = new ConcurrentHashMap<>();
+        Thread all = new Thread(() -> results.putAll(flights.executeAll(List.of("a", "b"), () -> {
+            order.add("all");
+            return Map.of("a", 10, "b", 20);
+        }, Function.identity())));
+        all.start();
+        // holding "a", waiting for the run of "b"
+        while (all.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        assertThat(flights.isRunning("a")).isTrue();
+        Thread follower = new Thread(() -> results.put("follower", flights.execute("a", () -> -1)));
+        follower.start();
+        while (follower.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        single.join(5000);
+        all.join(5000);
+        follower.join(5000);
+        assertThat(order).containsExactly("b", "all");
+        assertThat(results).containsEntry("a", 10).containsEntry("b", 20).containsEntry("follower", 10);
+        assertThat(flights.isRunning("a")).isFalse();
+        assertThat(flights.isRunning("b")).isFalse();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -4,7 +4,14 @@ import com.emmett.customermanagement.CustomermanagementApplication;
 import com.emmett.customermanagement.TestUtil;
 import com.emmett.customermanagement.domain.Customer;
 import com.emmett.customermanagement.domain.enumeration.Gender;
+import com.emmett.customermanagement.repository.jpa.CustomerAggregateRepository;
 import com.emmett.customermanagement.repository.jpa.CustomerRepository;
+import com.emmett.customermanagement.service.CustomerAggregates;
+import com.emmett.customermanagement.service.CustomerService;
+import com.emmett.customermanagement.service.CustomerTotals;
+import com.emmett.customermanagement.web.errors.PreconditionFailedAlertException;
+import com.emmett.customermanagement.web.util.ETagUtil;
+import com.jayway.jsonpath.JsonPath;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,17 +20,40 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.persistence.EntityManager;
+import java.io.ByteArrayOutputStream;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.nullValue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -66,6 +96,21 @@ public class CustomerResourceIntegrationTest {
     @Autowired
     private CustomerRepository customerRepository;
 
+    @Autowired
+    private CustomerService customerService;
+
+    @Autowired
+    private CustomerAggregates customerAggregates;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private CustomerAggregateRepository customerAggregateRepository;
+
+    @Autowired
+    private EntityManager em;
+
     @Autowired
     private MockMvc restCustomerMockMvc;
 
@@ -127,6 +172,411 @@ public class CustomerResourceIntegrationTest {
         assertThat(customerList).hasSize(databaseSizeBeforeCreate + 2);
     }
 
+    @Test
+    @Transactional
+    void importCsvWithExtraColumns() throws Exception {
+        int databaseSizeBeforeCreate = customerRepository.findAll().size();
+
+        // not the import format, so this goes through opencsv which ignores the unknown column
+        StringBuilder fileContentBuilder = new StringBuilder();
+        fileContentBuilder.append("name,phone,gender,birthDate,externalCustomerId\n")
+                .append("Joe Soap,555-1234,MALE,1977-08-30,extra1@gmail.com\n")
+                .append("Josephine Soap,555-9876,FEMALE,1997-08-30,extra2@gmail.com\n");
+
+        MockMultipartFile multipartFile = new MockMultipartFile("file", "test.txt",
+                "text/csv", fileContentBuilder.toString().getBytes());
+
+        restCustomerMockMvc
+                .perform(multipart(ENTITY_API_URL + "/import-csv").file(multipartFile))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.saved").value(2));
+
+        List<Customer> customerList = customerRepository.findAll();
+        assertThat(customerList).hasSize(databaseSizeBeforeCreate + 2);
+    }
+
+    @Test
+    @Transactional
+    void importCsvChunked() throws Exception {
+        int databaseSizeBeforeCreate = customerRepository.findAll().size();
+
+        StringBuilder fileContentBuilder = new StringBuilder("name,gender,birthDate,externalCustomerId\n");
+        for (int i = 0; i < 25; i++) {
+            fileContentBuilder.append("Chunk Soap ").append(i).append(",FEMALE,1987-03-01,chunk").append(i).append("@gmail.com\n");
+        }
+
+        MockMultipartFile multipartFile = new MockMultipartFile("file", "test.txt",
+                "text/csv", fileContentBuilder.toString().getBytes());
+
+        restCustomerMockMvc
+                .perform(multipart(ENTITY_API_URL + "/import-csv").file(multipartFile).param("mode", "CHUNKED"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.saved").value(25))
+                .andExpect(jsonPath("$.chunks").value(2));
+
+        List<Customer> customerList = customerRepository.findAll();
+        assertThat(customerList).hasSize(databaseSizeBeforeCreate + 25);
+    }
+
+    @Test
+    @Transactional
+    void importCsvUpsertKeepsFileOrderAcrossBlocks() throws Exception {
+        // many blocks of a row or two, parsed on several threads
+        StringBuilder fileContentBuilder = new StringBuilder("name,gender,birthDate,externalCustomerId\n");
+        fileContentBuilder.append("First Soap,MALE,1970-01-01,repeat@gmail.com\n");
+        for (int i = 0; i < 30; i++) {
+            fileContentBuilder.append("Order Soap ").append(i).append(",FEMALE,1987-03-01,order").append(i).append("@gmail.com\n");
+        }
+        fileContentBuilder.append("Last Soap,FEMALE,1980-01-01,repeat@gmail.com\n");
+
+        MockMultipartFile multipartFile = new MockMultipartFile("file", "test.txt",
+                "text/csv", fileContentBuilder.toString().getBytes());
+
+        restCustomerMockMvc
+                .perform(multipart(ENTITY_API_URL + "/import-csv").file(multipartFile).param("mode", "UPSERT"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.saved").value(32));
+
+        em.clear();
+        // the last row with the external id wins
+        List<Customer> repeated = customerRepository.findAllByExternalCustomerIdIn(Collections.singletonList("repeat@gmail.com"));
+        assertThat(repeated).extracting(Customer::getName).containsExactly("Last Soap");
+
+        // inserted in file order
+        List<String> externalIds = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            externalIds.add("order" + i + "@gmail.com");
+        }
+        List<Long> ids = customerRepository.findAllByExternalCustomerIdIn(externalIds).stream()
+                .sorted(Comparator.comparingInt(c -> externalIds.indexOf(c.getExternalCustomerId())))
+                .map(Customer::getId)
+                .collect(Collectors.toList());
+        assertThat(ids).hasSize(30).isSorted();
+    }
+
+    @Test
+    @Transactional
+    void importCsvGzipped() throws Exception {
+        int databaseSizeBeforeCreate = customerRepository.findAll().size();
+
+        StringBuilder fileContentBuilder = new StringBuilder("name,gender,birthDate,externalCustomerId\n");
+        for (int i = 0; i < 25; i++) {
+            fileContentBuilder.append("Gzip Soap ").append(i).append(",FEMALE,1987-03-01,gzip").append(i).append("@gmail.com\n");
+        }
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(fileContentBuilder.toString().getBytes());
+        }
+
+        MockMultipartFile multipartFile = new MockMultipartFile("file", "test.csv.gz",
+                "application/gzip", gzipped.toByteArray());
+
+        restCustomerMockMvc
+                .perform(multipart(ENTITY_API_URL + "/import-csv").file(multipartFile))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.saved").value(25));
+
+        List<Customer> customerList = customerRepository.findAll();
+        assertThat(customerList).hasSize(databaseSizeBeforeCreate + 25);
+
+        // a gzip header followed by garbage
+        MockMultipartFile corruptFile = new MockMultipartFile("file", "test.csv.gz",
+                "application/gzip", Arrays.copyOf(gzipped.toByteArray(), 40));
+        restCustomerMockMvc
+                .perform(multipart(ENTITY_API_URL + "/import-csv").file(corruptFile))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("error.invalidgzip"));
+    }
+
+    @Test
+    @Transactional
+    void importCsvWithInvalidRow() throws Exception {
+        int databaseSizeBeforeCreate = customerRepository.findAll().size();
+
+        StringBuilder fileContentBuilder = new StringBuilder();
+        fileContentBuilder.append("name,gender,birthDate,externalCustomerId\n")
+                .append("Joe Soap,MALE,1977-08-30,invalid1@gmail.com\n")
+                .append("Jo,FEMALE,1997-08-30,invalid2@gmail.com\n");
+
+        MockMultipartFile multipartFile = new MockMultipartFile("file", "test.txt",
+                "text/csv", fileContentBuilder.toString().getBytes());
+
+        // name is too short on the second row, so nothing is saved
+        restCustomerMockMvc
+                .perform(multipart(ENTITY_API_URL + "/import-csv").file(multipartFile))
+                .andExpect(status().isBadRequest());
+
+        List<Customer> customerList = customerRepository.findAll();
+        assertThat(customerList).hasSize(databaseSizeBeforeCreate);
+    }
+
+    @Test
+    @Transactional
+    void importCsvWithDuplicateExternalIds() throws Exception {
+        // saved through the service, which keeps the filter of existing ids up to date
+        customer.setExternalCustomerId("taken@gmail.com");
+        customerService.save(customer);
+        int databaseSizeBeforeCreate = customerRepository.findAll().size();
+
+        StringBuilder fileContentBuilder = new StringBuilder("name,gender,birthDate,externalCustomerId\n");
+        for (int i = 0; i < 30; i++) {
+            fileContentBuilder.append("Dup Soap ").append(i).append(",MALE,1987-03-01,dup").append(i).append("@gmail.com\n");
+        }
+        fileContentBuilder.append("Dup Soap,MALE,1987-03-01,dup3@gmail.com\n")
+                .append("Dup Soap,MALE,1987-03-01,taken@gmail.com\n");
+
+        MockMultipartFile multipartFile = new MockMultipartFile("file", "test.txt",
+                "text/csv", fileContentBuilder.toString().getBytes());
+
+        // the duplicate check finds both clashes before a single row is written, even for a CHUNKED import held in memory
+        restCustomerMockMvc
+                .perform(multipart(ENTITY_API_URL + "/import-csv").file(multipartFile).param("mode", "CHUNKED"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("error.externalIdexists"))
+                .andExpect(jsonPath("$.title").value("2 rows have an externalCustomerId that is taken: "
+                        + "row 31 (dup3@gmail.com) duplicates row 4, row 32 (taken@gmail.com) exists already"));
+
+        List<Customer> customerList = customerRepository.findAll();
+        assertThat(customerList).hasSize(databaseSizeBeforeCreate);
+    }
+
+    @Test
+    @Transactional
+    void importCsvOfMoreTakenIdsThanAChunk() throws Exception {
+        // saved through the service, which keeps the filter of existing ids up to date
+        for (int i = 0; i < 25; i++) {
+            customerService.save(new Customer("Taken Soap " + i, Gender.MALE, "taken" + i + "@gmail.com",
+                    LocalDate.of(1987, 3, 1), Instant.now()));
+        }
+        int databaseSizeBeforeCreate = customerRepository.findAll().size();
+
+        // looked up in the db in chunks of 20 as the file is read, the repeat of a taken id is reported as taken
+        StringBuilder fileContentBuilder = new StringBuilder("name,gender,birthDate,externalCustomerId\n");
+        for (int i = 0; i < 25; i++) {
+            fileContentBuilder.append("Dup Soap ").append(i).append(",MALE,1987-03-01,taken").append(i).append("@gmail.com\n");
+        }
+        fileContentBuilder.append("Dup Soap,MALE,1987-03-01,taken0@gmail.com\n");
+
+        MockMultipartFile multipartFile = new MockMultipartFile("file", "test.txt",
+                "text/csv", fileContentBuilder.toString().getBytes());
+
+        restCustomerMockMvc
+                .perform(multipart(ENTITY_API_URL + "/import-csv").file(multipartFile))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("error.externalIdexists"))
+                .andExpect(jsonPath("$.title").value("26 rows have an externalCustomerId that is taken: "
+                        + "row 1 (taken0@gmail.com) exists already, row 2 (taken1@gmail.com) exists already, "
+                        + "row 3 (taken2@gmail.com) exists already, row 4 (taken3@gmail.com) exists already, "
+                        + "row 5 (taken4@gmail.com) exists already, ..."));
+
+        List<Customer> customerList = customerRepository.findAll();
+        assertThat(customerList).hasSize(databaseSizeBeforeCreate);
+    }
+
+    @Test
+    @Transactional
+    void importCsvWithMoreDuplicatesThanAChunk() throws Exception {
+        int databaseSizeBeforeCreate = customerRepository.findAll().size();
+
+        // more repeated ids than the chunk size of 20; large enough to be spooled to disk
+        StringBuilder fileContentBuilder = new StringBuilder("name,gender,birthDate,externalCustomerId\n");
+        for (int i = 0; i < 60; i++) {
+            fileContentBuilder.append("Dup Soap ").append(i).append(",MALE,1987-03-01,round-dup").append(i % 30).append("@gmail.com\n");
+        }
+
+        MockMultipartFile multipartFile = new MockMultipartFile("file", "test.txt",
+                "text/csv", fileContentBuilder.toString().getBytes());
+
+        restCustomerMockMvc
+                .perform(multipart(ENTITY_API_URL + "/import-csv").file(multipartFile))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("error.externalIdexists"))
+                .andExpect(jsonPath("$.title").value("30 rows have an externalCustomerId that is taken: "
+                        + "row 31 (round-dup0@gmail.com) duplicates row 1, row 32 (round-dup1@gmail.com) duplicates row 2, "
+                        + "row 33 (round-dup2@gmail.com) duplicates row 3, row 34 (round-dup3@gmail.com) duplicates row 4, "
+                        + "row 35 (round-dup4@gmail.com) duplicates row 5, ..."));
+
+        List<Customer> customerList = customerRepository.findAll();
+        assertThat(customerList).hasSize(databaseSizeBeforeCreate);
+    }
+
+    @Test
+    void importCsvWithUnparsableRow() throws Exception {
+        int databaseSizeBeforeCreate = customerRepository.findAll().size();
+
+        StringBuilder fileContentBuilder = new StringBuilder("name,gender,birthDate,externalCustomerId\n");
+        for (int i = 0; i < 30; i++) {
+            fileContentBuilder.append("Bad Soap ").append(i).append(i == 27 ? ",UNKNOWN" : ",MALE").append(",1987-03-01,bad").append(i).append("@gmail.com\n");
+        }
+
+        MockMultipartFile multipartFile = new MockMultipartFile("file", "test.txt",
+                "text/csv", fileContentBuilder.toString().getBytes());
+
+        // not run in a test transaction, so this checks the ATOMIC import rolled back the chunk written before the bad row
+        restCustomerMockMvc
+                .perform(multipart(ENTITY_API_URL + "/import-csv").file(multipartFile))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("error.invalidcsv"));
+
+        List<Customer> customerList = customerRepository.findAll();
+        assertThat(customerList).hasSize(databaseSizeBeforeCreate);
+    }
+
+    @Test
+    @Transactional
+    void importCsvUpsert() throws Exception {
+        customer.setExternalCustomerId("upsert1@gmail.com");
+        customerService.save(customer);
+        int databaseSizeBeforeCreate = customerRepository.findAll().size();
+        List<Long> drift = aggregatesDrift();
+
+        StringBuilder fileContentBuilder = new StringBuilder();
+        fileContentBuilder.append("name,gender,birthDate,externalCustomerId\n")
+                .append(UPDATED_NAME).append(",MALE,1970-01-01,upsert1@gmail.com\n")
+                .append("Upsert Soap,FEMALE,1980-01-01,upsert2@gmail.com\n")
+                .append("Jo,FEMALE,1997-08-30,upsert3@gmail.com\n")
+                .append("Upsert Soap,OTHER,1997-08-30,upsert4@gmail.com\n");
+
+        MockMultipartFile multipartFile = new MockMultipartFile("file", "test.txt",
+                "text/csv", fileContentBuilder.toString().getBytes());
+
+        // the existing customer is updated, the new one inserted and the bad rows are reported rather than fail the import
+        restCustomerMockMvc
+                .perform(multipart(ENTITY_API_URL + "/import-csv").file(multipartFile).param("mode", "UPSERT"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.saved").value(2))
+                .andExpect(jsonPath("$.unchanged").value(0))
+                .andExpect(jsonPath("$.rejected").value(2))
+                .andExpect(jsonPath("$.rejections[*].row", containsInAnyOrder(3, 4)))
+                .andExpect(jsonPath("$.rejections[*].externalCustomerId", hasItem("upsert3@gmail.com")));
+
+        em.clear();
+        List<Customer> customerList = customerRepository.findAll();
+        assertThat(customerList).hasSize(databaseSizeBeforeCreate + 1);
+        Customer testCustomer = customerRepository.findById(customer.getId()).get();
+        assertThat(testCustomer.getName()).isEqualTo(UPDATED_NAME);
+        assertThat(testCustomer.getUpdatedAt()).isNotNull();
+        assertThat(aggregatesDrift()).isEqualTo(drift);
+
+        // sending the same file again changes nothing
+        restCustomerMockMvc
+                .perform(multipart(ENTITY_API_URL + "/import-csv").file(multipartFile).param("mode", "UPSERT"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.saved").value(0))
+                .andExpect(jsonPath("$.unchanged").value(2))
+                .andExpect(jsonPath("$.rejected").value(2));
+
+        assertThat(customerRepository.findAll()).hasSize(databaseSizeBeforeCreate + 1);
+        assertThat(aggregatesDrift()).isEqualTo(drift);
+    }
+
+    /**
+     * @return per gender, how far the aggregates kept up to date by the writes are from what a recount would make
+     * them: customers, then birth epoch days. Other tests may leave writes behind that went around the service
+     */
+    private List<Long> aggregatesDrift() {
+        CustomerTotals totals = customerAggregates.totals();
+        Map<Gender, long[]> counted = new EnumMap<>(Gender.class);
+        for (Object[] row : customerAggregateRepository.countByGender()) {
+            counted.put(Gender.valueOf((String) row[0]), new long[]{((Number) row[1]).longValue(), ((Number) row[2]).longValue()});
+        }
+        List<Long> drift = new ArrayList<>();
+        for (Gender gender : Gender.values()) {
+            long[] count = counted.getOrDefault(gender, new long[2]);
+            drift.add(count[0] - totals.getCustomers(gender));
+            drift.add(count[1] - totals.getBirthEpochDays(gender));
+        }
+        return drift;
+    }
+
+    @Test
+    void exportCustomersCsv() throws Exception {
+        // the export reads committed rows on another thread, so these are committed and cleaned up afterwards
+        List<Customer> exported = customerRepository.saveAll(Arrays.asList(
+                new Customer("Export, Soap", Gender.MALE, "export1@gmail.com", DEFAULT_BIRTH_DATE, Instant.now()),
+                new Customer("Export Soap II", Gender.FEMALE, null, UPDATED_BIRTH_DATE, Instant.now())));
+        try {
+            MvcResult mvcResult = restCustomerMockMvc
+                    .perform(get(ENTITY_API_URL + "/export"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            String csv = restCustomerMockMvc
+                    .perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType("text/csv"))
+                    .andReturn().getResponse().getContentAsString();
+
+            assertThat(csv).isEqualTo("name,gender,birthDate,externalCustomerId\n"
+                    + "\"Export, Soap\",MALE," + DEFAULT_BIRTH_DATE + ",export1@gmail.com\n"
+                    + "Export Soap II,FEMALE," + UPDATED_BIRTH_DATE + ",\n");
+        } finally {
+            customerRepository.deleteAll(exported);
+        }
+    }
+
+    @Test
+    void exportCustomersNdjson() throws Exception {
+        List<Customer> exported = customerRepository.saveAll(Arrays.asList(
+                new Customer("Export Soap", Gender.MALE, "export1@gmail.com", DEFAULT_BIRTH_DATE, Instant.now()),
+                new Customer("Export Soap II", Gender.FEMALE, "export2@gmail.com", UPDATED_BIRTH_DATE, Instant.now())));
+        try {
+            MvcResult mvcResult = restCustomerMockMvc
+                    .perform(get(ENTITY_API_URL + "/export").param("format", "NDJSON"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            String ndjson = restCustomerMockMvc
+                    .perform(asyncDispatch(mvcResult))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+
+            String[] lines = ndjson.split("\n");
+            assertThat(lines).hasSize(2);
+            assertThat((Integer) JsonPath.read(lines[0], "$.id")).isEqualTo(exported.get(0).getId().intValue());
+            assertThat((String) JsonPath.read(lines[1], "$.externalCustomerId")).isEqualTo("export2@gmail.com");
+            assertThat((String) JsonPath.read(lines[1], "$.birthDate")).isEqualTo(UPDATED_BIRTH_DATE.toString());
+        } finally {
+            customerRepository.deleteAll(exported);
+        }
+    }
+
+    @Test
+    void importCsvAsync() throws Exception {
+        int databaseSizeBeforeCreate = customerRepository.findAll().size();
+
+        StringBuilder fileContentBuilder = new StringBuilder();
+        fileContentBuilder.append("name,gender,birthDate,externalCustomerId\n")
+                .append("Async Soap,MALE,1977-08-30,async1@gmail.com\n")
+                .append("Async Soap II,FEMALE,1997-08-30,async2@gmail.com\n");
+
+        MockMultipartFile multipartFile = new MockMultipartFile("file", "test.txt",
+                "text/csv", fileContentBuilder.toString().getBytes());
+
+        String location = restCustomerMockMvc
+                .perform(multipart(ENTITY_API_URL + "/import-csv").file(multipartFile).param("async", "true"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.id").exists())
+                .andReturn().getResponse().getHeader("Location");
+
+        // poll the job until the background import has finished
+        String jobStatus = null;
+        for (int i = 0; i < 100 && !"COMPLETED".equals(jobStatus); i++) {
+            Thread.sleep(50);
+            jobStatus = JsonPath.read(restCustomerMockMvc.perform(get(location))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString(), "$.status");
+        }
+        assertThat(jobStatus).isEqualTo("COMPLETED");
+        restCustomerMockMvc.perform(get(location)).andExpect(jsonPath("$.saved").value(2));
+
+        // the import committed in its own transaction, so clean up after ourselves
+        List<Customer> customerList = customerRepository.findAll();
+        assertThat(customerList).hasSize(databaseSizeBeforeCreate + 2);
+        customerService.deleteAll(customerList.stream()
+                .filter(c -> c.getExternalCustomerId() != null && c.getExternalCustomerId().startsWith("async"))
+                .map(Customer::getId)
+                .collect(Collectors.toList()));
+    }
+
     @Test
     @Transactional
     void createCustomerWithExistingId() throws Exception {
@@ -213,6 +663,32 @@ public class CustomerResourceIntegrationTest {
                 .andExpect(jsonPath("$.externalCustomerId").value(DEFAULT_EXTERNAL_CUSTOMER_ID));
     }
 
+    @Test
+    void getCustomerIsCached() throws Exception {
+        // committed, customers read in a transaction that writes are not cached
+        Customer cached = customerService.save(
+                new Customer("Cached Customer", Gender.MALE, "cached@gmail.com", DEFAULT_BIRTH_DATE, null));
+        try {
+            restCustomerMockMvc.perform(get(ENTITY_API_URL_ID, cached.getId())).andExpect(status().isOk());
+            int hits = JsonPath.read(restCustomerMockMvc.perform(get(ENTITY_API_URL + "/cache/stats"))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString(), "$.hits");
+            restCustomerMockMvc.perform(get(ENTITY_API_URL_ID, cached.getId())).andExpect(status().isOk());
+            restCustomerMockMvc
+                    .perform(get(ENTITY_API_URL + "/cache/stats"))
+                    .andExpect(jsonPath("$.hits").value(hits + 1));
+
+            cached.setName("Cached Renamed");
+            customerService.save(cached);
+            restCustomerMockMvc
+                    .perform(get(ENTITY_API_URL_ID, cached.getId()))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.name").value("Cached Renamed"));
+        } finally {
+            customerService.delete(cached.getId());
+        }
+    }
+
     @Test
     @Transactional
     void getNonExistingCustomer() throws Exception {
@@ -350,4 +826,369 @@ public class CustomerResourceIntegrationTest {
                 .andExpect(jsonPath("$.[*].birthDate").value(hasItem(DEFAULT_BIRTH_DATE.toString())))
                 .andExpect(jsonPath("$.[*].externalCustomerId").value(hasItem(DEFAULT_EXTERNAL_CUSTOMER_ID)));
     }
+
+    @Test
+    @Transactional
+    void getAllCustomersByCursor() throws Exception {
+        // same name twice, the id breaks the tie
+        customerRepository.saveAll(Arrays.asList(
+                new Customer("Keyset B", Gender.MALE, "keyset1@gmail.com", DEFAULT_BIRTH_DATE, Instant.now()),
+                new Customer("Keyset A", Gender.MALE, "keyset2@gmail.com", DEFAULT_BIRTH_DATE, Instant.now()),
+                new Customer("Keyset B", Gender.FEMALE, "keyset3@gmail.com", DEFAULT_BIRTH_DATE, Instant.now())));
+        customerRepository.flush();
+
+        MvcResult first = restCustomerMockMvc
+                .perform(get(ENTITY_API_URL + "?cursor=&size=2"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Total-Count"))
+                .andExpect(jsonPath("$.[*].externalCustomerId").value(contains("keyset2@gmail.com", "keyset1@gmail.com")))
+                .andReturn();
+        String next = nextLink(first.getResponse().getHeader("Link"));
+        assertThat(next).startsWith("/api/customers?cursor=");
+
+        MvcResult second = restCustomerMockMvc
+                .perform(get(next))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.[*].externalCustomerId").value(contains("keyset3@gmail.com")))
+                .andReturn();
+        assertThat(nextLink(second.getResponse().getHeader("Link"))).isNull();
+
+        restCustomerMockMvc
+                .perform(get(ENTITY_API_URL + "?cursor=not-a-cursor"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Transactional
+    void getAllCustomersWithoutTotal() throws Exception {
+        customerRepository.saveAll(Arrays.asList(
+                new Customer("Slice A", Gender.MALE, "slice1@gmail.com", DEFAULT_BIRTH_DATE, Instant.now()),
+                new Customer("Slice B", Gender.MALE, "slice2@gmail.com", DEFAULT_BIRTH_DATE, Instant.now()),
+                new Customer("Slice C", Gender.FEMALE, "slice3@gmail.com", DEFAULT_BIRTH_DATE, Instant.now())));
+        customerRepository.flush();
+
+        restCustomerMockMvc
+                .perform(get(ENTITY_API_URL + "?page=0&size=2&total=false"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Total-Count"))
+                .andExpect(header().string("Link", "</api/customers?total=false&page=1&size=2>; rel=\"next\","
+                        + "</api/customers?total=false&page=0&size=2>; rel=\"first\""))
+                .andExpect(jsonPath("$.[*].externalCustomerId").value(contains("slice1@gmail.com", "slice2@gmail.com")));
+    }
+
+    @Test
+    @Transactional
+    void getAllCustomersByCriteria() throws Exception {
+        customerRepository.saveAll(Arrays.asList(
+                new Customer("Filter_Ann", Gender.FEMALE, "filter1@gmail.com", LocalDate.of(1990, 1, 1), Instant.now()),
+                new Customer("Filter_Bob", Gender.MALE, "filter2@gmail.com", LocalDate.of(1990, 6, 1), Instant.now()),
+                new Customer("Filter_Cat", Gender.FEMALE, "filter3@gmail.com", LocalDate.of(2000, 1, 1), Instant.now()),
+                new Customer("FilterXDan", Gender.FEMALE, "filter4@gmail.com", LocalDate.of(1990, 1, 1), Instant.now())));
+        customerRepository.flush();
+
+        restCustomerMockMvc
+                .perform(get(ENTITY_API_URL + "?namePrefix=Filter_&gender=FEMALE&size=1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count", "2"))
+                .andExpect(header().string("Link", containsString("</api/customers?namePrefix=Filter_&gender=FEMALE&page=1&size=1>; rel=\"next\"")))
+                .andExpect(jsonPath("$.[*].externalCustomerId").value(contains("filter1@gmail.com")));
+
+        restCustomerMockMvc
+                .perform(get(ENTITY_API_URL + "?birthDateFrom=1990-01-01&birthDateTo=1991-01-01&externalCustomerId=filter1@gmail.com"
+                        + "&externalCustomerId=filter2@gmail.com&externalCustomerId=filter3@gmail.com&cursor="))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.[*].externalCustomerId").value(contains("filter1@gmail.com", "filter2@gmail.com")));
+
+        restCustomerMockMvc
+                .perform(get(ENTITY_API_URL + "?createdAtFrom=" + Instant.now().plusSeconds(60)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$").isEmpty());
+
+        // nothing narrows the gender down
+        restCustomerMockMvc
+                .perform(get(ENTITY_API_URL + "?gender=FEMALE"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void searchCustomers() throws Exception {
+        // committed, the index learns about writes when they commit
+        Customer found = customerService.save(
+                new Customer("Searchable McSearchface", Gender.MALE, "search1@gmail.com", DEFAULT_BIRTH_DATE, null));
+        Customer other = customerService.save(
+                new Customer("Searchable Other", Gender.FEMALE, "search2@gmail.com", DEFAULT_BIRTH_DATE, null));
+        try {
+            restCustomerMockMvc
+                    .perform(get(ENTITY_API_URL + "/search?q=serchable mcsearchface"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.[0].id").value(found.getId().intValue()))
+                    .andExpect(jsonPath("$.[*].id").value(hasItem(other.getId().intValue())));
+
+            customerService.delete(found.getId());
+            restCustomerMockMvc
+                    .perform(get(ENTITY_API_URL + "/search?q=mcsearchface"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$").isEmpty());
+
+            restCustomerMockMvc
+                    .perform(get(ENTITY_API_URL + "/search/stats"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.customers").isNumber())
+                    .andExpect(jsonPath("$.estimatedBytes").isNumber());
+        } finally {
+            customerRepository.deleteById(other.getId());
+            customerRepository.findById(found.getId()).ifPresent(customerRepository::delete);
+        }
+    }
+
+    @Test
+    @Transactional
+    void getCustomerFields() throws Exception {
+        customerRepository.saveAndFlush(customer);
+
+        restCustomerMockMvc
+                .perform(get(ENTITY_API_URL_ID + "?fields=name,birthDate", customer.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(customer.getId().intValue()))
+                .andExpect(jsonPath("$.name").value(DEFAULT_NAME))
+                .andExpect(jsonPath("$.birthDate").value(DEFAULT_BIRTH_DATE.toString()))
+                .andExpect(jsonPath("$.gender").doesNotExist())
+                .andExpect(jsonPath("$.externalCustomerId").doesNotExist());
+
+        restCustomerMockMvc
+                .perform(get(ENTITY_API_URL_ID + "?fields=name", Long.MAX_VALUE))
+                .andExpect(status().isNotFound());
+
+        restCustomerMockMvc
+                .perform(get(ENTITY_API_URL_ID + "?fields=name,password", customer.getId()))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Transactional
+    void getAllCustomerFields() throws Exception {
+        customerRepository.saveAll(Arrays.asList(
+                new Customer("Fields A", Gender.MALE, "fields1@gmail.com", DEFAULT_BIRTH_DATE, Instant.now()),
+                new Customer("Fields B", Gender.FEMALE, "fields2@gmail.com", DEFAULT_BIRTH_DATE, Instant.now())));
+        customerRepository.flush();
+
+        restCustomerMockMvc
+                .perform(get(ENTITY_API_URL + "?namePrefix=Fields&fields=externalCustomerId&size=1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count", "2"))
+                .andExpect(jsonPath("$.[0].externalCustomerId").value("fields1@gmail.com"))
+                .andExpect(jsonPath("$.[0].id").isNumber())
+                .andExpect(jsonPath("$.[0].name").doesNotExist());
+
+        MvcResult first = restCustomerMockMvc
+                .perform(get(ENTITY_API_URL + "?namePrefix=Fields&fields=gender&size=1&cursor="))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.[0].gender").value("MALE"))
+                .andExpect(jsonPath("$.[0].name").doesNotExist())
+                .andReturn();
+        restCustomerMockMvc
+                .perform(get(nextLink(first.getResponse().getHeader("Link"))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.[*].gender").value(contains("FEMALE")));
+    }
+
+    @Test
+    @Transactional
+    void getCustomersByIds() throws Exception {
+        Customer other = new Customer("Lookup B", Gender.FEMALE, "lookup2@gmail.com", DEFAULT_BIRTH_DATE, Instant.now());
+        customerRepository.saveAll(Arrays.asList(customer, other));
+        customerRepository.flush();
+
+        restCustomerMockMvc
+                .perform(get(ENTITY_API_URL + "?ids=" + other.getId() + "," + Long.MAX_VALUE + "," + customer.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.customers.length()").value(3))
+                .andExpect(jsonPath("$.customers[0].name").value("Lookup B"))
+                .andExpect(jsonPath("$.customers[1]").value(nullValue()))
+                .andExpect(jsonPath("$.customers[2].name").value(DEFAULT_NAME))
+                .andExpect(jsonPath("$.missing").value(contains(Long.MAX_VALUE)));
+
+        restCustomerMockMvc
+                .perform(post(ENTITY_API_URL + "/lookup").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"externalCustomerIds\":[\"lookup2@gmail.com\",\"nobody\",\"lookup2@gmail.com\"]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.customers[0].id").value(other.getId().intValue()))
+                .andExpect(jsonPath("$.customers[2].id").value(other.getId().intValue()))
+                .andExpect(jsonPath("$.missing").value(contains("nobody")));
+
+        restCustomerMockMvc
+                .perform(post(ENTITY_API_URL + "/lookup").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"ids\":[1,2,3,4,5,6,7,8,9,10,11]}"))
+                .andExpect(status().isBadRequest());
+        restCustomerMockMvc
+                .perform(post(ENTITY_API_URL + "/lookup").contentType(MediaType.APPLICATION_JSON).content("{}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void batchCreateUpdateDelete() throws Exception {
+        // committed chunk by chunk, so not in a test transaction
+        List<String> externalIds = Arrays.asList("batch1@gmail.com", "batch2@gmail.com");
+        try {
+            MvcResult created = restCustomerMockMvc
+                    .perform(post(ENTITY_API_URL + "/batch").contentType(MediaType.APPLICATION_JSON).content("[" +
+                            "{\"name\":\"Batch A\",\"gender\":\"MALE\",\"birthDate\":\"1977-08-30\",\"externalCustomerId\":\"batch1@gmail.com\"}," +
+                            "{\"name\":\"Batch no gender\",\"birthDate\":\"1977-08-30\"}," +
+                            "{\"name\":\"Batch B\",\"gender\":\"MALE\",\"birthDate\":\"1977-08-30\",\"externalCustomerId\":\"batch1@gmail.com\"}," +
+                            "{\"name\":\"Batch C\",\"gender\":\"FEMALE\",\"birthDate\":\"1987-08-30\",\"externalCustomerId\":\"batch2@gmail.com\"}," +
+                            "{\"name\":\"Batch D\",\"gender\":\"OTHER\",\"birthDate\":\"1987-08-30\"}]"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.counts.CREATED").value(2))
+                    .andExpect(jsonPath("$.counts.INVALID").value(2))
+                    .andExpect(jsonPath("$.counts.FAILED").value(1))
+                    .andExpect(jsonPath("$.items[*].status").value(contains("CREATED", "INVALID", "FAILED", "CREATED", "INVALID")))
+                    .andExpect(jsonPath("$.items[0].id").isNumber())
+                    .andReturn();
+            long a = ((Number) JsonPath.read(created.getResponse().getContentAsString(), "$.items[0].id")).longValue();
+            long c = ((Number) JsonPath.read(created.getResponse().getContentAsString(), "$.items[3].id")).longValue();
+
+            restCustomerMockMvc
+                    .perform(patch(ENTITY_API_URL + "/batch").contentType(MediaType.APPLICATION_JSON).content("[" +
+                            "{\"id\":" + a + ",\"name\":\"Batch A2\"}," +
+                            "{\"id\":" + Long.MAX_VALUE + ",\"name\":\"Batch X\"}," +
+                            "{\"id\":" + c + ",\"externalCustomerId\":\"batch1@gmail.com\"}," +
+                            "{\"id\":" + c + ",\"name\":\"B\"}]"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.items[*].status").value(contains("UPDATED", "NOT_FOUND", "FAILED", "INVALID")));
+            assertThat(customerRepository.findById(a).get().getName()).isEqualTo("Batch A2");
+            assertThat(customerRepository.findById(c).get().getExternalCustomerId()).isEqualTo("batch2@gmail.com");
+
+            restCustomerMockMvc
+                    .perform(delete(ENTITY_API_URL + "/batch").contentType(MediaType.APPLICATION_JSON)
+                            .content("[" + a + "," + c + "," + Long.MAX_VALUE + ",\"x\"]"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.items[*].status").value(contains("DELETED", "DELETED", "NOT_FOUND", "INVALID")));
+            assertThat(customerRepository.findAllByExternalCustomerIdIn(externalIds)).isEmpty();
+
+            restCustomerMockMvc
+                    .perform(post(ENTITY_API_URL + "/batch").contentType(MediaType.APPLICATION_JSON).content("{}"))
+                    .andExpect(status().isBadRequest());
+            restCustomerMockMvc
+                    .perform(delete(ENTITY_API_URL + "/batch").contentType(MediaType.APPLICATION_JSON).content("[1, {"))
+                    .andExpect(status().isBadRequest());
+        } finally {
+            customerService.deleteAll(customerRepository.findAllByExternalCustomerIdIn(externalIds).stream()
+                    .map(Customer::getId).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    @Transactional
+    void conditionalGetAndUpdate() throws Exception {
+        customerRepository.saveAndFlush(customer);
+        // read back what the db has, it keeps the dates to the microsecond
+        em.clear();
+
+        String etag = restCustomerMockMvc
+                .perform(get(ENTITY_API_URL_ID, customer.getId()))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andReturn().getResponse().getHeader("ETag");
+        restCustomerMockMvc
+                .perform(get(ENTITY_API_URL_ID, customer.getId()).header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        String listEtag = restCustomerMockMvc
+                .perform(get(ENTITY_API_URL + "?namePrefix=" + DEFAULT_NAME))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        assertThat(listEtag).startsWith("W/");
+        restCustomerMockMvc
+                .perform(get(ENTITY_API_URL + "?namePrefix=" + DEFAULT_NAME).header("If-None-Match", listEtag))
+                .andExpect(status().isNotModified());
+
+        Customer updatedCustomer = customerRepository.findById(customer.getId()).get();
+        em.detach(updatedCustomer);
+        updatedCustomer.setName(UPDATED_NAME);
+        String updatedEtag = restCustomerMockMvc
+                .perform(put(ENTITY_API_URL_ID, customer.getId())
+                        .header("If-Match", etag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(TestUtil.convertObjectToJsonBytes(updatedCustomer)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        assertThat(updatedEtag).isNotEqualTo(etag);
+
+        // the etag the client has is out of date now
+        Customer partialUpdatedCustomer = new Customer();
+        partialUpdatedCustomer.setId(customer.getId());
+        partialUpdatedCustomer.setName(DEFAULT_NAME);
+        restCustomerMockMvc
+                .perform(patch(ENTITY_API_URL_ID, customer.getId())
+                        .header("If-Match", etag)
+                        .contentType("application/merge-patch+json")
+                        .content(TestUtil.convertObjectToJsonBytes(partialUpdatedCustomer)))
+                .andExpect(status().isPreconditionFailed());
+        restCustomerMockMvc
+                .perform(get(ENTITY_API_URL_ID, customer.getId()).header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value(UPDATED_NAME));
+        // and so is that of the page it was listed on
+        restCustomerMockMvc
+                .perform(get(ENTITY_API_URL + "?namePrefix=" + DEFAULT_NAME).header("If-None-Match", listEtag))
+                .andExpect(status().isOk());
+        restCustomerMockMvc
+                .perform(get(ENTITY_API_URL + "?namePrefix=" + DEFAULT_NAME + "&total=false").header("If-None-Match", listEtag))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void concurrentUpdatesWithTheSameIfMatchLetOnlyOneThrough() throws Exception {
+        // not transactional, each update commits in a transaction of its own
+        Customer saved = customerService.save(new Customer(DEFAULT_NAME, DEFAULT_GENDER, null, DEFAULT_BIRTH_DATE, Instant.now()));
+        String etag = ETagUtil.customerETag(customerRepository.findById(saved.getId()).get());
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch firstSaved = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Future<?> first = executor.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+                customerService.save(updateOf(saved, "first"), etag);
+                firstSaved.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            assertThat(firstSaved.await(10, TimeUnit.SECONDS)).isTrue();
+
+            // waits for the first to commit, then finds the customer changed
+            Future<Customer> second = executor.submit(() -> customerService.save(updateOf(saved, "second"), etag));
+            Thread.sleep(300);
+            assertThat(second.isDone()).isFalse();
+            release.countDown();
+            first.get(10, TimeUnit.SECONDS);
+            assertThatThrownBy(() -> second.get(10, TimeUnit.SECONDS))
+                    .hasCauseInstanceOf(PreconditionFailedAlertException.class);
+
+            assertThat(customerRepository.findById(saved.getId()).get().getName()).isEqualTo("first");
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            customerService.deleteAll(Collections.singletonList(saved.getId()));
+        }
+    }
+
+    private static Customer updateOf(Customer customer, String name) {
+        Customer update = new Customer(name, customer.getGender(), customer.getExternalCustomerId(),
+                customer.getBirthDate(), customer.getCreatedAt());
+        update.setId(customer.getId());
+        return update;
+    }
+
+    private static String nextLink(String link) {
+        for (String part : link.split(",")) {
+            if (part.endsWith("rel=\"next\"")) {
+                return part.substring(part.indexOf('<') + 1, part.indexOf('>'));
+            }
+        }
+        return null;
+    }
 }
@@ -7,28 +7,50 @@ import com.emmett.customermanagement.domain.enumeration.Gender;
 import com.emmett.customermanagement.domain.enumeration.ReportType;
 import com.emmett.customermanagement.repository.jpa.CustomerRepository;
 import com.emmett.customermanagement.repository.jpa.ReportRepository;
+import com.emmett.customermanagement.service.CustomerAggregates;
+import com.emmett.customermanagement.service.CustomerService;
+import com.emmett.customermanagement.service.CustomerTotals;
 import com.emmett.customermanagement.service.ReportService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariDataSource;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.sql.DataSource;
 import java.time.Instant;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.Period;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.startsWith;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -59,12 +81,30 @@ public class ReportResourceIntegrationTest {
     @Autowired
     private ReportRepository reportRepository;
 
+    @Autowired
+    private CustomerService customerService;
+
     @Autowired
     private ReportService reportService;
 
     @Autowired
     private MockMvc restReportMockMvc;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ForkJoinPool reportForkJoinPool;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private CustomerAggregates customerAggregates;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     /**
      * lets create some males born on 1970-01-01 and some females born 10 years later
      */
@@ -88,7 +128,8 @@ public class ReportResourceIntegrationTest {
 
     @BeforeEach
     public void initTest() {
-        customerRepository.saveAll(this.customers);
+        // through the service, which keeps the aggregates the reports are worked out from
+        customerService.saveAll(this.customers);
     }
 
     @Test
@@ -115,7 +156,8 @@ public class ReportResourceIntegrationTest {
 
         restReportMockMvc
                 .perform(get(ENTITY_API_URL + "/AVG_AGE").contentType(MediaType.APPLICATION_JSON))
-                .andExpect(status().isOk());
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.AGE));
 
         // Validate the report in the db
         Optional<Report> report = reportRepository.findByReportType(ReportType.AVG_AGE);
@@ -186,4 +228,215 @@ public class ReportResourceIntegrationTest {
     }
 
 
+    @Test
+    @Transactional
+    void reportsFollowCustomerWrites() throws Exception {
+        // a male becomes a female born when the others were
+        Customer changed = new Customer();
+        changed.setId(this.customers.get(0).getId());
+        changed.setGender(Gender.FEMALE);
+        changed.setBirthDate(LocalDate.ofEpochDay(366 * 10));
+        customerService.partialUpdate(changed);
+
+        reportService.prepareReport(ReportType.AVG_AGE);
+        assertThat(reportRepository.findById(ReportType.AVG_AGE).get().getData())
+                .isEqualTo(String.valueOf(ageOfMeanBirthDate(4 * 0 + 6 * 366 * 10, 10)));
+
+        // and two females leave
+        customerService.delete(this.customers.get(5).getId());
+        customerService.delete(this.customers.get(6).getId());
+
+        reportService.prepareReport(ReportType.AVG_AGE);
+        reportService.prepareReport(ReportType.AVG_AGE_FEMALE);
+        assertThat(reportRepository.findById(ReportType.AVG_AGE).get().getData())
+                .isEqualTo(String.valueOf(ageOfMeanBirthDate(4 * 0 + 4 * 366 * 10, 8)));
+        assertThat(reportRepository.findById(ReportType.AVG_AGE_FEMALE).get().getData())
+                .isEqualTo(String.valueOf(this.expectedAverageFemaleAge));
+    }
+
+    @Test
+    @Transactional
+    void prepareAllReports() throws Exception {
+        // written around the service, so only a recount sees it
+        customerRepository.saveAndFlush(new Customer("male_6", Gender.MALE, null, LocalDate.ofEpochDay(366 * 10), Instant.now()));
+
+        restReportMockMvc
+                .perform(put(ENTITY_API_URL).contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(ReportType.values().length));
+        assertThat(reportRepository.findById(ReportType.AVG_AGE_MALE).get().getData())
+                .isEqualTo(String.valueOf(this.expectedAverageMaleAge));
+
+        restReportMockMvc
+                .perform(put(ENTITY_API_URL).param("recount", "true").contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[?(@.reportType == 'AVG_AGE_MALE')].data")
+                        .value(String.valueOf(ageOfMeanBirthDate(366 * 10, 6))))
+                .andExpect(jsonPath("$[?(@.reportType == 'AVG_AGE_FEMALE')].data")
+                        .value(String.valueOf(this.expectedAverageFemaleAge)))
+                .andExpect(jsonPath("$[?(@.reportType == 'AVG_AGE')].data")
+                        .value(String.valueOf(ageOfMeanBirthDate(6 * 366 * 10, 11))));
+
+        List<Report> reports = reportRepository.findAll();
+        assertThat(reports).extracting(Report::getReportDate).containsOnly(reports.get(0).getReportDate());
+    }
+
+    @Test
+    @Transactional
+    void getAgeDistributionReport() throws Exception {
+        int maleAge = Period.between(LocalDate.ofEpochDay(0L), LocalDate.now()).getYears();
+        int femaleAge = Period.between(LocalDate.ofEpochDay(366 * 10), LocalDate.now()).getYears();
+
+        reportService.prepareReport(ReportType.AGE_DISTRIBUTION);
+
+        // half the customers are no older than the females, the rest are the males
+        restReportMockMvc
+                .perform(get(ENTITY_API_URL + "/AGE_DISTRIBUTION").contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data").value(String.valueOf(femaleAge)))
+                .andExpect(jsonPath("$.distribution.customers").value(10))
+                .andExpect(jsonPath("$.distribution.p50").value(femaleAge))
+                .andExpect(jsonPath("$.distribution.p90").value(maleAge))
+                .andExpect(jsonPath("$.distribution.p99").value(maleAge))
+                .andExpect(jsonPath("$.distribution.histogram." + femaleAge).value(5))
+                .andExpect(jsonPath("$.distribution.histogram." + maleAge).value(5));
+
+        reportService.prepareReport(ReportType.AGE_DISTRIBUTION_MALE);
+
+        restReportMockMvc
+                .perform(get(ENTITY_API_URL + "/AGE_DISTRIBUTION_MALE").contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.distribution.customers").value(5))
+                .andExpect(jsonPath("$.distribution.p50").value(maleAge))
+                .andExpect(jsonPath("$.distribution.histogram.length()").value(1));
+
+        // the average reports have none
+        reportService.prepareReport(ReportType.AVG_AGE);
+        restReportMockMvc
+                .perform(get(ENTITY_API_URL + "/AVG_AGE").contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.distribution").doesNotExist());
+    }
+
+    @Test
+    void distributionReportIsScannedInParallelParts() throws Exception {
+        // not transactional, the parts are scanned on connections of their own and have to see the customers
+        int maleAge = Period.between(LocalDate.ofEpochDay(0L), LocalDate.now()).getYears();
+        int femaleAge = Period.between(LocalDate.ofEpochDay(366 * 10), LocalDate.now()).getYears();
+        assertThat(reportForkJoinPool.getParallelism())
+                .isLessThanOrEqualTo(((HikariDataSource) dataSource).getMaximumPoolSize() / 2);
+        try {
+            // 10 customers in parts of 3 ids
+            restReportMockMvc
+                    .perform(put(ENTITY_API_URL + "/AGE_DISTRIBUTION").contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isNoContent());
+
+            restReportMockMvc
+                    .perform(get(ENTITY_API_URL + "/AGE_DISTRIBUTION").contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.distribution.customers").value(10))
+                    .andExpect(jsonPath("$.distribution.histogram." + femaleAge).value(5))
+                    .andExpect(jsonPath("$.distribution.histogram." + maleAge).value(5));
+        } finally {
+            reportRepository.deleteById(ReportType.AGE_DISTRIBUTION);
+            customerService.deleteAll(this.customers.stream().map(Customer::getId).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void staleReportIsRefreshedInTheBackground() throws Exception {
+        // not transactional, the refresh runs on another thread and has to see the customers
+        Report report = reportService.prepareReport(ReportType.AVG_AGE_MALE);
+        try {
+            report.setReportDate(LocalDateTime.now().minusDays(2));
+            reportRepository.save(report);
+
+            // served stale meanwhile
+            restReportMockMvc
+                    .perform(get(ENTITY_API_URL + "/AVG_AGE_MALE"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string(HttpHeaders.AGE, startsWith("1728"))); // two days, in seconds
+
+            LocalDateTime reportDate = report.getReportDate();
+            for (int i = 0; i < 100 && !reportDate.isAfter(LocalDateTime.now().minusDays(1)); i++) {
+                Thread.sleep(50);
+                reportDate = reportRepository.findById(ReportType.AVG_AGE_MALE).get().getReportDate();
+            }
+            assertThat(reportDate).isAfter(LocalDateTime.now().minusDays(1));
+        } finally {
+            reportRepository.deleteById(ReportType.AVG_AGE_MALE);
+            customerService.deleteAll(this.customers.stream().map(Customer::getId).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void recountAndWritersDoNotDeadlock() throws Exception {
+        // not transactional, the writers and the recounts commit on threads of their own
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        List<Long> ids = new CopyOnWriteArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int writer = 0; writer < 2; writer++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        // changes both genders, their rows are updated as the transaction commits
+                        customerService.saveAll(Arrays.asList(
+                                new Customer("male", Gender.MALE, null, LocalDate.ofEpochDay(0L), Instant.now()),
+                                new Customer("female", Gender.FEMALE, null, LocalDate.ofEpochDay(366 * 10), Instant.now())))
+                                .forEach(customer -> ids.add(customer.getId()));
+                    }
+                }));
+            }
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 50; i++) {
+                    transactionTemplate.executeWithoutResult(status -> customerAggregates.recount());
+                }
+            }));
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+
+            CustomerTotals totals = customerAggregates.totals();
+            assertThat(totals.getCustomers(Gender.MALE)).isEqualTo(5 + 100);
+            assertThat(totals.getCustomers(Gender.FEMALE)).isEqualTo(5 + 100);
+        } finally {
+            executor.shutdownNow();
+            customerService.deleteAll(ids);
+            customerService.deleteAll(this.customers.stream().map(Customer::getId).collect(Collectors.toList()));
+        }
+    }
+
+    private static int ageOfMeanBirthDate(long birthEpochDays, long customers) {
+        return Period.between(LocalDate.ofEpochDay(birthEpochDays / customers), LocalDate.now()).getYears();
+    }
+
+    @Test
+    void getReportIsServedFromTheQueryCache() throws Exception {
+        // not transactional: results are only cached once the report is committed, so clean up afterwards
+        reportService.prepareReport(ReportType.AVG_AGE);
+        try {
+            restReportMockMvc.perform(get(ENTITY_API_URL + "/AVG_AGE")).andExpect(status().isOk());
+            JsonNode before = cacheStats();
+
+            restReportMockMvc
+                    .perform(get(ENTITY_API_URL + "/AVG_AGE"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.data").value(String.valueOf(this.expectedAverageAge)));
+
+            JsonNode after = cacheStats();
+            assertThat(after.get("queryHits").asLong()).isGreaterThan(before.get("queryHits").asLong());
+            assertThat(after.get("hits").asLong()).isGreaterThan(before.get("hits").asLong());
+        } finally {
+            reportRepository.findByReportType(ReportType.AVG_AGE).ifPresent(reportRepository::delete);
+            customerService.deleteAll(this.customers.stream().map(Customer::getId).collect(Collectors.toList()));
+        }
+    }
+
+    private JsonNode cacheStats() throws Exception {
+        return objectMapper.readTree(restReportMockMvc
+                .perform(get("/api/cache/stats"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString());
+    }
 }